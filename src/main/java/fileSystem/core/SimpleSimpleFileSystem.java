@@ -1,12 +1,15 @@
 package fileSystem.core;
 
+import fileSystem.core.structure.FileSystemOptions;
 import fileSystem.core.structure.SimpleDirectory;
 import fileSystem.core.structure.SimpleFile;
 import fileSystem.core.structure.SimpleFileReadWriter;
+import fileSystem.core.structure.base.BlockCache;
+import fileSystem.core.structure.base.Durability;
+import fileSystem.core.structure.base.StorageType;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.channels.SeekableByteChannel;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -21,6 +24,18 @@ public class SimpleSimpleFileSystem implements AutoCloseable {
     private final SimpleFileReadWriter readWriter;
 
     public SimpleSimpleFileSystem(String filePath) throws IOException {
+        this(filePath, new FileSystemOptions());
+    }
+
+    public SimpleSimpleFileSystem(String filePath, StorageType storageType) throws IOException {
+        this(filePath, getOptions(storageType));
+    }
+
+    public SimpleSimpleFileSystem(String filePath, Durability durability) throws IOException {
+        this(filePath, getOptions(durability));
+    }
+
+    public SimpleSimpleFileSystem(String filePath, FileSystemOptions options) throws IOException {
         Path path = Paths.get(filePath);
         boolean createNew = true;
 
@@ -32,8 +47,19 @@ public class SimpleSimpleFileSystem implements AutoCloseable {
                 throw new FileSystemNotFoundException(path.toString());
             }
         }
-        SeekableByteChannel channel = Files.newByteChannel(path, WRITE, READ);
-        readWriter = new SimpleFileReadWriter(channel);
+        readWriter = SimpleFileReadWriter.open(path, options);
+    }
+
+    private static FileSystemOptions getOptions(StorageType storageType) {
+        FileSystemOptions options = new FileSystemOptions();
+        options.setStorageType(storageType);
+        return options;
+    }
+
+    private static FileSystemOptions getOptions(Durability durability) {
+        FileSystemOptions options = new FileSystemOptions();
+        options.setDurability(durability);
+        return options;
     }
 
     public SimpleDirectory getDirectory(String path) throws IOException {
@@ -60,6 +86,21 @@ public class SimpleSimpleFileSystem implements AutoCloseable {
         readWriter.deleteFile(readWriter.getFile(getPath(path)));
     }
 
+    public BlockCache getBlockCache() {
+        return readWriter.getBlockCache();
+    }
+
+    public void flush() throws IOException {
+        readWriter.flush();
+    }
+
+    /**
+     * Grows the image to at least given size in bytes before a bulk load.
+     */
+    public void preallocate(long imageSize) throws IOException {
+        readWriter.preallocate(imageSize);
+    }
+
     private String[] getPath(String path) {
         if (path == null)
             throw new IllegalArgumentException("Path can not be null");
@@ -0,0 +1,83 @@
+package fileSystem.core.structure;
+
+import fileSystem.core.structure.base.SimpleINode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Stream over data blocks of a file, the next readAhead blocks are read at once into a buffer.
+ * The file is locked only while the buffer is filled, it is checked not to be changed since the stream was opened.
+ */
+public class BlockChainInputStream extends InputStream {
+    public static final int DEFAULT_READ_AHEAD = 16; //in blocks
+
+    private final SimpleFileReadWriter fileReadWriter;
+    private final SimpleINode iNode;
+    private final ByteBuffer buffer;
+    private long next;
+    private long remaining;
+    private boolean closed;
+
+    BlockChainInputStream(SimpleFileReadWriter fileReadWriter, SimpleINode iNode, int readAhead) {
+        this.fileReadWriter = fileReadWriter;
+        this.iNode = iNode;
+        this.buffer = ByteBuffer.allocate(Math.max(1, readAhead) * fileReadWriter.getFormat().getBlockDataSize());
+        this.buffer.limit(0);
+        this.next = iNode.getFirstDataBlock();
+        this.remaining = iNode.getTotalSize();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (int) Math.min(Integer.MAX_VALUE, buffer.remaining() + Math.max(0, remaining));
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+    }
+
+    /**
+     * @return false at the end of the file
+     */
+    private boolean fill() throws IOException {
+        ensureOpen();
+        while (!buffer.hasRemaining()) {
+            if (next == -1)
+                return false;
+            buffer.clear();
+            next = fileReadWriter.readBlocks(iNode, next, buffer);
+            buffer.flip();
+            remaining -= buffer.remaining();
+        }
+        return true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+}
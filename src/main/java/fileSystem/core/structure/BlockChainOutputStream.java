@@ -0,0 +1,77 @@
+package fileSystem.core.structure;
+
+import fileSystem.core.structure.base.SimpleINode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream appending data to the block chain of a file, blocks are allocated and written as data arrives.
+ * Only data of the last block is kept, it is written when the block is full or on flush,
+ * so flush writes the last block and the iNode only.
+ */
+public class BlockChainOutputStream extends OutputStream {
+    private final SimpleFileReadWriter fileReadWriter;
+    private final SimpleINode iNode;
+    private final byte[] tail;
+    private int tailSize;
+    private boolean dirty;
+    private boolean closed;
+
+    /**
+     * @param tailSize size of the data of the last block of the file, it is read to tail
+     */
+    BlockChainOutputStream(SimpleFileReadWriter fileReadWriter, SimpleINode iNode, byte[] tail, int tailSize) {
+        this.fileReadWriter = fileReadWriter;
+        this.iNode = iNode;
+        this.tail = new byte[fileReadWriter.getFormat().getBlockDataSize()];
+        System.arraycopy(tail, 0, this.tail, 0, tailSize);
+        this.tailSize = tailSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        ensureOpen();
+        int n = Math.min(len, tail.length - tailSize);
+        System.arraycopy(b, off, tail, tailSize, n);
+        tailSize += n;
+        dirty |= n > 0;
+        if (n == len)
+            return;
+        //last block is full, it is written together with new blocks of the rest, the new last block becomes the tail
+        fileReadWriter.writeLast(iNode, tail, tailSize, b, off + n, len - n);
+        int last = (len - n - 1) % tail.length + 1;
+        System.arraycopy(b, off + len - last, tail, 0, last);
+        tailSize = last;
+        dirty = false;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (!dirty)
+            return;
+        fileReadWriter.writeLast(iNode, tail, tailSize, tail, 0, 0);
+        dirty = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        flush();
+        closed = true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+}
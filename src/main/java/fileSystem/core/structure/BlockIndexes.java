@@ -0,0 +1,72 @@
+package fileSystem.core.structure;
+
+import fileSystem.core.structure.base.SegmentedLru;
+
+import java.util.Arrays;
+
+/**
+ * Positions of data blocks of recently read files by iNode position, so block k of a file is found without
+ * walking its chain. Bounded with LRU eviction and split into independently locked segments.
+ * An index is valid for the iNode time stamp it was built or last changed for, it is used and changed
+ * only while the file is locked, see SimpleFileReadWriter.
+ */
+public class BlockIndexes {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final SegmentedLru<Long, Index> indexes;
+
+    /**
+     * @param capacity max count of files with indexes
+     */
+    public BlockIndexes(int capacity) {
+        this.indexes = new SegmentedLru<>(capacity);
+    }
+
+    /**
+     * @return index of the file or null if there is none for the time stamp
+     */
+    public Index get(long iNode, long timeStamp) {
+        Index index = indexes.get(iNode);
+        return index != null && index.timeStamp == timeStamp ? index : null;
+    }
+
+    public void put(long iNode, Index index) {
+        indexes.put(iNode, index);
+    }
+
+    public void remove(long iNode) {
+        indexes.remove(iNode);
+    }
+
+    public int getCapacity() {
+        return indexes.getCapacity();
+    }
+
+    /**
+     * Blocks of a file in chain order, every block but the last one is full.
+     */
+    public static class Index {
+        long timeStamp;
+        private long[] blocks;
+        private int count;
+
+        Index(long timeStamp) {
+            this.timeStamp = timeStamp;
+            this.blocks = new long[16];
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public long get(int k) {
+            return blocks[k];
+        }
+
+        void add(long block) {
+            if (count == blocks.length)
+                blocks = Arrays.copyOf(blocks, count * 2);
+            blocks[count++] = block;
+        }
+    }
+}
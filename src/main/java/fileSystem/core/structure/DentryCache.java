@@ -0,0 +1,101 @@
+package fileSystem.core.structure;
+
+import fileSystem.core.structure.base.SegmentedLru;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of resolved paths to iNode positions with LRU eviction.
+ * Split into independently locked segments by path, only existing paths are cached.
+ */
+public class DentryCache {
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    private final SegmentedLru<String, Long> paths;
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity max count of cached paths
+     */
+    public DentryCache(int capacity) {
+        this.paths = new SegmentedLru<>(capacity);
+    }
+
+    public static String key(String[] path) {
+        return key(path, path.length);
+    }
+
+    public static String key(String[] path, int length) {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            key.append('/').append(path[i]);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return generation to pass to put, taken before the path is resolved
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return iNode position of the path or -1 if it is not cached
+     */
+    public long get(String key) {
+        Long pos = paths.get(key);
+        if (pos == null) {
+            misses.incrementAndGet();
+            return -1;
+        }
+        hits.incrementAndGet();
+        return pos;
+    }
+
+    /**
+     * Caches the resolved path unless some path was invalidated after the generation was taken,
+     * the path could have been resolved through a directory changed meanwhile.
+     */
+    public void put(String key, long pos, long generation) {
+        synchronized (paths.lockOf(key)) {
+            if (this.generation.get() == generation)
+                paths.put(key, pos);
+        }
+    }
+
+    /**
+     * Forgets the path, has to be called after its directory entry is changed.
+     */
+    public void invalidate(String key) {
+        synchronized (paths.lockOf(key)) {
+            generation.incrementAndGet();
+            paths.remove(key);
+        }
+    }
+
+    public int getCapacity() {
+        return paths.getCapacity();
+    }
+
+    public int getSize() {
+        return paths.getSize();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DentryCache{size=" + getSize() + ", capacity=" + getCapacity() + ", hits=" + getHits() +
+                ", misses=" + getMisses() + "}";
+    }
+}
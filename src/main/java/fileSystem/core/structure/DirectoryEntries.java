@@ -0,0 +1,227 @@
+package fileSystem.core.structure;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Children of a directory: open addressing map from encoded name to iNode position.
+ * Names are kept in one byte array and entries in primitive arrays, so there is no object per child.
+ * Entries are dense with indexes from 0 to size - 1, removing moves the last entry to the freed index.
+ */
+public class DirectoryEntries {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int FREE = -1;
+
+    private byte[] names;
+    private int namesEnd;
+    private int garbage;
+    private int[] offsets;
+    private int[] lengths;
+    private long[] values;
+    private long[] hashes;
+    private int[] table;
+    private int size;
+
+    public DirectoryEntries() {
+        this(0, 0);
+    }
+
+    /**
+     * @param count     expected count of children
+     * @param namesSize expected total length of encoded names
+     */
+    public DirectoryEntries(int count, int namesSize) {
+        int capacity = Math.max(8, count);
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        values = new long[capacity];
+        hashes = new long[capacity];
+        names = new byte[Math.max(64, namesSize)];
+        int tableSize = 16;
+        while (tableSize < capacity * 2) {
+            tableSize <<= 1;
+        }
+        table = new int[tableSize];
+        Arrays.fill(table, FREE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return iNode position of the child or -1 if there is no such child
+     */
+    public long get(byte[] name) {
+        int slot = find(name, 0, name.length, DirectoryIndex.hash(name, 0, name.length));
+        return table[slot] == FREE ? -1 : values[table[slot]];
+    }
+
+    public boolean contains(byte[] name) {
+        return get(name) != -1;
+    }
+
+    /**
+     * @return previous iNode position of the child or -1 if it is a new child
+     */
+    public long put(byte[] name, long value) {
+        return put(name, 0, name.length, value);
+    }
+
+    /**
+     * Copies the name from the range of the array, so directory data is parsed without a copy per name.
+     *
+     * @return previous iNode position of the child or -1 if it is a new child
+     */
+    public long put(byte[] name, int offset, int length, long value) {
+        long hash = DirectoryIndex.hash(name, offset, length);
+        int slot = find(name, offset, length, hash);
+        if (table[slot] != FREE) {
+            long previous = values[table[slot]];
+            values[table[slot]] = value;
+            return previous;
+        }
+        if (size == values.length) {
+            int capacity = size * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            values = Arrays.copyOf(values, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        if (namesEnd + length > names.length)
+            compact(length);
+        System.arraycopy(name, offset, names, namesEnd, length);
+        offsets[size] = namesEnd;
+        lengths[size] = length;
+        values[size] = value;
+        hashes[size] = hash;
+        namesEnd += length;
+        table[slot] = size++;
+        if (size * 2 > table.length)
+            rehash(table.length * 2);
+        return -1;
+    }
+
+    /**
+     * @return iNode position of the removed child or -1 if there was no such child
+     */
+    public long remove(byte[] name) {
+        int mask = table.length - 1;
+        int hole = find(name, 0, name.length, DirectoryIndex.hash(name, 0, name.length));
+        int index = table[hole];
+        if (index == FREE)
+            return -1;
+        long value = values[index];
+        //backward shift of following entries of the probe sequence, no tombstones are left
+        for (int next = (hole + 1) & mask; table[next] != FREE; next = (next + 1) & mask) {
+            int ideal = (int) hashes[table[next]] & mask;
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+        }
+        table[hole] = FREE;
+        garbage += lengths[index];
+        int last = --size;
+        if (index != last) {
+            int slot = (int) hashes[last] & mask;
+            while (table[slot] != last) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index;
+            offsets[index] = offsets[last];
+            lengths[index] = lengths[last];
+            values[index] = values[last];
+            hashes[index] = hashes[last];
+        }
+        return value;
+    }
+
+    public String getName(int index) {
+        return new String(names, offsets[index], lengths[index], UTF_8);
+    }
+
+    public byte[] getNameBytes(int index) {
+        return Arrays.copyOfRange(names, offsets[index], offsets[index] + lengths[index]);
+    }
+
+    public int getNameLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * Puts the encoded name to the buffer.
+     */
+    public void writeName(int index, ByteBuffer buffer) {
+        buffer.put(names, offsets[index], lengths[index]);
+    }
+
+    public long getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return DirectoryIndex hash of the name
+     */
+    public long getHash(int index) {
+        return hashes[index];
+    }
+
+    /**
+     * @return slot of the entry with the name or free slot where it is put
+     */
+    private int find(byte[] name, int offset, int length, long hash) {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        while (table[slot] != FREE && !matches(table[slot], hash, name, offset, length)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean matches(int index, long hash, byte[] name, int offset, int length) {
+        if (hashes[index] != hash || lengths[index] != length)
+            return false;
+        int start = offsets[index];
+        for (int i = 0; i < length; i++) {
+            if (names[start + i] != name[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves names of live entries to a new array with room for the given length, dropping removed names.
+     */
+    private void compact(int length) {
+        int live = namesEnd - garbage;
+        byte[] target = new byte[Math.max(names.length, 2 * (live + length))];
+        int end = 0;
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(names, offsets[i], target, end, lengths[i]);
+            offsets[i] = end;
+            end += lengths[i];
+        }
+        names = target;
+        namesEnd = end;
+        garbage = 0;
+    }
+
+    private void rehash(int tableSize) {
+        table = new int[tableSize];
+        Arrays.fill(table, FREE);
+        int mask = tableSize - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = (int) hashes[i] & mask;
+            while (table[slot] != FREE) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i;
+        }
+    }
+}
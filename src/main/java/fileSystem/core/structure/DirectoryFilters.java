@@ -0,0 +1,150 @@
+package fileSystem.core.structure;
+
+import fileSystem.core.structure.base.SegmentedLru;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filters of child names by directory iNode position, answer most lookups of missing names without reading
+ * the directory. Bounded with LRU eviction and split into independently locked segments.
+ * Filters are built and changed only while the directory is locked, see SimpleFileReadWriter.
+ */
+public class DirectoryFilters {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final SegmentedLru<Long, Filter> filters;
+
+    private final AtomicLong negatives = new AtomicLong();
+
+    /**
+     * @param capacity max count of directories with filters
+     */
+    public DirectoryFilters(int capacity) {
+        this.filters = new SegmentedLru<>(capacity);
+    }
+
+    /**
+     * @return false if the directory surely has no such child, true if it may have or it has no filter
+     */
+    public boolean mightContain(long dir, byte[] name) {
+        Filter filter = get(dir);
+        if (filter == null || filter.mightContain(DirectoryIndex.hash(name)))
+            return true;
+        negatives.incrementAndGet();
+        return false;
+    }
+
+    public boolean contains(long dir) {
+        return get(dir) != null;
+    }
+
+    /**
+     * Builds the filter from all children names of the directory.
+     */
+    public void put(long dir, DirectoryEntries names) {
+        Filter filter = new Filter(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            filter.add(names.getHash(i));
+        }
+        filters.put(dir, filter);
+    }
+
+    public void add(long dir, byte[] name) {
+        Filter filter = get(dir);
+        if (filter == null)
+            return;
+        if (!filter.add(DirectoryIndex.hash(name)))
+            remove(dir);
+    }
+
+    /**
+     * Bits of a removed name can not be cleared, the filter is dropped when it is mostly made of removed names.
+     */
+    public void removed(long dir) {
+        Filter filter = get(dir);
+        if (filter != null && !filter.removed())
+            remove(dir);
+    }
+
+    public void remove(long dir) {
+        filters.remove(dir);
+    }
+
+    public int getCapacity() {
+        return filters.getCapacity();
+    }
+
+    /**
+     * @return count of lookups answered by filters
+     */
+    public long getNegatives() {
+        return negatives.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DirectoryFilters{capacity=" + getCapacity() + ", negatives=" + getNegatives() + "}";
+    }
+
+    private Filter get(long dir) {
+        return filters.get(dir);
+    }
+
+    /**
+     * Filter with about 1% false positives up to twice the count of names it was built with.
+     * Bits are taken from the DirectoryIndex hash of the encoded name.
+     */
+    private static class Filter {
+        private static final int BITS_PER_NAME = 10;
+        private static final int HASHES = 7;
+
+        private final AtomicLongArray bits;
+        private final int bitCount;
+        private final int maxNames;
+        private int names;
+        private int removed;
+
+        Filter(int names) {
+            maxNames = Math.max(16, 2 * names);
+            bits = new AtomicLongArray((maxNames * BITS_PER_NAME + 63) / 64);
+            bitCount = bits.length() * 64;
+        }
+
+        boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+                if ((bits.get(bit >>> 6) & (1L << bit)) == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return false if the filter is full and has to be rebuilt
+         */
+        boolean add(long hash) {
+            if (++names > maxNames)
+                return false;
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+                long word = bits.get(bit >>> 6);
+                while ((word & (1L << bit)) == 0 && !bits.compareAndSet(bit >>> 6, word, word | (1L << bit))) {
+                    word = bits.get(bit >>> 6);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return false if the filter has to be rebuilt
+         */
+        boolean removed() {
+            return ++removed <= names / 2;
+        }
+    }
+}
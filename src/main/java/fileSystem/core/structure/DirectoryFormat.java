@@ -0,0 +1,15 @@
+package fileSystem.core.structure;
+
+/**
+ * On-disk formats of directories.
+ */
+public enum DirectoryFormat {
+    /**
+     * All children in one flat blob, see DirectoryParser. Every change rewrites the whole directory.
+     */
+    FLAT,
+    /**
+     * B+tree of children by name hash, see DirectoryIndex. Flat directories are converted on their first change.
+     */
+    INDEXED
+}
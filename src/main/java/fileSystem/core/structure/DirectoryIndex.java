@@ -0,0 +1,435 @@
+package fileSystem.core.structure;
+
+import fileSystem.core.structure.base.BaseStructureReadWriter;
+import fileSystem.core.structure.base.BlockView;
+import fileSystem.core.structure.base.Constants;
+import fileSystem.core.structure.base.SimpleBlock;
+import fileSystem.core.structure.base.SpaceAllocator;
+import fileSystem.extended.SimpleCoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Directory format for large directories: B+tree of children keyed by 64-bit hash of the name, one node per block.
+ * Lookup, insert and remove read and write only the blocks on the path from the root to a leaf.
+ * Root stays in the first data block of the directory iNode, it is moved down when it is split.
+ * Node: kind int, count int, then count entries,
+ * leaf entry: hash long, iNode long, name length short, name; internal entry: lowest hash long, child block long.
+ * Kind is negative, so the first block of an index is told apart from flat DirectoryParser data starting with count.
+ */
+public class DirectoryIndex {
+    static final int LEAF = -1;
+    static final int INTERNAL = -2;
+    private static final int NODE_HEADER_SIZE = 4 + 4;
+    private static final int INTERNAL_ENTRY_SIZE = 8 + 8;
+    private static final int LEAF_ENTRY_SIZE = 8 + 8 + 2;
+    //in bytes, fits a leaf of blocks of every image format
+    public static final int MAX_NAME_LENGTH = Constants.BLOCK_DATA_SIZE - NODE_HEADER_SIZE - LEAF_ENTRY_SIZE;
+
+    private final BaseStructureReadWriter readWriter;
+    private final SpaceAllocator spaceAllocator;
+    private final SimpleCoder coder = SimpleCoder.get(Charset.forName("UTF-8"));
+
+    public DirectoryIndex(BaseStructureReadWriter readWriter, SpaceAllocator spaceAllocator) {
+        this.readWriter = readWriter;
+        this.spaceAllocator = spaceAllocator;
+    }
+
+    /**
+     * @return true if the directory data starting with the block is an index, false for flat data
+     */
+    public boolean isIndex(long firstBlock) throws IOException {
+        if (firstBlock == -1)
+            return false;
+        BlockView block = readWriter.readBlockView(firstBlock);
+        return block.getSize() >= 4 && block.getDataInt(0) < 0;
+    }
+
+    /**
+     * @return position of the root of a new empty index
+     */
+    public long create() throws IOException {
+        Node root = new Node(spaceAllocator.getFreeBlock(), true, 0);
+        write(root);
+        return root.block.getCurPos();
+    }
+
+    /**
+     * @return iNode position of the child or -1 if there is no such child
+     */
+    public long get(long root, String name) throws IOException {
+        return get(root, coder.getBytes(name));
+    }
+
+    /**
+     * Searches nodes in place over block views, nothing is decoded or allocated per entry.
+     *
+     * @return iNode position of the child with the encoded name or -1 if there is no such child
+     */
+    public long get(long root, byte[] name) throws IOException {
+        long hash = hash(name);
+        BlockView block = readWriter.readBlockView(root);
+        while (block.getDataInt(0) == INTERNAL) {
+            int low = 1;
+            int high = block.getDataInt(4);
+            //last entry with lowest hash not greater than the hash, the first entry covers all lower hashes
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (block.getDataLong(NODE_HEADER_SIZE + middle * INTERNAL_ENTRY_SIZE) <= hash)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            block = readWriter.readBlockView(block.getDataLong(NODE_HEADER_SIZE + (low - 1) * INTERNAL_ENTRY_SIZE + 8));
+        }
+        int count = block.getDataInt(4);
+        int offset = NODE_HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            long entryHash = block.getDataLong(offset);
+            if (entryHash > hash)
+                break;
+            int nameLength = block.getDataShort(offset + 16);
+            if (entryHash == hash && nameLength == name.length && block.dataEquals(offset + LEAF_ENTRY_SIZE, name))
+                return block.getDataLong(offset + 8);
+            offset += LEAF_ENTRY_SIZE + nameLength;
+        }
+        return -1;
+    }
+
+    /**
+     * @return false if the child already exists
+     */
+    public boolean put(long root, String name, long pos) throws IOException {
+        return put(root, checkName(name), pos);
+    }
+
+    /**
+     * @return false if the child already exists
+     */
+    public boolean put(long root, byte[] bytes, long pos) throws IOException {
+        if (bytes.length > MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Name is longer than " + MAX_NAME_LENGTH + " bytes.");
+        long hash = hash(bytes);
+        ArrayList<Node> path = new ArrayList<>();
+        Node node = read(root);
+        while (!node.leaf) {
+            path.add(node);
+            node = read(node.values[node.childIndex(hash)]);
+        }
+        if (node.indexOf(hash, bytes) >= 0)
+            return false;
+        node.insert(node.insertionIndex(hash), hash, pos, bytes);
+
+        while (node.size() > node.block.getData().length) {
+            int[] bounds = node.splitBounds();
+            if (node.block.getCurPos() == root) {
+                //all parts move to new blocks, the root becomes their parent
+                Node parent = new Node(node.block, false, 0);
+                for (int i = 0; i + 1 < bounds.length; i++) {
+                    Node part = node.copy(spaceAllocator.getFreeBlock(), bounds[i], bounds[i + 1]);
+                    write(part);
+                    parent.insert(i, i == 0 ? Long.MIN_VALUE : part.hashes[0], part.block.getCurPos(), null);
+                }
+                node = parent;
+                break;
+            }
+            Node parent = path.remove(path.size() - 1);
+            int index = parent.childIndex(node.hashes[0]);
+            for (int i = 1; i + 1 < bounds.length; i++) {
+                Node part = node.copy(spaceAllocator.getFreeBlock(), bounds[i], bounds[i + 1]);
+                write(part);
+                parent.insert(index + i, part.hashes[0], part.block.getCurPos(), null);
+            }
+            node.count = bounds[1];
+            write(node);
+            node = parent;
+        }
+        write(node);
+        return true;
+    }
+
+    /**
+     * Removes the child from its leaf, leaves are not merged, so removing touches only the path to the leaf.
+     *
+     * @return false if there was no such child
+     */
+    public boolean remove(long root, String name) throws IOException {
+        return remove(root, coder.getBytes(name));
+    }
+
+    public boolean remove(long root, byte[] bytes) throws IOException {
+        long hash = hash(bytes);
+        Node node = read(root);
+        while (!node.leaf) {
+            node = read(node.values[node.childIndex(hash)]);
+        }
+        int index = node.indexOf(hash, bytes);
+        if (index < 0)
+            return false;
+        node.remove(index);
+        write(node);
+        return true;
+    }
+
+    /**
+     * @return encoded name
+     * @throws IllegalArgumentException if the name does not fit a block
+     */
+    public byte[] checkName(String name) {
+        byte[] bytes = coder.getBytes(name);
+        if (bytes.length > MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Name is longer than " + MAX_NAME_LENGTH + " bytes: " + name);
+        return bytes;
+    }
+
+    /**
+     * @return all children by name
+     */
+    public DirectoryEntries readAll(long root) throws IOException {
+        DirectoryEntries children = new DirectoryEntries();
+        ArrayList<Long> nodes = new ArrayList<>();
+        nodes.add(root);
+        while (!nodes.isEmpty()) {
+            Node node = read(nodes.remove(nodes.size() - 1));
+            for (int i = 0; i < node.count; i++) {
+                if (node.leaf)
+                    children.put(node.names[i], node.values[i]);
+                else
+                    nodes.add(node.values[i]);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * @return true if no leaf has a child, empty leaves are left by remove
+     */
+    public boolean isEmpty(long root) throws IOException {
+        ArrayList<Long> nodes = new ArrayList<>();
+        nodes.add(root);
+        while (!nodes.isEmpty()) {
+            Node node = read(nodes.remove(nodes.size() - 1));
+            if (node.leaf && node.count > 0)
+                return false;
+            if (!node.leaf) {
+                for (int i = 0; i < node.count; i++) {
+                    nodes.add(node.values[i]);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return positions of all blocks of the index
+     */
+    public long[] getBlocks(long root) throws IOException {
+        long[] blocks = new long[16];
+        int count = 0;
+        blocks[count++] = root;
+        for (int i = 0; i < count; i++) {
+            Node node = read(blocks[i]);
+            if (node.leaf)
+                continue;
+            for (int j = 0; j < node.count; j++) {
+                if (count == blocks.length)
+                    blocks = Arrays.copyOf(blocks, count * 2);
+                blocks[count++] = node.values[j];
+            }
+        }
+        return Arrays.copyOf(blocks, count);
+    }
+
+    /**
+     * FNV-1a with a final mix of bits, so leaves split evenly.
+     */
+    static long hash(byte[] name) {
+        return hash(name, 0, name.length);
+    }
+
+    static long hash(byte[] name, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= name[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private Node read(long pos) throws IOException {
+        SimpleBlock block = readWriter.readBlock(pos);
+        ByteBuffer data = ByteBuffer.wrap(block.getData());
+        int kind = data.getInt();
+        if (kind != LEAF && kind != INTERNAL)
+            throw new IllegalStateException("Block " + pos + " is not a directory index node.");
+        Node node = new Node(block, kind == LEAF, data.getInt());
+        for (int i = 0; i < node.count; i++) {
+            node.hashes[i] = data.getLong();
+            node.values[i] = data.getLong();
+            if (node.leaf) {
+                node.names[i] = new byte[data.getShort()];
+                data.get(node.names[i]);
+            }
+        }
+        return node;
+    }
+
+    private void write(Node node) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(node.block.getData());
+        data.putInt(node.leaf ? LEAF : INTERNAL);
+        data.putInt(node.count);
+        for (int i = 0; i < node.count; i++) {
+            data.putLong(node.hashes[i]);
+            data.putLong(node.values[i]);
+            if (node.leaf) {
+                data.putShort((short) node.names[i].length);
+                data.put(node.names[i]);
+            }
+        }
+        node.block.setSize(data.position());
+        node.block.setNextDataBlock(-1);
+        readWriter.writeBlock(node.block);
+    }
+
+    /**
+     * Decoded node, entries are sorted by hash.
+     */
+    private static class Node {
+        final SimpleBlock block;
+        final boolean leaf;
+        int count;
+        long[] hashes;
+        long[] values;
+        byte[][] names;
+
+        Node(SimpleBlock block, boolean leaf, int count) {
+            this.block = block;
+            this.leaf = leaf;
+            this.count = count;
+            int capacity = Math.max(count + 1, 8);
+            this.hashes = new long[capacity];
+            this.values = new long[capacity];
+            this.names = leaf ? new byte[capacity][] : null;
+        }
+
+        int size() {
+            if (!leaf)
+                return NODE_HEADER_SIZE + count * INTERNAL_ENTRY_SIZE;
+            int size = NODE_HEADER_SIZE;
+            for (int i = 0; i < count; i++) {
+                size += LEAF_ENTRY_SIZE + names[i].length;
+            }
+            return size;
+        }
+
+        /**
+         * @return index of the last entry with hash not greater than the given one
+         */
+        int childIndex(long hash) {
+            return Math.max(0, insertionIndex(hash) - 1);
+        }
+
+        /**
+         * @return index after all entries with hash not greater than the given one
+         */
+        int insertionIndex(long hash) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (hashes[middle] <= hash)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            return low;
+        }
+
+        int indexOf(long hash, byte[] name) {
+            for (int i = insertionIndex(hash) - 1; i >= 0 && hashes[i] == hash; i--) {
+                if (Arrays.equals(names[i], name))
+                    return i;
+            }
+            return -1;
+        }
+
+        void insert(int index, long hash, long value, byte[] name) {
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+                if (leaf)
+                    names = Arrays.copyOf(names, count * 2);
+            }
+            System.arraycopy(hashes, index, hashes, index + 1, count - index);
+            System.arraycopy(values, index, values, index + 1, count - index);
+            hashes[index] = hash;
+            values[index] = value;
+            if (leaf) {
+                System.arraycopy(names, index, names, index + 1, count - index);
+                names[index] = name;
+            }
+            count++;
+        }
+
+        void remove(int index) {
+            System.arraycopy(hashes, index + 1, hashes, index, count - index - 1);
+            System.arraycopy(values, index + 1, values, index, count - index - 1);
+            if (leaf)
+                System.arraycopy(names, index + 1, names, index, count - index - 1);
+            count--;
+        }
+
+        /**
+         * @return bounds of parts the node is split into, each fits a block and keeps entries with the same hash
+         */
+        int[] splitBounds() throws IOException {
+            if (!leaf)
+                return new int[]{0, count / 2, count};
+            int[] offsets = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                offsets[i + 1] = offsets[i] + LEAF_ENTRY_SIZE + names[i].length;
+            }
+            int capacity = block.getData().length - NODE_HEADER_SIZE;
+            int best = -1;
+            for (int i = 1; i < count; i++) {
+                if (hashes[i - 1] == hashes[i] || offsets[i] > capacity || offsets[count] - offsets[i] > capacity)
+                    continue;
+                if (best == -1 || Math.abs(offsets[count] - 2 * offsets[i]) < Math.abs(offsets[count] - 2 * offsets[best]))
+                    best = i;
+            }
+            if (best != -1)
+                return new int[]{0, best, count};
+            //long names may need three parts
+            int[] bounds = new int[count + 1];
+            int parts = 0;
+            while (bounds[parts] < count) {
+                int start = bounds[parts];
+                int end = -1;
+                for (int i = start + 1; i <= count && offsets[i] - offsets[start] <= capacity; i++) {
+                    if (i == count || hashes[i - 1] != hashes[i])
+                        end = i;
+                }
+                if (end == -1)
+                    throw new IOException("Too many names with the same hash in one directory block.");
+                bounds[++parts] = end;
+            }
+            return Arrays.copyOf(bounds, parts + 1);
+        }
+
+        Node copy(SimpleBlock block, int from, int to) {
+            Node node = new Node(block, leaf, to - from);
+            System.arraycopy(hashes, from, node.hashes, 0, to - from);
+            System.arraycopy(values, from, node.values, 0, to - from);
+            if (leaf)
+                System.arraycopy(names, from, node.names, 0, to - from);
+            return node;
+        }
+    }
+}
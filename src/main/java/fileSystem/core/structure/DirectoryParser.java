@@ -2,13 +2,8 @@ package fileSystem.core.structure;
 
 import fileSystem.extended.SimpleCoder;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Methods for parsing byte data into directory format.
@@ -16,31 +11,63 @@ import java.util.Map;
 public class DirectoryParser {
     private final SimpleCoder coder = SimpleCoder.get(Charset.forName("UTF-8"));
 
-    public HashMap<String, Long> fromBytes(byte[] data) {
-        HashMap<String, Long> children = new HashMap<>();
+    public DirectoryEntries fromBytes(byte[] data) {
         ByteBuffer buffer = ByteBuffer.wrap(data);
-        int countOfElements = buffer.getInt();
+        int countOfElements = buffer.getInt(0);
+        DirectoryEntries children = new DirectoryEntries(countOfElements, data.length - 4 - countOfElements * (4 + 8));
+        int offset = 4;
         for (int i = 0; i < countOfElements; i++) {
-            int nameLength = buffer.getInt();
-            byte[] nameBytes = Arrays.copyOfRange(data, buffer.position(), buffer.position() + nameLength);
-            String name = coder.toString(nameBytes);
-            buffer.position(buffer.position() + nameLength);
-            long value = buffer.getLong();
-            children.put(name, value);
+            int nameLength = buffer.getInt(offset);
+            offset += 4;
+            children.put(data, offset, nameLength, buffer.getLong(offset + nameLength));
+            offset += nameLength + 8;
         }
         return children;
     }
 
-    public byte[] toBytes(HashMap<String, Long> children) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        outputStream.write(ByteBuffer.allocate(4).putInt(children.size()).array());
-        for (Map.Entry<String, Long> entry : children.entrySet()) {
-            byte[] bytes = coder.getBytes(entry.getKey());
-            outputStream.write(ByteBuffer.allocate(4).putInt(bytes.length).array());
-            outputStream.write(bytes);
-            outputStream.write(ByteBuffer.allocate(8).putLong(entry.getValue()).array());
+    /**
+     * Scans encoded directory data without decoding it.
+     *
+     * @return iNode position of the child with the encoded name or -1 if there is no such child
+     */
+    public long lookup(byte[] data, byte[] name) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int countOfElements = buffer.getInt(0);
+        int offset = 4;
+        for (int i = 0; i < countOfElements; i++) {
+            int nameLength = buffer.getInt(offset);
+            offset += 4;
+            if (nameLength == name.length && equals(data, offset, name))
+                return buffer.getLong(offset + nameLength);
+            offset += nameLength + 8;
+        }
+        return -1;
+    }
+
+    public byte[] getBytes(String name) {
+        return coder.getBytes(name);
+    }
+
+    private static boolean equals(byte[] data, int offset, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (data[offset + i] != name[i])
+                return false;
         }
+        return true;
+    }
 
-        return outputStream.toByteArray();
+    public byte[] toBytes(DirectoryEntries children) {
+        int size = 4;
+        for (int i = 0; i < children.size(); i++) {
+            size += 4 + children.getNameLength(i) + 8;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(children.size());
+        for (int i = 0; i < children.size(); i++) {
+            buffer.putInt(children.getNameLength(i));
+            children.writeName(i, buffer);
+            buffer.putLong(children.getValue(i));
+        }
+        return buffer.array();
     }
 }
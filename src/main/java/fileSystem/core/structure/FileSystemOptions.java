@@ -0,0 +1,313 @@
+package fileSystem.core.structure;
+
+import fileSystem.core.structure.base.AllocationMode;
+import fileSystem.core.structure.base.Durability;
+import fileSystem.core.structure.base.INodeCache;
+import fileSystem.core.structure.base.ImageFormat;
+import fileSystem.core.structure.base.Journal;
+import fileSystem.core.structure.base.SpaceAllocator;
+import fileSystem.core.structure.base.StorageType;
+
+import java.util.Map;
+
+/**
+ * Settings of an opened file system, can be read from the env map of SimpleFileSystemProvider.
+ */
+public class FileSystemOptions {
+    public static final String STORAGE = "storage";
+    public static final String CACHE_SIZE = "cacheSize";
+    public static final String INODE_CACHE_SIZE = "iNodeCacheSize";
+    public static final String DENTRY_CACHE_SIZE = "dentryCacheSize";
+    public static final String DIRECTORY_FILTER_COUNT = "directoryFilterCount";
+    public static final String DIRECTORY_FORMAT = "directoryFormat";
+    public static final String READ_AHEAD = "readAhead";
+    public static final String BLOCK_INDEX_COUNT = "blockIndexCount";
+    public static final String INLINE_DATA = "inlineData";
+    public static final String ALLOCATION = "allocation";
+    public static final String GROWTH_SIZE = "growthSize";
+    public static final String PREALLOCATE_SIZE = "preallocateSize";
+    public static final String DURABILITY = "durability";
+    public static final String FORCE_INTERVAL = "forceInterval";
+    public static final String JOURNAL_CHECKPOINT_SIZE = "journalCheckpointSize";
+    public static final String FORMAT_VERSION = "formatVersion";
+    public static final String BLOCK_SIZE = "blockSize";
+    public static final String INODE_SIZE = "iNodeSize";
+
+    public static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024; //in bytes
+    public static final long DEFAULT_FORCE_INTERVAL = 1000; //in milliseconds
+
+    private StorageType storageType = StorageType.POSITIONAL;
+    private long cacheSize = DEFAULT_CACHE_SIZE;
+    private int iNodeCacheSize = INodeCache.DEFAULT_CAPACITY;
+    private int dentryCacheSize = DentryCache.DEFAULT_CAPACITY;
+    private int directoryFilterCount = DirectoryFilters.DEFAULT_CAPACITY;
+    private DirectoryFormat directoryFormat = DirectoryFormat.INDEXED;
+    private int readAhead = BlockChainInputStream.DEFAULT_READ_AHEAD;
+    private int blockIndexCount = BlockIndexes.DEFAULT_CAPACITY;
+    private boolean inlineData = true;
+    private AllocationMode allocationMode = AllocationMode.EXTENT;
+    private long growthSize = SpaceAllocator.DEFAULT_GROWTH_SIZE;
+    private long preallocateSize;
+    private Durability durability = Durability.ON_CLOSE;
+    private long forceInterval = DEFAULT_FORCE_INTERVAL;
+    private long journalCheckpointSize = Journal.DEFAULT_CHECKPOINT_SIZE;
+    private int formatVersion = ImageFormat.VERSION_2;
+    private int blockSize = ImageFormat.DEFAULT_BLOCK_SIZE;
+    private int iNodeSize = ImageFormat.DEFAULT_INODE_SIZE;
+
+    public static FileSystemOptions fromEnv(Map<String, ?> env) {
+        FileSystemOptions options = new FileSystemOptions();
+        if (env == null)
+            return options;
+        Object storage = env.get(STORAGE);
+        if (storage instanceof StorageType)
+            options.setStorageType((StorageType) storage);
+        else if (storage != null)
+            options.setStorageType(StorageType.valueOf(storage.toString().toUpperCase()));
+        options.setCacheSize(getLong(env, CACHE_SIZE, options.getCacheSize()));
+        options.setINodeCacheSize((int) getLong(env, INODE_CACHE_SIZE, options.getINodeCacheSize()));
+        options.setDentryCacheSize((int) getLong(env, DENTRY_CACHE_SIZE, options.getDentryCacheSize()));
+        options.setDirectoryFilterCount((int) getLong(env, DIRECTORY_FILTER_COUNT, options.getDirectoryFilterCount()));
+        options.setReadAhead((int) getLong(env, READ_AHEAD, options.getReadAhead()));
+        options.setBlockIndexCount((int) getLong(env, BLOCK_INDEX_COUNT, options.getBlockIndexCount()));
+        Object inlineData = env.get(INLINE_DATA);
+        if (inlineData != null)
+            options.setInlineData(Boolean.parseBoolean(inlineData.toString()));
+        Object directoryFormat = env.get(DIRECTORY_FORMAT);
+        if (directoryFormat instanceof DirectoryFormat)
+            options.setDirectoryFormat((DirectoryFormat) directoryFormat);
+        else if (directoryFormat != null)
+            options.setDirectoryFormat(DirectoryFormat.valueOf(directoryFormat.toString().toUpperCase()));
+        Object allocation = env.get(ALLOCATION);
+        if (allocation instanceof AllocationMode)
+            options.setAllocationMode((AllocationMode) allocation);
+        else if (allocation != null)
+            options.setAllocationMode(AllocationMode.valueOf(allocation.toString().toUpperCase()));
+        options.setGrowthSize(getLong(env, GROWTH_SIZE, options.getGrowthSize()));
+        options.setPreallocateSize(getLong(env, PREALLOCATE_SIZE, options.getPreallocateSize()));
+        Object durability = env.get(DURABILITY);
+        if (durability instanceof Durability)
+            options.setDurability((Durability) durability);
+        else if (durability != null)
+            options.setDurability(Durability.valueOf(durability.toString().toUpperCase().replace('-', '_')));
+        options.setForceInterval(getLong(env, FORCE_INTERVAL, options.getForceInterval()));
+        options.setJournalCheckpointSize(getLong(env, JOURNAL_CHECKPOINT_SIZE, options.getJournalCheckpointSize()));
+        options.setFormatVersion((int) getLong(env, FORMAT_VERSION, options.getFormatVersion()));
+        options.setBlockSize((int) getLong(env, BLOCK_SIZE, options.getBlockSize()));
+        options.setINodeSize((int) getLong(env, INODE_SIZE, options.getINodeSize()));
+        return options;
+    }
+
+    private static long getLong(Map<String, ?> env, String key, long defaultValue) {
+        Object value = env.get(key);
+        if (value == null)
+            return defaultValue;
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+        return Long.parseLong(value.toString());
+    }
+
+    public StorageType getStorageType() {
+        return storageType;
+    }
+
+    public void setStorageType(StorageType storageType) {
+        this.storageType = storageType;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(long cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public int getINodeCacheSize() {
+        return iNodeCacheSize;
+    }
+
+    /**
+     * @param iNodeCacheSize max count of cached iNodes, 0 disables caching of iNodes
+     */
+    public void setINodeCacheSize(int iNodeCacheSize) {
+        this.iNodeCacheSize = iNodeCacheSize;
+    }
+
+    public int getDentryCacheSize() {
+        return dentryCacheSize;
+    }
+
+    /**
+     * @param dentryCacheSize max count of cached paths, 0 disables caching of paths
+     */
+    public void setDentryCacheSize(int dentryCacheSize) {
+        this.dentryCacheSize = dentryCacheSize;
+    }
+
+    public int getDirectoryFilterCount() {
+        return directoryFilterCount;
+    }
+
+    /**
+     * @param directoryFilterCount max count of directories with Bloom filters of children names, 0 disables them
+     */
+    public void setDirectoryFilterCount(int directoryFilterCount) {
+        this.directoryFilterCount = directoryFilterCount;
+    }
+
+    public DirectoryFormat getDirectoryFormat() {
+        return directoryFormat;
+    }
+
+    /**
+     * @param directoryFormat format of new directories, flat ones are converted on change if it is INDEXED
+     */
+    public void setDirectoryFormat(DirectoryFormat directoryFormat) {
+        this.directoryFormat = directoryFormat;
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * @param readAhead count of blocks read at once by file input streams
+     */
+    public void setReadAhead(int readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    public int getBlockIndexCount() {
+        return blockIndexCount;
+    }
+
+    /**
+     * @param blockIndexCount max count of files with cached indexes of data blocks for positional reads, 0 disables them
+     */
+    public void setBlockIndexCount(int blockIndexCount) {
+        this.blockIndexCount = blockIndexCount;
+    }
+
+    public boolean isInlineData() {
+        return inlineData;
+    }
+
+    /**
+     * @param inlineData true to keep data of small files and directories in their iNodes instead of blocks
+     */
+    public void setInlineData(boolean inlineData) {
+        this.inlineData = inlineData;
+    }
+
+    public AllocationMode getAllocationMode() {
+        return allocationMode;
+    }
+
+    public void setAllocationMode(AllocationMode allocationMode) {
+        this.allocationMode = allocationMode;
+    }
+
+    public long getGrowthSize() {
+        return growthSize;
+    }
+
+    /**
+     * @param growthSize max size in bytes the image grows by when it runs out of free space
+     */
+    public void setGrowthSize(long growthSize) {
+        this.growthSize = growthSize;
+    }
+
+    public long getPreallocateSize() {
+        return preallocateSize;
+    }
+
+    /**
+     * @param preallocateSize size in bytes the image is grown to on open, 0 to grow on demand
+     */
+    public void setPreallocateSize(long preallocateSize) {
+        this.preallocateSize = preallocateSize;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * @return true if changes are logged to a journal next to the image before they reach the image
+     */
+    public boolean isJournal() {
+        return durability == Durability.GROUP_COMMIT;
+    }
+
+    public long getForceInterval() {
+        return forceInterval;
+    }
+
+    /**
+     * @param forceInterval milliseconds between forces of the image in PERIODIC durability
+     */
+    public void setForceInterval(long forceInterval) {
+        this.forceInterval = forceInterval;
+    }
+
+    public long getJournalCheckpointSize() {
+        return journalCheckpointSize;
+    }
+
+    /**
+     * @param journalCheckpointSize size in bytes of the journal after which it is applied to the image and emptied
+     */
+    public void setJournalCheckpointSize(long journalCheckpointSize) {
+        this.journalCheckpointSize = journalCheckpointSize;
+    }
+
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
+    /**
+     * @param formatVersion format of new images, VERSION_1 ignores block and iNode sizes, see ImageFormat
+     */
+    public void setFormatVersion(int formatVersion) {
+        if (formatVersion != ImageFormat.VERSION_1 && formatVersion != ImageFormat.VERSION_2)
+            throw new IllegalArgumentException("Unknown image format version: " + formatVersion);
+        this.formatVersion = formatVersion;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @param blockSize size in bytes of blocks of new images, a power of two from 1 KB to 64 KB
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public int getINodeSize() {
+        return iNodeSize;
+    }
+
+    /**
+     * @param iNodeSize size in bytes of iNodes of new images, a power of two from 128 bytes to the block size
+     */
+    public void setINodeSize(int iNodeSize) {
+        this.iNodeSize = iNodeSize;
+    }
+
+    /**
+     * @return format of new images, existing ones are opened with the format stored in their header
+     */
+    public ImageFormat getImageFormat() {
+        if (formatVersion == ImageFormat.VERSION_1)
+            return ImageFormat.V1;
+        return new ImageFormat(blockSize, iNodeSize);
+    }
+}
@@ -1,17 +1,17 @@
 package fileSystem.core.structure;
 
 import fileSystem.core.structure.base.BaseStructureReadWriter;
+import fileSystem.core.structure.base.INodeView;
 import fileSystem.core.structure.base.SimpleINode;
 
 import java.io.IOException;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Logic for sync operations on files.
  */
 public class INodeLocker implements AutoCloseable {
-    private final ReadWriteLock rwlock;
+    private final ReentrantReadWriteLock rwlock;
     private final BaseStructureReadWriter readWriter;
 
     public INodeLocker(BaseStructureReadWriter readWriter) {
@@ -25,14 +25,57 @@ public class INodeLocker implements AutoCloseable {
             rwlock.writeLock().unlock();
             throw new IllegalStateException("File was changed.");
         }
+        refresh(file);
     }
 
     public void endWrite(SimpleINode file) {
         rwlock.writeLock().unlock();
     }
 
-    public void beginRead(SimpleINode file) {
+    /**
+     * Locks for reading, a stale directory handle is refreshed under the write lock, which is then downgraded,
+     * since other readers can use the same handle.
+     */
+    public void beginRead(SimpleINode file) throws IOException {
         rwlock.readLock().lock();
+        try {
+            if (!isStale(file))
+                return;
+            if (rwlock.isWriteLockedByCurrentThread()) {
+                refresh(file);
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            rwlock.readLock().unlock();
+            throw e;
+        }
+        //a nested read can not upgrade, the outer one has kept writers out since the handle was refreshed
+        if (rwlock.getReadHoldCount() > 1)
+            return;
+        rwlock.readLock().unlock();
+        rwlock.writeLock().lock();
+        try {
+            refresh(file);
+            rwlock.readLock().lock();
+        } finally {
+            rwlock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Locks for reading a file that has to be the same as when the handle was read.
+     */
+    public void beginCheckedRead(SimpleINode file) throws IOException {
+        rwlock.readLock().lock();
+        boolean checked = false;
+        try {
+            checked = check(file);
+        } finally {
+            if (!checked)
+                rwlock.readLock().unlock();
+        }
+        if (!checked)
+            throw new IllegalStateException("File was changed.");
     }
 
     public void endRead(SimpleINode file) {
@@ -41,8 +84,23 @@ public class INodeLocker implements AutoCloseable {
 
     private boolean check(SimpleINode iNode) throws IOException {
         if (iNode.isDirectory) return true;
-        SimpleINode readINode = readWriter.readINode(iNode.getCurPos());
-        return readINode.getTimeStamp() == iNode.getTimeStamp();
+        return readWriter.readINodeView(iNode.getCurPos()).getTimeStamp() == iNode.getTimeStamp();
+    }
+
+    /**
+     * Directories are not checked, so a handle can point to blocks the directory moved away from.
+     * Its extents and inline data are taken too, so the whole iNode is read only when it was changed.
+     * The caller holds the write lock, the handle is shared by readers.
+     */
+    private void refresh(SimpleINode iNode) throws IOException {
+        if (isStale(iNode))
+            iNode.refresh(readWriter.readINode(iNode.getCurPos()));
+    }
+
+    private boolean isStale(SimpleINode iNode) throws IOException {
+        if (!iNode.isDirectory) return false;
+        INodeView view = readWriter.readINodeView(iNode.getCurPos());
+        return view.getTimeStamp() != iNode.getTimeStamp();
     }
 
     @Override
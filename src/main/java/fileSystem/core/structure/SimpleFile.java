@@ -3,6 +3,7 @@ package fileSystem.core.structure;
 import fileSystem.core.structure.base.SimpleINode;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * File or directory representation.
@@ -48,6 +49,24 @@ public class SimpleFile {
         return fileReadWriter.readData(this);
     }
 
+    /**
+     * @return count of bytes read from the position or -1 if it is at or after the end of the file
+     */
+    public int read(long position, ByteBuffer dst) throws IOException {
+        return fileReadWriter.read(this, position, dst);
+    }
+
+    /**
+     * Writes data from the position, a gap after the end of the file is filled with zeros.
+     */
+    public int write(long position, ByteBuffer src) throws IOException {
+        return fileReadWriter.write(this, position, src);
+    }
+
+    public int append(ByteBuffer src) throws IOException {
+        return fileReadWriter.append(this, src);
+    }
+
     public void writeData(byte[] data) throws IOException {
         fileReadWriter.writeData(this, data);
     }
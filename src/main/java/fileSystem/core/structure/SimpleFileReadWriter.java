@@ -2,63 +2,268 @@ package fileSystem.core.structure;
 
 import fileSystem.core.structure.base.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardOpenOption.*;
 
 /**
  * Base operations on files.
  */
 public class SimpleFileReadWriter implements AutoCloseable {
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    private final ImageFormat format;
     private final BaseStructureReadWriter readWriter;
     private final SpaceAllocator spaceAllocator;
     private final INodeLocker iNodeLocker;
     private final DirectoryParser directoryParser;
+    private final DirectoryIndex directoryIndex;
+    private final DirectoryFormat directoryFormat;
+    private final int readAhead;
+    private final BlockIndexes blockIndexes;
+    private final boolean inlineData;
+    private final DentryCache dentryCache;
+    private final DirectoryFilters directoryFilters;
+    private final Durability durability;
+    private final ScheduledExecutorService forcer;
+    private volatile IOException forceError;
 
     public SimpleFileReadWriter(SeekableByteChannel channel) throws IOException {
-        boolean channelIsEmpty = channel.size() == 0;
-        readWriter = new BaseStructureReadWriter(channel);
-        spaceAllocator = new SpaceAllocator(readWriter, channelIsEmpty);
+        this(new ChannelStorage(channel), new FileSystemOptions());
+    }
+
+    public SimpleFileReadWriter(Storage storage, FileSystemOptions options) throws IOException {
+        this(storage, null, options);
+    }
+
+    /**
+     * @param journalStorage journal of the image or null, it is replayed first and used if the journal is enabled
+     */
+    public SimpleFileReadWriter(Storage storage, Storage journalStorage, FileSystemOptions options) throws IOException {
+        Journal journal = null;
+        if (journalStorage != null) {
+            Journal.recover(journalStorage, storage);
+            if (options.isJournal())
+                journal = new Journal(journalStorage);
+            else
+                journalStorage.close();
+        }
+        boolean storageIsEmpty = storage.size() == 0;
+        format = storageIsEmpty ? options.getImageFormat() : ImageFormat.read(storage);
+        readWriter = new BaseStructureReadWriter(format, storage, options.getCacheSize(), options.getINodeCacheSize(),
+                journal, options.getJournalCheckpointSize());
+        spaceAllocator = new SpaceAllocator(readWriter, storageIsEmpty, options.getAllocationMode(),
+                options.getGrowthSize());
         iNodeLocker = new INodeLocker(readWriter);
         directoryParser = new DirectoryParser();
+        directoryIndex = new DirectoryIndex(readWriter, spaceAllocator);
+        directoryFormat = options.getDirectoryFormat();
+        readAhead = options.getReadAhead();
+        blockIndexes = options.getBlockIndexCount() > 0 ? new BlockIndexes(options.getBlockIndexCount()) : null;
+        inlineData = options.isInlineData();
+        dentryCache = options.getDentryCacheSize() > 0 ? new DentryCache(options.getDentryCacheSize()) : null;
+        directoryFilters = options.getDirectoryFilterCount() > 0 ?
+                new DirectoryFilters(options.getDirectoryFilterCount()) : null;
+        durability = options.getDurability();
 
-        if (channelIsEmpty) {
+        if (storageIsEmpty) {
             createRootDirectory();
+            //header and root reach the image at once, so it opens even if it is never closed, journal only covers
+            //changes of a complete image
+            if (durability == Durability.NONE)
+                readWriter.flush();
+            else
+                readWriter.force();
+        } else if (spaceAllocator.needsRebuild()) {
+            rebuildFreeSpace();
         }
+        if (options.getPreallocateSize() > 0) {
+            spaceAllocator.preallocate(options.getPreallocateSize());
+        }
+        forcer = durability == Durability.PERIODIC ? startForcer(options.getForceInterval()) : null;
+    }
+
+    private ScheduledExecutorService startForcer(long interval) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SimpleFileSystem forcer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    readWriter.force();
+                } catch (IOException e) {
+                    forceError = e;
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+
+    /**
+     * Opens the image with the storage of given options, the journal is kept next to it with JOURNAL_SUFFIX.
+     */
+    public static SimpleFileReadWriter open(Path path, FileSystemOptions options) throws IOException {
+        Path journalPath = Paths.get(path.toString() + JOURNAL_SUFFIX);
+        Storage journalStorage = null;
+        if (options.isJournal() || Files.exists(journalPath))
+            journalStorage = new PositionalStorage(FileChannel.open(journalPath, CREATE, WRITE, READ));
+        return new SimpleFileReadWriter(options.getStorageType().open(path), journalStorage, options);
+    }
+
+    /**
+     * @return format of the image, the one of the options for new images
+     */
+    public ImageFormat getFormat() {
+        return format;
     }
 
+    /**
+     * @return dentry cache or null if caching of paths is disabled
+     */
+    public DentryCache getDentryCache() {
+        return dentryCache;
+    }
+
+    /**
+     * @return filters of directory children names or null if they are disabled
+     */
+    public DirectoryFilters getDirectoryFilters() {
+        return directoryFilters;
+    }
 
     public SimpleFile getFile(String[] path) throws IOException {
-        SimpleINode iNode = spaceAllocator.getRoot();
-        for (int i = 0; i < path.length; i++) {
+        if (dentryCache == null || path.length == 0)
+            return resolve(path, spaceAllocator.getRoot(), 0, -1);
+        long generation = dentryCache.getGeneration();
+        long cached = dentryCache.get(DentryCache.key(path));
+        if (cached != -1)
+            return SimpleFile.get(path, readINode(cached), this);
+        //missing files are mostly looked up in existing directories
+        long parent = path.length > 1 ? dentryCache.get(DentryCache.key(path, path.length - 1)) : -1;
+        if (parent != -1)
+            return resolve(path, readINode(parent), path.length - 1, generation);
+        return resolve(path, spaceAllocator.getRoot(), 0, generation);
+    }
+
+    /**
+     * Walks the path from the directory of its component with index start,
+     * resolved components are cached if generation is not -1.
+     */
+    private SimpleFile resolve(String[] path, SimpleINode iNode, int start, long generation) throws IOException {
+        for (int i = start; i < path.length; i++) {
             if (!iNode.isDirectory)
                 throw new FileNotFoundException(path[i]);
-            Long pos = directoryParser.fromBytes(readData(iNode)).get(path[i]);
-            if (pos == null)
+            byte[] name = directoryParser.getBytes(path[i]);
+            if (directoryFilters != null && !directoryFilters.mightContain(iNode.getCurPos(), name))
                 return null;
-            iNode = readWriter.readINode(pos);
+            long pos = lookup(iNode, name);
+            if (pos == -1)
+                return null;
+            iNode = readINode(pos);
+            if (generation != -1)
+                dentryCache.put(DentryCache.key(path, i + 1), pos, generation);
         }
         return SimpleFile.get(path, iNode, this);
     }
 
+    /**
+     * @return iNode position of the child or -1 if there is no such child
+     */
+    private long lookup(SimpleINode dir, byte[] name) throws IOException {
+        iNodeLocker.beginRead(dir);
+        try {
+            if (directoryFilters != null && !directoryFilters.contains(dir.getCurPos()))
+                return readFilteredChildren(dir).get(name);
+            if (directoryIndex.isIndex(dir.getFirstDataBlock()))
+                return directoryIndex.get(dir.getFirstDataBlock(), name);
+            return directoryParser.lookup(readData(dir), name);
+        } finally {
+            iNodeLocker.endRead(dir);
+        }
+    }
+
+    /**
+     * Reads all children of the directory and builds its names filter, an index is read whole only then,
+     * later misses are answered by the filter instead of walking the index.
+     * The directory is locked for reading, so no name is added between reading and building.
+     */
+    private DirectoryEntries readFilteredChildren(SimpleINode dir) throws IOException {
+        DirectoryEntries children = directoryIndex.isIndex(dir.getFirstDataBlock())
+                ? directoryIndex.readAll(dir.getFirstDataBlock())
+                : directoryParser.fromBytes(readData(dir));
+        directoryFilters.put(dir.getCurPos(), children);
+        return children;
+    }
+
+    private DirectoryEntries readChildren(SimpleINode dir) throws IOException {
+        iNodeLocker.beginRead(dir);
+        try {
+            if (directoryIndex.isIndex(dir.getFirstDataBlock()))
+                return directoryIndex.readAll(dir.getFirstDataBlock());
+            return directoryParser.fromBytes(readData(dir));
+        } finally {
+            iNodeLocker.endRead(dir);
+        }
+    }
+
+    private boolean isEmpty(SimpleDirectory dir) throws IOException {
+        iNodeLocker.beginRead(dir.iNode);
+        try {
+            if (directoryIndex.isIndex(dir.iNode.getFirstDataBlock()))
+                return directoryIndex.isEmpty(dir.iNode.getFirstDataBlock());
+            return directoryParser.fromBytes(readData(dir)).isEmpty();
+        } finally {
+            iNodeLocker.endRead(dir.iNode);
+        }
+    }
+
+    private void invalidatePath(SimpleDirectory dir, String name) {
+        if (dentryCache == null)
+            return;
+        String[] path = new String[dir.path.length + 1];
+        System.arraycopy(dir.path, 0, path, 0, dir.path.length);
+        path[dir.path.length] = name;
+        dentryCache.invalidate(DentryCache.key(path));
+    }
+
     public byte[] readData(SimpleFile file) throws IOException {
         return readData(file.iNode);
     }
 
     public ArrayList<SimpleFile> readDirectoryData(SimpleDirectory dir) throws IOException {
         ArrayList<SimpleFile> files = new ArrayList();
-        byte[] parentData = readData(dir);
-        HashMap<String, Long> children = directoryParser.fromBytes(parentData);
-        for (Map.Entry<String, Long> entry : children.entrySet()) {
-            SimpleINode child = readWriter.readINode(entry.getValue());
+        DirectoryEntries children = readChildren(dir.iNode);
+        for (int i = 0; i < children.size(); i++) {
+            SimpleINode child = readINode(children.getValue(i));
             String[] childPath = new String[dir.path.length + 1];
             System.arraycopy(dir.path, 0, childPath, 0, dir.path.length);
-            childPath[dir.path.length] = entry.getKey();
+            childPath[dir.path.length] = children.getName(i);
             if (child.isDirectory) {
                 files.add(new SimpleDirectory(childPath, child, this));
             } else {
@@ -71,7 +276,15 @@ public class SimpleFileReadWriter implements AutoCloseable {
     public void writeData(SimpleFile file, byte[] data) throws IOException {
         if (file instanceof SimpleDirectory)
             throw new IllegalStateException("Can not do it with directories.");
-        writeData(file.iNode, data);
+        beginOperation();
+        try {
+            writeData(file.iNode, data);
+        } catch (IOException | RuntimeException e) {
+            readWriter.abortTransaction();
+            throw e;
+        } finally {
+            endOperation();
+        }
     }
 
     public SimpleFile createFile(String[] path, boolean isDirectory) throws IOException {
@@ -85,24 +298,70 @@ public class SimpleFileReadWriter implements AutoCloseable {
     }
 
     public void deleteFile(SimpleFile file) throws IOException {
-        iNodeLocker.beginWrite(file.iNode);
+        beginOperation();
         try {
-            SimpleDirectory parent = getParent(file);
-            if (parent == null)
-                throw new IllegalStateException("Can not remove root directory");
-            if (file.iNode.isDirectory) {
-                if (readDirectoryData((SimpleDirectory) file).size() != 0)
-                    throw new IllegalStateException("Can not remove not empty directory");
-            }
+            iNodeLocker.beginWrite(file.iNode);
+            try {
+                SimpleDirectory parent = getParent(file);
+                if (parent == null)
+                    throw new IllegalStateException("Can not remove root directory");
+                boolean index = false;
+                if (file.iNode.isDirectory) {
+                    if (!isEmpty((SimpleDirectory) file))
+                        throw new IllegalStateException("Can not remove not empty directory");
+                    index = directoryIndex.isIndex(file.iNode.getFirstDataBlock());
+                }
 
-            removeFromDirectory(parent, file.getName());
-            spaceAllocator.markListOfBlocksAsFree(file.iNode.getFirstDataBlock(), file.iNode.getLastDataBlock());
-            spaceAllocator.markINodeAsFree(file.iNode.getCurPos());
+                removeFromDirectory(parent, file.getName());
+                if (directoryFilters != null && file.iNode.isDirectory)
+                    directoryFilters.remove(file.iNode.getCurPos());
+                if (index) {
+                    for (long pos : directoryIndex.getBlocks(file.iNode.getFirstDataBlock())) {
+                        spaceAllocator.markBlockAsFree(pos);
+                    }
+                } else {
+                    freeBlocks(file.iNode);
+                }
+                spaceAllocator.markINodeAsFree(file.iNode.getCurPos());
+                if (blockIndexes != null)
+                    blockIndexes.remove(file.iNode.getCurPos());
+            } finally {
+                iNodeLocker.endWrite(file.iNode);
+            }
+        } catch (IOException | RuntimeException e) {
+            readWriter.abortTransaction();
+            throw e;
         } finally {
-            iNodeLocker.endWrite(file.iNode);
+            endOperation();
         }
     }
 
+    /**
+     * Starts the transaction of a create, delete or write, fails if a periodic force has failed,
+     * since changes made after it are not durable either.
+     */
+    private void beginOperation() throws IOException {
+        checkForceError();
+        readWriter.beginTransaction();
+    }
+
+    /**
+     * Ends the transaction of a create, delete or write and forces it if durability asks for it,
+     * a failed one is aborted before.
+     */
+    private void endOperation() throws IOException {
+        readWriter.endTransaction();
+        if (durability == Durability.PER_OPERATION)
+            readWriter.force();
+        checkForceError();
+    }
+
+    private void checkForceError() throws IOException {
+        IOException error = forceError;
+        if (error != null)
+            throw new IOException("Periodic force failed", error);
+    }
+
     public SimpleDirectory getParent(SimpleFile file) throws IOException {
         String[] parentPath = getParentPath(file.path);
         if (parentPath == null)
@@ -112,29 +371,36 @@ public class SimpleFileReadWriter implements AutoCloseable {
 
 
     SimpleFile createFile(SimpleDirectory dir, String name, boolean isDirectory) throws IOException {
+        if (directoryFormat == DirectoryFormat.INDEXED)
+            directoryIndex.checkName(name);
+        beginOperation();
+        try {
+            if (lookup(dir.iNode, directoryParser.getBytes(name)) != -1)
+                throw new FileAlreadyExistsException(name);
 
-        byte[] parentData = readData(dir);
-        HashMap<String, Long> children = directoryParser.fromBytes(parentData);
-        if (children.containsKey(name))
-            throw new FileAlreadyExistsException(name);
-
-        SimpleINode iNode = spaceAllocator.getFreeINode();
-        iNode.isDirectory = isDirectory;
-        if (isDirectory) {
-            writeData(iNode, directoryParser.toBytes(new HashMap<String, Long>()));
-        } else {
-            writeData(iNode, new byte[0]);
-        }
-        addToDirectory(dir, name, iNode.getCurPos());
+            SimpleINode iNode = spaceAllocator.getFreeINode();
+            iNode.isDirectory = isDirectory;
+            if (isDirectory) {
+                writeEmptyDirectory(iNode);
+            } else {
+                writeData(iNode, new byte[0]);
+            }
+            addToDirectory(dir, name, iNode.getCurPos());
 
-        String[] childPath = new String[dir.path.length + 1];
-        System.arraycopy(dir.path, 0, childPath, 0, dir.path.length);
-        childPath[dir.path.length] = name;
+            String[] childPath = new String[dir.path.length + 1];
+            System.arraycopy(dir.path, 0, childPath, 0, dir.path.length);
+            childPath[dir.path.length] = name;
 
-        if (isDirectory)
-            return new SimpleDirectory(childPath, iNode, this);
-        else
-            return new SimpleFile(childPath, iNode, this);
+            if (isDirectory)
+                return new SimpleDirectory(childPath, iNode, this);
+            else
+                return new SimpleFile(childPath, iNode, this);
+        } catch (IOException | RuntimeException e) {
+            readWriter.abortTransaction();
+            throw e;
+        } finally {
+            endOperation();
+        }
     }
 
     private String[] getParentPath(String[] path) {
@@ -146,69 +412,705 @@ public class SimpleFileReadWriter implements AutoCloseable {
     }
 
     private void removeFromDirectory(SimpleDirectory dir, String name) throws IOException {
+        byte[] bytes = directoryParser.getBytes(name);
         iNodeLocker.beginWrite(dir.iNode);
         try {
-            byte[] parentData = readData(dir.iNode);
-            HashMap<String, Long> children = directoryParser.fromBytes(parentData);
-            children.remove(name);
-            parentData = directoryParser.toBytes(children);
-            writeData(dir.iNode, parentData);
+            if (isIndex(dir.iNode)) {
+                directoryIndex.remove(dir.iNode.getFirstDataBlock(), bytes);
+            } else {
+                byte[] parentData = readData(dir.iNode);
+                DirectoryEntries children = directoryParser.fromBytes(parentData);
+                children.remove(bytes);
+                parentData = directoryParser.toBytes(children);
+                writeData(dir.iNode, parentData);
+            }
+            invalidatePath(dir, name);
+            if (directoryFilters != null)
+                directoryFilters.removed(dir.iNode.getCurPos());
         } finally {
             iNodeLocker.endWrite(dir.iNode);
         }
     }
 
-    private void addToDirectory(SimpleDirectory dir, String name, Long pos) throws IOException {
+    private void addToDirectory(SimpleDirectory dir, String name, long pos) throws IOException {
+        byte[] bytes = directoryParser.getBytes(name);
         iNodeLocker.beginWrite(dir.iNode);
         try {
-            byte[] parentData = readData(dir.iNode);
-            HashMap<String, Long> children = directoryParser.fromBytes(parentData);
-            children.put(name, pos);
-            parentData = directoryParser.toBytes(children);
-            writeData(dir.iNode, parentData);
+            if (isIndex(dir.iNode)) {
+                directoryIndex.put(dir.iNode.getFirstDataBlock(), bytes, pos);
+            } else {
+                byte[] parentData = readData(dir.iNode);
+                DirectoryEntries children = directoryParser.fromBytes(parentData);
+                children.put(bytes, pos);
+                parentData = directoryParser.toBytes(children);
+                if (directoryFormat == DirectoryFormat.INDEXED
+                        && parentData.length > dir.iNode.getInlineDataCapacity()) {
+                    //inline directory outgrowing its iNode
+                    convertToIndex(dir.iNode);
+                    directoryIndex.put(dir.iNode.getFirstDataBlock(), bytes, pos);
+                } else {
+                    writeData(dir.iNode, parentData);
+                }
+            }
+            invalidatePath(dir, name);
+            if (directoryFilters != null)
+                directoryFilters.add(dir.iNode.getCurPos(), bytes);
         } finally {
             iNodeLocker.endWrite(dir.iNode);
         }
     }
 
+    /**
+     * @return true if the directory is indexed, a flat one is converted first if new directories are indexed
+     * unless it is kept inline
+     */
+    private boolean isIndex(SimpleINode dir) throws IOException {
+        if (directoryIndex.isIndex(dir.getFirstDataBlock()))
+            return true;
+        if (directoryFormat != DirectoryFormat.INDEXED || dir.hasInlineData())
+            return false;
+        convertToIndex(dir);
+        return true;
+    }
+
+    /**
+     * Moves children of the flat directory to a new index and frees the flat data, the directory is locked for writing.
+     */
+    private void convertToIndex(SimpleINode dir) throws IOException {
+        DirectoryEntries children = directoryParser.fromBytes(readData(dir));
+        long root = directoryIndex.create();
+        for (int i = 0; i < children.size(); i++) {
+            directoryIndex.put(root, children.getNameBytes(i), children.getValue(i));
+        }
+        freeBlocks(dir);
+        dir.setFirstDataBlock(root);
+        dir.setLastDataBlock(root);
+        dir.setTotalSize(0);
+        writeINode(dir);
+    }
+
+    private void writeEmptyDirectory(SimpleINode iNode) throws IOException {
+        if (directoryFormat != DirectoryFormat.INDEXED || inlineData) {
+            writeData(iNode, directoryParser.toBytes(new DirectoryEntries()));
+            return;
+        }
+        iNodeLocker.beginWrite(iNode);
+        try {
+            long root = directoryIndex.create();
+            iNode.setFirstDataBlock(root);
+            iNode.setLastDataBlock(root);
+            iNode.setTotalSize(0);
+            writeINode(iNode);
+        } finally {
+            iNodeLocker.endWrite(iNode);
+        }
+    }
+
+    /**
+     * Converts all flat directories except inline ones to indexed ones, for example after opening an image
+     * of an older version.
+     *
+     * @return count of converted directories
+     */
+    public int convertDirectories() throws IOException {
+        int count = 0;
+        ArrayList<Long> iNodes = new ArrayList<>();
+        iNodes.add(spaceAllocator.getRoot().getCurPos());
+        while (!iNodes.isEmpty()) {
+            SimpleINode iNode = readINode(iNodes.remove(iNodes.size() - 1));
+            if (!iNode.isDirectory)
+                continue;
+            beginOperation();
+            try {
+                iNodeLocker.beginWrite(iNode);
+                try {
+                    if (!directoryIndex.isIndex(iNode.getFirstDataBlock()) && !iNode.hasInlineData()) {
+                        convertToIndex(iNode);
+                        count++;
+                    }
+                } finally {
+                    iNodeLocker.endWrite(iNode);
+                }
+            } catch (IOException | RuntimeException e) {
+                readWriter.abortTransaction();
+                throw e;
+            } finally {
+                endOperation();
+            }
+            addValues(iNodes, readChildren(iNode));
+        }
+        return count;
+    }
+
+    /**
+     * Lists blocks of all chained files and flat directories as extents, for example after opening an image
+     * of an older version. Chains with a not full block other than the last one stay chained.
+     *
+     * @return count of converted files and directories
+     */
+    public int convertChains() throws IOException {
+        int count = 0;
+        ArrayList<Long> iNodes = new ArrayList<>();
+        iNodes.add(spaceAllocator.getRoot().getCurPos());
+        while (!iNodes.isEmpty()) {
+            SimpleINode iNode = readINode(iNodes.remove(iNodes.size() - 1));
+            boolean index = iNode.isDirectory && directoryIndex.isIndex(iNode.getFirstDataBlock());
+            if (!index && !iNode.hasExtents() && iNode.getFirstDataBlock() != -1) {
+                beginOperation();
+                try {
+                    iNodeLocker.beginWrite(iNode);
+                    try {
+                        if (convertToExtents(iNode)) {
+                            writeINode(iNode);
+                            count++;
+                        }
+                    } finally {
+                        iNodeLocker.endWrite(iNode);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    readWriter.abortTransaction();
+                    throw e;
+                } finally {
+                    endOperation();
+                }
+            }
+            if (iNode.isDirectory)
+                addValues(iNodes, readChildren(iNode));
+        }
+        return count;
+    }
+
+    /**
+     * Lists blocks of the chained file as extents, the file is locked for writing and its iNode is written by caller.
+     *
+     * @return false if a block other than the last one is not full, the file stays chained then
+     */
+    private boolean convertToExtents(SimpleINode iNode) throws IOException {
+        BlockIndexes.Index chain = buildBlockIndex(iNode);
+        if (chain == null)
+            return false;
+        for (int k = 0; k < chain.size(); k++) {
+            iNode.addBlock(chain.get(k));
+        }
+        return true;
+    }
+
+    private static void addValues(ArrayList<Long> iNodes, DirectoryEntries children) {
+        for (int i = 0; i < children.size(); i++) {
+            iNodes.add(children.getValue(i));
+        }
+    }
+
     private void writeData(SimpleINode iNode, byte[] data) throws IOException {
         iNodeLocker.beginWrite(iNode);
         try {
-            if (iNode.getFirstDataBlock() != -1) {
-                spaceAllocator.markListOfBlocksAsFree(iNode.getFirstDataBlock(), iNode.getLastDataBlock());
-            }
-            int i = 0;
-            SimpleBlock next = spaceAllocator.getFreeBlock();
-            iNode.setFirstDataBlock(next.getCurPos());
-            for (; i < data.length - Constants.BLOCK_DATA_SIZE; i += Constants.BLOCK_DATA_SIZE) {
-                SimpleBlock current = next;
-                System.arraycopy(data, i, current.getData(), 0, Constants.BLOCK_DATA_SIZE);
-                current.setSize(Constants.BLOCK_DATA_SIZE);
-                next = spaceAllocator.getFreeBlock();
-                current.setNextDataBlock(next.getCurPos());
-                readWriter.writeBlock(current);
-            }
-            if (i != data.length) {
-                int length = data.length - i;
-                System.arraycopy(data, i, next.getData(), 0, length);
-                next.setSize(length);
-            }
-            readWriter.writeBlock(next);
-            iNode.setLastDataBlock(next.getCurPos());
-            readWriter.writeINode(iNode);
+            if (inlineData && data.length <= iNode.getInlineDataCapacity()) {
+                freeBlocks(iNode);
+                iNode.setInlineData(data);
+                writeINode(iNode);
+                return;
+            }
+            writeChain(iNode, data);
         } finally {
             iNodeLocker.endWrite(iNode);
         }
     }
 
+    /**
+     * Replaces data of the file with a chain of full blocks, the file is locked for writing.
+     */
+    private void writeChain(SimpleINode iNode, byte[] data) throws IOException {
+        freeBlocks(iNode);
+        int count = Math.max(1, (data.length + format.getBlockDataSize() - 1) / format.getBlockDataSize());
+        SimpleBlock[] blocks = spaceAllocator.getFreeBlocks(count);
+        for (int i = 0; i < count; i++) {
+            SimpleBlock block = blocks[i];
+            int offset = i * format.getBlockDataSize();
+            int length = Math.min(format.getBlockDataSize(), data.length - offset);
+            System.arraycopy(data, offset, block.getData(), 0, length);
+            block.setSize(length);
+            if (i + 1 < count)
+                block.setNextDataBlock(blocks[i + 1].getCurPos());
+            readWriter.writeBlock(block);
+            iNode.addBlock(block.getCurPos());
+        }
+        iNode.setFirstDataBlock(blocks[0].getCurPos());
+        iNode.setLastDataBlock(blocks[count - 1].getCurPos());
+        iNode.setTotalSize(data.length);
+        writeINode(iNode);
+    }
+
+    /**
+     * Reads data of the file from the position, only blocks covering the read range are read.
+     *
+     * @return count of read bytes or -1 if the position is at or after the end of the file
+     */
+    public int read(SimpleFile file, long position, ByteBuffer dst) throws IOException {
+        if (file instanceof SimpleDirectory)
+            throw new IllegalStateException("Can not do it with directories.");
+        if (position < 0)
+            throw new IllegalArgumentException("Negative position: " + position);
+        iNodeLocker.beginRead(file.iNode);
+        try {
+            SimpleINode iNode = readINode(file.iNode.getCurPos());
+            if (position >= iNode.getTotalSize())
+                return -1;
+            if (iNode.hasInlineData()) {
+                int length = (int) Math.min(dst.remaining(), iNode.getTotalSize() - position);
+                iNode.copyInlineData((int) position, dst, length);
+                return length;
+            }
+            int start = dst.position();
+            boolean extents = iNode.hasExtents();
+            BlockIndexes.Index index = extents ? null : getBlockIndex(iNode);
+            long k = position / format.getBlockDataSize();
+            int offset = (int) (position % format.getBlockDataSize());
+            long pos;
+            if (extents) {
+                pos = iNode.getBlock(k);
+            } else if (index != null) {
+                pos = k < index.size() ? index.get((int) k) : -1;
+            } else {
+                //chain without an index is walked by block headers
+                long skip = position;
+                pos = iNode.getFirstDataBlock();
+                while (pos != -1) {
+                    BlockView header = readWriter.readBlockHeader(pos);
+                    if (skip < header.getSize())
+                        break;
+                    skip -= header.getSize();
+                    pos = header.getNextDataBlock();
+                }
+                offset = (int) skip;
+            }
+            while (pos != -1 && dst.hasRemaining()) {
+                BlockView block = readWriter.readBlockView(pos);
+                int length = Math.min(block.getSize() - offset, dst.remaining());
+                if (length > 0)
+                    block.copyData(offset, dst, length);
+                offset = 0;
+                if (extents)
+                    pos = iNode.getBlock(++k);
+                else if (index != null)
+                    pos = ++k < index.size() ? index.get((int) k) : -1;
+                else
+                    pos = block.getNextDataBlock();
+            }
+            return dst.position() - start;
+        } finally {
+            iNodeLocker.endRead(file.iNode);
+        }
+    }
+
+    /**
+     * @return index of data blocks of the file, built by its block headers if there is none for the iNode,
+     * null if indexes are disabled or a block other than the last one is not full
+     */
+    private BlockIndexes.Index getBlockIndex(SimpleINode iNode) throws IOException {
+        if (blockIndexes == null)
+            return null;
+        BlockIndexes.Index index = blockIndexes.get(iNode.getCurPos(), iNode.getTimeStamp());
+        if (index != null)
+            return index;
+        index = buildBlockIndex(iNode);
+        if (index != null)
+            blockIndexes.put(iNode.getCurPos(), index);
+        return index;
+    }
+
+    /**
+     * @return index of data blocks of the file or null if a block other than the last one is not full
+     */
+    private BlockIndexes.Index buildBlockIndex(SimpleINode iNode) throws IOException {
+        BlockIndexes.Index index = new BlockIndexes.Index(iNode.getTimeStamp());
+        long pos = iNode.getFirstDataBlock();
+        while (pos != -1) {
+            BlockView header = readWriter.readBlockHeader(pos);
+            if (header.getNextDataBlock() != -1 && header.getSize() != format.getBlockDataSize())
+                return null;
+            index.add(pos);
+            pos = header.getNextDataBlock();
+        }
+        return index;
+    }
+
+    /**
+     * Writes data to the file from the position, only blocks covering the written range are written
+     * and new blocks are linked after the last one. A gap after the end of the file is filled with zeros.
+     *
+     * @return count of written bytes
+     */
+    public int write(SimpleFile file, long position, ByteBuffer src) throws IOException {
+        if (position < 0)
+            throw new IllegalArgumentException("Negative position: " + position);
+        return write(file, position, src, false);
+    }
+
+    /**
+     * Writes data after the end of the file, only its last block is rewritten.
+     *
+     * @return count of written bytes
+     */
+    public int append(SimpleFile file, ByteBuffer src) throws IOException {
+        return write(file, -1, src, true);
+    }
+
+    private int write(SimpleFile file, long position, ByteBuffer src, boolean append) throws IOException {
+        if (file instanceof SimpleDirectory)
+            throw new IllegalStateException("Can not do it with directories.");
+        SimpleINode iNode = file.iNode;
+        beginOperation();
+        try {
+            iNodeLocker.beginWrite(iNode);
+            try {
+                if (append)
+                    position = iNode.getTotalSize();
+                int length = src.remaining();
+                if (length == 0)
+                    return 0;
+                if (!writeBlocks(iNode, position, src)) {
+                    if (inlineData && position + length <= iNode.getInlineDataCapacity()) {
+                        //inline data which still fits is rewritten at once
+                        byte[] data = readData(iNode);
+                        data = Arrays.copyOf(data, (int) Math.max(data.length, position + length));
+                        src.get(data, (int) position, length);
+                        writeData(iNode, data);
+                    } else {
+                        //inline data is spilled to blocks and a chain with not full blocks in the middle is packed
+                        writeChain(iNode, readData(iNode));
+                        writeBlocks(iNode, position, src);
+                    }
+                }
+                return length;
+            } finally {
+                iNodeLocker.endWrite(iNode);
+            }
+        } catch (IOException | RuntimeException e) {
+            readWriter.abortTransaction();
+            throw e;
+        } finally {
+            endOperation();
+        }
+    }
+
+    /**
+     * Changes blocks covering the range and appends new blocks, the file is locked for writing.
+     *
+     * @return false if the chain has a not full block other than the last one or data is inline,
+     * nothing is written then
+     */
+    private boolean writeBlocks(SimpleINode iNode, long position, ByteBuffer src) throws IOException {
+        if (iNode.hasInlineData())
+            return false;
+        int blockSize = format.getBlockDataSize();
+        long size = iNode.getTotalSize();
+        long end = position + src.remaining();
+        if (!iNode.hasExtents() && iNode.getFirstDataBlock() != -1)
+            convertToExtents(iNode);
+        boolean extents = iNode.hasExtents();
+        int count = iNode.getFirstDataBlock() == -1 ? 0 : (int) Math.max(1, (size + blockSize - 1) / blockSize);
+        if (extents && iNode.getBlockCount() != count)
+            return false;
+        BlockIndexes.Index cached = blockIndexes == null || extents ? null
+                : blockIndexes.get(iNode.getCurPos(), iNode.getTimeStamp());
+
+        //first changed block, the last one when the range starts after it, an empty file is only appended to
+        int k = 0;
+        long pos = -1;
+        if (count > 0) {
+            k = (int) Math.min(position / blockSize, count - 1);
+            if (k == count - 1) {
+                pos = iNode.getLastDataBlock();
+            } else if (extents) {
+                pos = iNode.getBlock(k);
+            } else {
+                BlockIndexes.Index index = blockIndexes == null ? buildBlockIndex(iNode) : getBlockIndex(iNode);
+                if (index == null || index.size() != count)
+                    return false;
+                cached = blockIndexes == null ? null : index;
+                pos = index.get(k);
+            }
+        }
+
+        int newCount = end > (long) count * blockSize ? (int) ((end - (long) count * blockSize + blockSize - 1) / blockSize) : 0;
+        SimpleBlock[] blocks = newCount == 0 ? new SimpleBlock[0] : spaceAllocator.getFreeBlocks(newCount);
+        for (; k < count && (long) k * blockSize < end; k++) {
+            SimpleBlock block = readWriter.readBlock(pos);
+            long start = (long) k * blockSize;
+            if (k == count - 1) {
+                //last block is filled with zeros up to the range and grows up to its end
+                int from = (int) Math.max(0, Math.min(blockSize, position - start));
+                if (from > block.getSize())
+                    Arrays.fill(block.getData(), block.getSize(), from, (byte) 0);
+                block.setSize((int) Math.max(block.getSize(), Math.min(blockSize, end - start)));
+                if (newCount > 0)
+                    block.setNextDataBlock(blocks[0].getCurPos());
+            }
+            copyRange(src, position, start, block);
+            readWriter.writeBlock(block);
+            pos = block.getNextDataBlock();
+        }
+        for (int i = 0; i < newCount; i++) {
+            long start = (long) (count + i) * blockSize;
+            blocks[i].setSize((int) Math.min(blockSize, end - start));
+            if (i + 1 < newCount)
+                blocks[i].setNextDataBlock(blocks[i + 1].getCurPos());
+            copyRange(src, position, start, blocks[i]);
+            readWriter.writeBlock(blocks[i]);
+            if (extents || count == 0)
+                iNode.addBlock(blocks[i].getCurPos());
+        }
+
+        if (count == 0 && newCount > 0)
+            iNode.setFirstDataBlock(blocks[0].getCurPos());
+        if (newCount > 0)
+            iNode.setLastDataBlock(blocks[newCount - 1].getCurPos());
+        iNode.setTotalSize(Math.max(size, end));
+        writeINode(iNode);
+        src.position(src.limit());
+        if (cached != null) {
+            for (SimpleBlock block : blocks) {
+                cached.add(block.getCurPos());
+            }
+            cached.timeStamp = iNode.getTimeStamp();
+        }
+        return true;
+    }
+
+    /**
+     * Copies the part of the source starting at the file position that falls into the block starting at blockStart.
+     */
+    private void copyRange(ByteBuffer src, long position, long blockStart, SimpleBlock block) {
+        long from = Math.max(position, blockStart);
+        long to = Math.min(position + src.remaining(), blockStart + format.getBlockDataSize());
+        if (from >= to)
+            return;
+        ByteBuffer part = src.duplicate();
+        part.position(src.position() + (int) (from - position));
+        part.get(block.getData(), (int) (from - blockStart), (int) (to - from));
+    }
+
+    /**
+     * @return stream over the file data as it is now, reading fails if the file is changed later
+     */
+    public InputStream newInputStream(SimpleFile file) throws IOException {
+        if (file instanceof SimpleDirectory)
+            throw new IllegalStateException("Can not do it with directories.");
+        SimpleINode iNode = readINode(file.iNode.getCurPos());
+        if (iNode.hasInlineData())
+            return new ByteArrayInputStream(iNode.getInlineData());
+        return new BlockChainInputStream(this, iNode, readAhead);
+    }
+
+    /**
+     * Reads data of the chain starting with the block while the next block fits the buffer.
+     *
+     * @return position of the next block to read or -1 at the end of the chain
+     */
+    long readBlocks(SimpleINode iNode, long pos, ByteBuffer target) throws IOException {
+        iNodeLocker.beginCheckedRead(iNode);
+        try {
+            while (pos != -1 && target.remaining() >= format.getBlockDataSize()) {
+                BlockView block = readWriter.readBlockView(pos);
+                block.copyData(target.array(), target.arrayOffset() + target.position(), block.getSize());
+                target.position(target.position() + block.getSize());
+                pos = block.getNextDataBlock();
+            }
+            return pos;
+        } finally {
+            iNodeLocker.endRead(iNode);
+        }
+    }
+
+    /**
+     * @param append false to empty the file first
+     * @return stream writing blocks of the file as data arrives, writing fails if the file is changed by others
+     */
+    public OutputStream newOutputStream(SimpleFile file, boolean append) throws IOException {
+        if (file instanceof SimpleDirectory)
+            throw new IllegalStateException("Can not do it with directories.");
+        SimpleINode iNode = file.iNode;
+        beginOperation();
+        try {
+            iNodeLocker.beginWrite(iNode);
+            try {
+                if (append && iNode.hasInlineData()) {
+                    byte[] data = iNode.getInlineData();
+                    int tailSize = lastBlockSize(data.length);
+                    byte[] tail = Arrays.copyOfRange(data, data.length - tailSize, data.length);
+                    return new BlockChainOutputStream(this, iNode, tail, tailSize);
+                }
+                if (append && iNode.getLastDataBlock() != -1) {
+                    if (!iNode.hasExtents() && convertToExtents(iNode))
+                        writeINode(iNode);
+                    SimpleBlock last = readWriter.readBlock(iNode.getLastDataBlock());
+                    return new BlockChainOutputStream(this, iNode, last.getData(), last.getSize());
+                }
+                freeBlocks(iNode);
+                if (inlineData) {
+                    iNode.setInlineData(new byte[0]);
+                    writeINode(iNode);
+                    return new BlockChainOutputStream(this, iNode, new byte[0], 0);
+                }
+                SimpleBlock block = spaceAllocator.getFreeBlock();
+                readWriter.writeBlock(block);
+                iNode.addBlock(block.getCurPos());
+                iNode.setFirstDataBlock(block.getCurPos());
+                iNode.setLastDataBlock(block.getCurPos());
+                iNode.setTotalSize(0);
+                writeINode(iNode);
+                return new BlockChainOutputStream(this, iNode, block.getData(), 0);
+            } finally {
+                iNodeLocker.endWrite(iNode);
+            }
+        } catch (IOException | RuntimeException e) {
+            readWriter.abortTransaction();
+            throw e;
+        } finally {
+            endOperation();
+        }
+    }
+
+    /**
+     * Rewrites the last block of the file with the given data and appends new blocks with the rest of the data,
+     * the file is locked once for all blocks. Inline data is split to blocks the same way, it stays inline
+     * while it fits.
+     */
+    void writeLast(SimpleINode iNode, byte[] last, int lastSize, byte[] data, int offset, int length)
+            throws IOException {
+        beginOperation();
+        try {
+            iNodeLocker.beginWrite(iNode);
+            try {
+                if (iNode.hasInlineData()) {
+                    byte[] old = iNode.getInlineData();
+                    int prefix = old.length - lastBlockSize(old.length);
+                    byte[] result = Arrays.copyOf(old, prefix + lastSize + length);
+                    System.arraycopy(last, 0, result, prefix, lastSize);
+                    System.arraycopy(data, offset, result, prefix + lastSize, length);
+                    writeData(iNode, result);
+                    return;
+                }
+                SimpleBlock block = readWriter.readBlock(iNode.getLastDataBlock());
+                long totalSize = iNode.getTotalSize() - block.getSize() + lastSize + length;
+                int count = (length + format.getBlockDataSize() - 1) / format.getBlockDataSize();
+                SimpleBlock[] blocks = count == 0 ? new SimpleBlock[0] : spaceAllocator.getFreeBlocks(count);
+                System.arraycopy(last, 0, block.getData(), 0, lastSize);
+                block.setSize(lastSize);
+                block.setNextDataBlock(count == 0 ? -1 : blocks[0].getCurPos());
+                readWriter.writeBlock(block);
+                for (int i = 0; i < count; i++) {
+                    int blockOffset = i * format.getBlockDataSize();
+                    int blockLength = Math.min(format.getBlockDataSize(), length - blockOffset);
+                    System.arraycopy(data, offset + blockOffset, blocks[i].getData(), 0, blockLength);
+                    blocks[i].setSize(blockLength);
+                    if (i + 1 < count)
+                        blocks[i].setNextDataBlock(blocks[i + 1].getCurPos());
+                    readWriter.writeBlock(blocks[i]);
+                    if (iNode.hasExtents())
+                        iNode.addBlock(blocks[i].getCurPos());
+                }
+                if (count > 0)
+                    iNode.setLastDataBlock(blocks[count - 1].getCurPos());
+                iNode.setTotalSize(totalSize);
+                writeINode(iNode);
+            } finally {
+                iNodeLocker.endWrite(iNode);
+            }
+        } catch (IOException | RuntimeException e) {
+            readWriter.abortTransaction();
+            throw e;
+        } finally {
+            endOperation();
+        }
+    }
+
+    /**
+     * Writes the iNode together with its extents which do not fit the iNode record, the file is locked for writing.
+     */
+    private void writeINode(SimpleINode iNode) throws IOException {
+        if (iNode.hasExtents())
+            storeExtents(iNode);
+        readWriter.writeINode(iNode);
+    }
+
+    /**
+     * Writes extent blocks starting with the one of the first changed extent, extent blocks which are
+     * not needed any more are freed.
+     */
+    private void storeExtents(SimpleINode iNode) throws IOException {
+        int perBlock = iNode.getExtentBlockCapacity();
+        int inline = iNode.getInlineExtentCapacity();
+        long[] old = iNode.getExtentBlocks();
+        int outside = Math.max(0, iNode.getExtentCount() - inline);
+        int needed = (outside + perBlock - 1) / perBlock;
+        int changed = iNode.getChangedExtent();
+        if (changed == Integer.MAX_VALUE && needed == old.length)
+            return;
+        long[] positions = Arrays.copyOf(old, needed);
+        SimpleBlock[] fresh = needed > old.length ? spaceAllocator.getFreeBlocks(needed - old.length) : new SimpleBlock[0];
+        for (int i = old.length; i < needed; i++) {
+            positions[i] = fresh[i - old.length].getCurPos();
+        }
+        for (int i = needed; i < old.length; i++) {
+            spaceAllocator.markBlockAsFree(old[i]);
+        }
+        int from = changed == Integer.MAX_VALUE ? needed : Math.max(0, changed - inline) / perBlock;
+        if (needed != old.length)
+            from = Math.min(from, Math.max(0, Math.min(needed, old.length) - 1)); //next block of the last kept one changes
+        for (int i = from; i < needed; i++) {
+            SimpleBlock block = i < old.length ? readWriter.readBlock(positions[i]) : fresh[i - old.length];
+            ByteBuffer data = ByteBuffer.wrap(block.getData());
+            int first = inline + i * perBlock;
+            int last = Math.min(iNode.getExtentCount(), first + perBlock);
+            for (int e = first; e < last; e++) {
+                data.putLong(iNode.getExtentStart(e));
+                data.putInt(iNode.getExtentLength(e));
+            }
+            block.setSize(data.position());
+            block.setNextDataBlock(i + 1 < needed ? positions[i + 1] : -1);
+            readWriter.writeBlock(block);
+        }
+        iNode.setExtentBlocks(positions);
+    }
+
+    /**
+     * Frees data blocks and extent blocks of the file and forgets inline data,
+     * extents are freed without reading block headers.
+     */
+    private void freeBlocks(SimpleINode iNode) throws IOException {
+        if (iNode.hasExtents()) {
+            for (int i = 0; i < iNode.getExtentCount(); i++) {
+                spaceAllocator.markExtentAsFree(iNode.getExtentStart(i), iNode.getExtentLength(i));
+            }
+            for (long pos : iNode.getExtentBlocks()) {
+                spaceAllocator.markBlockAsFree(pos);
+            }
+        } else if (iNode.getFirstDataBlock() != -1) {
+            spaceAllocator.markListOfBlocksAsFree(iNode.getFirstDataBlock(), iNode.getLastDataBlock());
+        }
+        iNode.clearLayout();
+        iNode.setFirstDataBlock(-1);
+        iNode.setLastDataBlock(-1);
+    }
+
+    /**
+     * @return size of data of the last block if the data is split to full blocks and the last one
+     */
+    private int lastBlockSize(int size) {
+        return size == 0 ? 0 : (size - 1) % format.getBlockDataSize() + 1;
+    }
+
     private byte[] readData(SimpleINode iNode) throws IOException {
         iNodeLocker.beginRead(iNode);
         try {
+            if (iNode.hasInlineData())
+                return iNode.getInlineData();
             ByteArrayOutputStream stream = new ByteArrayOutputStream();
             long pos = iNode.getFirstDataBlock();
             while (pos != -1) {
-                SimpleBlock block = readWriter.readBlock(pos);
-                stream.write(block.getData(), 0, block.getSize());
+                BlockView block = readWriter.readBlockView(pos);
+                block.writeData(stream);
                 pos = block.getNextDataBlock();
             }
 
@@ -218,21 +1120,96 @@ public class SimpleFileReadWriter implements AutoCloseable {
         }
     }
 
+    private SimpleINode readINode(long pos) throws IOException {
+        SimpleINode iNode = readWriter.readINode(pos);
+        //images written before sizes were stored
+        if (iNode.getTotalSize() == -1 && iNode.getFirstDataBlock() != -1)
+            iNode.setTotalSize(readWriter.readChainSize(iNode.getFirstDataBlock()));
+        return iNode;
+    }
+
     private void createRootDirectory() throws IOException {
         SimpleINode iNode = spaceAllocator.getRoot();
         iNodeLocker.beginWrite(iNode);
         try {
             iNode.isDirectory = true;
-            writeData(iNode, directoryParser.toBytes(new HashMap<String, Long>()));
+            writeEmptyDirectory(iNode);
         } finally {
             iNodeLocker.endWrite(iNode);
         }
     }
 
+    /**
+     * Marks every record reachable from the root as used.
+     */
+    private void rebuildFreeSpace() throws IOException {
+        ArrayList<Long> iNodes = new ArrayList<>();
+        iNodes.add(spaceAllocator.getRoot().getCurPos());
+        while (!iNodes.isEmpty()) {
+            SimpleINode iNode = readWriter.readINode(iNodes.remove(iNodes.size() - 1));
+            spaceAllocator.markINodeUsed(iNode.getCurPos());
+            if (iNode.isDirectory && directoryIndex.isIndex(iNode.getFirstDataBlock())) {
+                for (long pos : directoryIndex.getBlocks(iNode.getFirstDataBlock())) {
+                    spaceAllocator.markUsed(pos);
+                }
+            } else if (iNode.hasExtents()) {
+                for (int i = 0; i < iNode.getExtentCount(); i++) {
+                    for (int k = 0; k < iNode.getExtentLength(i); k++) {
+                        spaceAllocator.markUsed(iNode.getExtentStart(i) + (long) k * format.getBlockSize());
+                    }
+                }
+                for (long pos : iNode.getExtentBlocks()) {
+                    spaceAllocator.markUsed(pos);
+                }
+            } else if (iNode.getFirstDataBlock() != -1) {
+                for (long pos : readWriter.readChain(iNode.getFirstDataBlock())) {
+                    spaceAllocator.markUsed(pos);
+                }
+            }
+            if (iNode.isDirectory) {
+                addValues(iNodes, readChildren(iNode));
+            }
+        }
+        spaceAllocator.finishRebuild();
+    }
+
+    /**
+     * @return block cache or null if caching is disabled
+     */
+    public BlockCache getBlockCache() {
+        return readWriter.getCache();
+    }
+
+    /**
+     * Grows the image to at least given size up front, for example before a bulk load.
+     */
+    public void preallocate(long imageSize) throws IOException {
+        spaceAllocator.preallocate(imageSize);
+    }
+
+    /**
+     * Writes all cached changes to the image.
+     */
+    public void flush() throws IOException {
+        readWriter.flush();
+    }
+
     @Override
     public void close() throws IOException {
-        readWriter.close();
+        if (forcer != null) {
+            forcer.shutdown();
+            try {
+                forcer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
         spaceAllocator.close();
+        if (durability != Durability.NONE)
+            readWriter.force();
+        readWriter.close();
         iNodeLocker.close();
+        if (forceError != null)
+            throw forceError;
     }
 }
@@ -0,0 +1,15 @@
+package fileSystem.core.structure.base;
+
+/**
+ * Strategies of choosing free blocks.
+ */
+public enum AllocationMode {
+    /**
+     * Lowest free blocks one by one, a file can be scattered over the holes left by deleted ones.
+     */
+    FIRST_FIT,
+    /**
+     * Smallest free run which fits the whole file, so its blocks stay contiguous.
+     */
+    EXTENT
+}
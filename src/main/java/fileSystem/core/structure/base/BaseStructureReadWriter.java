@@ -3,96 +3,663 @@ package fileSystem.core.structure.base;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Sync operations for base structure.
+ * Records have sizes of the image format, an iNode is read and written as a range of its record,
+ * which is its iNode table block since format version 2.
  */
 public class BaseStructureReadWriter implements AutoCloseable {
-    private final SeekableByteChannel channel;
+    private final ImageFormat format;
+    private final Storage storage;
+    private final BlockCache cache;
+    private final INodeCache iNodeCache;
+    private final BufferPool bufferPool;
+    private final Journal journal;
+    private final long checkpointSize;
+    private final ReentrantLock transactionLock = new ReentrantLock();
+    private final ThreadLocal<Transaction> transactions = new ThreadLocal<>();
+    private SpaceAllocator allocator;
+    private final ThreadLocal<BlockView> blockViews = new ThreadLocal<BlockView>() {
+        @Override
+        protected BlockView initialValue() {
+            return new BlockView(format.getBlockSize());
+        }
+    };
+    private final ThreadLocal<INodeView> iNodeViews = new ThreadLocal<INodeView>() {
+        @Override
+        protected INodeView initialValue() {
+            return new INodeView(format.getINodeSize());
+        }
+    };
 
     public BaseStructureReadWriter(SeekableByteChannel channel) {
-        this.channel = channel;
+        this(new ChannelStorage(channel));
+    }
+
+    public BaseStructureReadWriter(Storage storage) {
+        this(storage, 0);
+    }
+
+    /**
+     * @param cacheSize byte budget of the block cache, 0 disables caching
+     */
+    public BaseStructureReadWriter(Storage storage, long cacheSize) {
+        this(storage, cacheSize, new BufferPool(Constants.BLOCK_SIZE, true));
+    }
+
+    public BaseStructureReadWriter(Storage storage, long cacheSize, int iNodeCacheSize,
+                                   Journal journal, long checkpointSize) {
+        this(ImageFormat.V1, storage, cacheSize, iNodeCacheSize, journal, checkpointSize);
+    }
+
+    /**
+     * @param format sizes of records of the image, see ImageFormat.read for existing images
+     */
+    public BaseStructureReadWriter(ImageFormat format, Storage storage, long cacheSize, int iNodeCacheSize,
+                                   Journal journal, long checkpointSize) {
+        this(format, storage, cacheSize, new BufferPool(format.getBlockSize(), true), iNodeCacheSize, journal,
+                checkpointSize);
+    }
+
+    public BaseStructureReadWriter(Storage storage, long cacheSize, BufferPool bufferPool) {
+        this(storage, cacheSize, bufferPool, INodeCache.DEFAULT_CAPACITY, null, 0);
+    }
+
+    public BaseStructureReadWriter(Storage storage, long cacheSize, BufferPool bufferPool, int iNodeCacheSize,
+                                   Journal journal, long checkpointSize) {
+        this(ImageFormat.V1, storage, cacheSize, bufferPool, iNodeCacheSize, journal, checkpointSize);
+    }
+
+    /**
+     * @param iNodeCacheSize max count of cached iNodes, 0 disables caching of iNodes
+     * @param journal log of transactions or null, needs the block cache to keep images until they are durable
+     * @param checkpointSize size of the journal after which images are written to the image and the journal emptied
+     */
+    public BaseStructureReadWriter(ImageFormat format, Storage storage, long cacheSize, BufferPool bufferPool,
+                                   int iNodeCacheSize, Journal journal, long checkpointSize) {
+        if (journal != null && cacheSize <= 0)
+            throw new IllegalArgumentException("Journal needs the block cache.");
+        this.format = format;
+        this.storage = storage;
+        this.cache = cacheSize > 0 ? new BlockCache(storage, cacheSize) : null;
+        this.iNodeCache = iNodeCacheSize > 0 ? new INodeCache(iNodeCacheSize) : null;
+        this.bufferPool = bufferPool;
+        this.journal = journal;
+        this.checkpointSize = checkpointSize;
+        if (journal != null)
+            journal.attach(cache);
+    }
+
+    public ImageFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return block cache or null if caching is disabled
+     */
+    public BlockCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return iNode cache or null if caching of iNodes is disabled
+     */
+    public INodeCache getINodeCache() {
+        return iNodeCache;
+    }
+
+    public long size() throws IOException {
+        return storage.size();
+    }
+
+    /**
+     * Grows the image to newSize without writing records, the new part is zero.
+     */
+    public void extend(long newSize) throws IOException {
+        storage.extend(newSize);
     }
 
     public SimpleHeader readHeader() throws IOException {
-        ByteBuffer buffer = ByteBuffer.wrap(new byte[Constants.HEADER_SIZE]);
-        readFromChannel(Constants.HEADER_POS, buffer);
-        assert buffer.position() == Constants.HEADER_SIZE;
-        buffer.rewind();
-        return new SimpleHeader(buffer);
+        ByteBuffer buffer = bufferPool.borrow(format.getHeaderSize());
+        try {
+            readFromStorage(Constants.HEADER_POS, buffer);
+            assert buffer.position() == format.getHeaderSize();
+            buffer.rewind();
+            return new SimpleHeader(buffer);
+        } finally {
+            bufferPool.release(buffer);
+        }
     }
 
     public void writeHeader(SimpleHeader header) throws IOException {
-        writeToChannel(Constants.HEADER_POS, header.toBuffer());
+        ByteBuffer buffer = bufferPool.borrow(format.getHeaderSize());
+        try {
+            header.writeTo(buffer);
+            buffer.rewind();
+            writeToStorage(Constants.HEADER_POS, buffer);
+        } finally {
+            bufferPool.release(buffer);
+        }
     }
 
 
     public SimpleBlock readBlock(long pos) throws IOException {
-        ByteBuffer buffer = ByteBuffer.wrap(new byte[Constants.BLOCK_SIZE]);
-        readFromChannel(pos, buffer);
-        assert buffer.position() == Constants.BLOCK_SIZE;
-        buffer.rewind();
-        return new SimpleBlock(buffer, pos);
+        ByteBuffer buffer = bufferPool.borrow(format.getBlockSize());
+        try {
+            readFromStorage(pos, buffer);
+            assert buffer.position() == format.getBlockSize();
+            buffer.rewind();
+            return new SimpleBlock(buffer, pos, format.getBlockDataSize());
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * @return view of the block owned by current thread, valid until its next block view read
+     */
+    public BlockView readBlockView(long pos) throws IOException {
+        BlockView view = blockViews.get();
+        view.buffer.clear();
+        readFromStorage(pos, view.buffer);
+        view.curPos = pos;
+        return view;
+    }
+
+    /**
+     * Reads only next data block and size of the block, data of returned view is not valid.
+     */
+    public BlockView readBlockHeader(long pos) throws IOException {
+        BlockView view = blockViews.get();
+        view.buffer.clear();
+        view.buffer.limit(Constants.BLOCK_HEADER_SIZE);
+        readPrefixFromStorage(pos, view.buffer);
+        view.curPos = pos;
+        return view;
+    }
+
+    public void writeBlockHeader(long pos, long nextDataBlock, int size) throws IOException {
+        ByteBuffer buffer = bufferPool.borrow(Constants.BLOCK_HEADER_SIZE);
+        try {
+            buffer.putLong(nextDataBlock);
+            buffer.putInt(size);
+            buffer.rewind();
+            writePrefixToStorage(pos, buffer);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * @return positions of all blocks of the chain in chain order, only block headers are read
+     */
+    public long[] readChain(long firstBlock) throws IOException {
+        long[] chain = new long[16];
+        int count = 0;
+        long pos = firstBlock;
+        while (pos != -1) {
+            if (count == chain.length)
+                chain = Arrays.copyOf(chain, count * 2);
+            chain[count++] = pos;
+            pos = readBlockHeader(pos).getNextDataBlock();
+        }
+        return Arrays.copyOf(chain, count);
+    }
+
+    /**
+     * @return size of data stored in the chain, only block headers are read
+     */
+    public long readChainSize(long firstBlock) throws IOException {
+        long size = 0;
+        long pos = firstBlock;
+        while (pos != -1) {
+            BlockView block = readBlockHeader(pos);
+            size += block.getSize();
+            pos = block.getNextDataBlock();
+        }
+        return size;
     }
 
     public SimpleBlock allocateNewBlock() throws IOException {
-        SimpleBlock block = new SimpleBlock(-1);
-        long pos = writeToChannel(block.toBuffer());
-        return new SimpleBlock(pos);
+        ByteBuffer buffer = bufferPool.borrow(format.getBlockSize());
+        try {
+            SimpleBlock block = new SimpleBlock(-1, format.getBlockDataSize());
+            block.writeTo(buffer);
+            buffer.rewind();
+            long pos = writeToStorage(buffer);
+            return new SimpleBlock(pos, format.getBlockDataSize());
+        } finally {
+            bufferPool.release(buffer);
+        }
     }
 
     public void writeBlock(SimpleBlock block) throws IOException {
         assert block.getCurPos() != -1;
-        writeToChannel(block.getCurPos(), block.toBuffer());
+        ByteBuffer buffer = bufferPool.borrow(format.getBlockSize());
+        try {
+            block.writeTo(buffer);
+            buffer.rewind();
+            writeToStorage(block.getCurPos(), buffer);
+        } finally {
+            bufferPool.release(buffer);
+        }
     }
 
 
     public SimpleINode readINode(long pos) throws IOException {
-        ByteBuffer buffer = ByteBuffer.wrap(new byte[Constants.INODE_SIZE]);
-        readFromChannel(pos, buffer);
-        assert buffer.position() == Constants.BLOCK_SIZE;
-        buffer.rewind();
-        return new SimpleINode(buffer, pos);
+        if (iNodeCache == null)
+            return loadINode(pos);
+        synchronized (iNodeCache.lockOf(pos)) {
+            SimpleINode iNode = iNodeCache.get(pos);
+            if (iNode == null) {
+                iNode = loadINode(pos);
+                iNodeCache.put(iNode);
+            }
+            return new SimpleINode(iNode);
+        }
     }
 
+    private SimpleINode loadINode(long pos) throws IOException {
+        ByteBuffer buffer = bufferPool.borrow(format.getINodeSize());
+        try {
+            readINodeFromStorage(pos, buffer);
+            assert buffer.position() == format.getINodeSize();
+            buffer.rewind();
+            SimpleINode iNode = new SimpleINode(format, buffer, pos);
+            long extentBlock = buffer.getLong(SimpleINode.EXTENT_BLOCK);
+            while (iNode.hasMissingExtents() && extentBlock != -1) {
+                SimpleBlock block = readBlock(extentBlock);
+                iNode.readExtents(block);
+                extentBlock = block.getNextDataBlock();
+            }
+            return iNode;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * @return view of the iNode owned by current thread, valid until its next iNode view read
+     */
+    public INodeView readINodeView(long pos) throws IOException {
+        INodeView view = iNodeViews.get();
+        view.buffer.clear();
+        SimpleINode cached = iNodeCache != null ? iNodeCache.get(pos) : null;
+        if (cached != null)
+            cached.writeTo(view.buffer);
+        else
+            readINodeFromStorage(pos, view.buffer);
+        view.curPos = pos;
+        return view;
+    }
+
+    /**
+     * Appends an iNode in a record of its own for format version 1, otherwise takes a slot of an iNode table
+     * from the allocator of the image.
+     */
     public SimpleINode allocateNewINode() throws IOException {
-        SimpleINode iNode = new SimpleINode(-1, System.currentTimeMillis());
-        long pos = writeToChannel(iNode.toBuffer());
-        return new SimpleINode(pos, iNode.getTimeStamp());
+        if (format.hasINodeTables()) {
+            if (allocator == null)
+                throw new IllegalStateException("iNode tables are allocated by SpaceAllocator.");
+            return allocator.getFreeINode();
+        }
+        ByteBuffer buffer = bufferPool.borrow(format.getINodeSize());
+        try {
+            SimpleINode iNode = new SimpleINode(format, -1, System.currentTimeMillis());
+            iNode.writeTo(buffer);
+            buffer.rewind();
+            long pos = writeToStorage(buffer);
+            return new SimpleINode(format, pos, iNode.getTimeStamp());
+        } finally {
+            bufferPool.release(buffer);
+        }
     }
 
     public void writeINode(SimpleINode iNode) throws IOException {
         assert iNode.getCurPos() != -1;
-        iNode.setTimeStamp(System.currentTimeMillis());
-        writeToChannel(iNode.getCurPos(), iNode.toBuffer());
+        //time stamp has to change on every write, otherwise INodeLocker misses changes made in the same millisecond
+        iNode.setTimeStamp(Math.max(System.currentTimeMillis(), iNode.getTimeStamp() + 1));
+        ByteBuffer buffer = bufferPool.borrow(format.getINodeSize());
+        try {
+            iNode.writeTo(buffer);
+            buffer.rewind();
+            if (iNodeCache == null) {
+                writeINodeToStorage(iNode.getCurPos(), buffer);
+                return;
+            }
+            //cached iNode is replaced under the lock a miss is loaded under, so a concurrent miss can not cache the old one
+            synchronized (iNodeCache.lockOf(iNode.getCurPos())) {
+                writeINodeToStorage(iNode.getCurPos(), buffer);
+                iNodeCache.put(iNode);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
     }
 
+    /**
+     * Forgets the cached iNode, its record is free and can be written as a block.
+     */
+    public void invalidateINode(long pos) {
+        if (iNodeCache != null)
+            iNodeCache.remove(pos);
+    }
+
+
+    /**
+     * Allocator which gets records freed by a transaction back when the transaction is journaled.
+     */
+    void setAllocator(SpaceAllocator allocator) {
+        this.allocator = allocator;
+    }
 
-    private void readFromChannel(long pos, ByteBuffer target) throws IOException {
-        synchronized (channel) {
-            channel.position(pos);
-            channel.read(target);
+    /**
+     * Starts a transaction of current thread, its writes reach the image only after they are in the journal.
+     * Transactions run concurrently, nested ones join the outer one. Does nothing without the journal.
+     */
+    public void beginTransaction() {
+        if (journal == null)
+            return;
+        Transaction transaction = transactions.get();
+        if (transaction == null) {
+            transaction = new Transaction();
+            transactions.set(transaction);
         }
+        transaction.depth++;
+    }
+
+    /**
+     * Marks the transaction of current thread as failed, it is rolled back when it ends.
+     * Does nothing without the journal.
+     */
+    public void abortTransaction() {
+        Transaction transaction = journal != null ? transactions.get() : null;
+        if (transaction != null)
+            transaction.aborted = true;
+    }
+
+    /**
+     * Appends images written by the transaction to the journal and waits until they are durable.
+     * Only appending is serialized, waiting happens outside of the lock, so concurrent transactions are
+     * committed together. A record written by several of them is journaled by each with the changes made so far.
+     * An aborted transaction restores the ranges it wrote and journals the restored records instead,
+     * records it allocated are freed and records it freed stay used.
+     */
+    public void endTransaction() throws IOException {
+        if (journal == null)
+            return;
+        Transaction transaction = transactions.get();
+        if (--transaction.depth > 0)
+            return;
+        transactions.remove();
+        if (transaction.aborted)
+            rollback(transaction);
+        long id;
+        transactionLock.lock();
+        try {
+            ArrayList<Long> positions = new ArrayList<>(transaction.positions);
+            ArrayList<byte[]> images = new ArrayList<>(positions.size());
+            for (long pos : positions) {
+                byte[] image = new byte[pos == Constants.HEADER_POS ? format.getHeaderSize() : format.getBlockSize()];
+                cache.read(pos, ByteBuffer.wrap(image));
+                images.add(image);
+            }
+            id = journal.append(positions, images);
+            for (long pos : positions) {
+                cache.pin(pos, id);
+            }
+            if (journal.size() > checkpointSize)
+                checkpoint();
+        } finally {
+            transactionLock.unlock();
+        }
+        //records are reused only by transactions appended after the one which freed them
+        release(transaction);
+        journal.commit(id);
+    }
+
+    /**
+     * Defers freeing of the record or iNode until the transaction of current thread is journaled,
+     * so no other transaction reuses it before.
+     *
+     * @param always free it even if the transaction is aborted
+     * @return false if current thread has no transaction, the caller frees it at once then
+     */
+    boolean deferFree(long pos, boolean iNode, boolean always) {
+        Transaction transaction = journal != null ? transactions.get() : null;
+        if (transaction == null)
+            return false;
+        transaction.freed.add(new Space(pos, iNode, always));
+        return true;
+    }
+
+    /**
+     * Remembers the record or iNode allocated by the transaction of current thread, it is freed if the
+     * transaction is aborted and its old content is not kept for the rollback.
+     */
+    void allocated(long pos, boolean iNode) {
+        Transaction transaction = journal != null ? transactions.get() : null;
+        if (transaction != null)
+            (iNode ? transaction.allocatedINodes : transaction.allocated).add(pos);
     }
 
-    private void writeToChannel(long pos, ByteBuffer source) throws IOException {
-        synchronized (channel) {
-            channel.position(pos);
-            channel.write(source);
+    private void release(Transaction transaction) {
+        for (Space space : transaction.freed) {
+            if (!transaction.aborted || space.always)
+                allocator.release(space.pos, space.iNode);
         }
+        if (!transaction.aborted)
+            return;
+        for (long pos : transaction.allocated) {
+            allocator.release(pos, false);
+        }
+        for (long pos : transaction.allocatedINodes) {
+            allocator.release(pos, true);
+        }
+    }
+
+    /**
+     * Keeps the record as it was before the first write of the transaction for its rollback,
+     * records the transaction allocated and the header are not kept.
+     */
+    private void keepRecord(Transaction transaction, long pos) throws IOException {
+        if (pos == Constants.HEADER_POS || transaction.allocated.contains(pos) || !transaction.keptRecords.add(pos))
+            return;
+        byte[] image = new byte[format.getBlockSize()];
+        cache.read(pos, ByteBuffer.wrap(image));
+        transaction.kept.add(new Kept(pos, false, image));
     }
 
-    private long writeToChannel(ByteBuffer source) throws IOException {
-        synchronized (channel) {
-            long pos = channel.size();
-            channel.position(pos);
-            channel.write(source);
-            return pos;
+    /**
+     * Keeps only the range of the iNode, other iNodes of its table can be written by other transactions.
+     */
+    private void keepINode(Transaction transaction, long pos) throws IOException {
+        if (transaction.allocatedINodes.contains(pos) || !transaction.keptINodes.add(pos))
+            return;
+        byte[] image = new byte[format.getINodeSize()];
+        long record = format.recordOf(pos);
+        cache.readRange(record, format.getBlockSize(), (int) (pos - record), ByteBuffer.wrap(image));
+        transaction.kept.add(new Kept(pos, true, image));
+    }
+
+    /**
+     * Writes kept images back in reverse order as pending images of the transaction and forgets cached iNodes
+     * of the restored ranges.
+     */
+    private void rollback(Transaction transaction) throws IOException {
+        for (int i = transaction.kept.size() - 1; i >= 0; i--) {
+            Kept kept = transaction.kept.get(i);
+            if (kept.iNode) {
+                long record = format.recordOf(kept.pos);
+                cache.writeRange(record, format.getBlockSize(), (int) (kept.pos - record), ByteBuffer.wrap(kept.image),
+                        BlockCache.PENDING);
+                invalidateINode(kept.pos);
+            } else {
+                cache.write(kept.pos, ByteBuffer.wrap(kept.image), BlockCache.PENDING);
+                for (int slot = 0; slot < format.getINodesPerBlock(); slot++) {
+                    invalidateINode(kept.pos + (long) slot * format.getINodeSize());
+                }
+            }
         }
     }
 
+    /**
+     * Writes all journaled images to the image and empties the journal.
+     */
+    private void checkpoint() throws IOException {
+        journal.commitAll();
+        cache.flush();
+        storage.force();
+        journal.reset();
+    }
+
+    public boolean hasJournal() {
+        return journal != null;
+    }
+
+    /**
+     * Writes all cached changes to the storage, journaled ones after they are durable.
+     */
+    public void flush() throws IOException {
+        if (journal != null)
+            journal.commitAll();
+        if (cache != null)
+            cache.flush();
+    }
+
+    /**
+     * Writes all cached changes to the storage and makes them durable.
+     */
+    public void force() throws IOException {
+        flush();
+        storage.force();
+    }
+
+    private void readFromStorage(long pos, ByteBuffer target) throws IOException {
+        if (cache != null)
+            cache.read(pos, target);
+        else
+            storage.read(pos, target);
+    }
+
+    private void writeToStorage(long pos, ByteBuffer source) throws IOException {
+        Transaction transaction = journal != null ? transactions.get() : null;
+        if (transaction != null) {
+            keepRecord(transaction, pos);
+            cache.write(pos, source, BlockCache.PENDING);
+            transaction.positions.add(pos);
+        } else if (cache != null)
+            cache.write(pos, source);
+        else
+            storage.write(pos, source);
+    }
+
+    private void readPrefixFromStorage(long pos, ByteBuffer target) throws IOException {
+        if (cache != null)
+            cache.readPrefix(pos, target);
+        else
+            storage.read(pos, target);
+    }
+
+    private void writePrefixToStorage(long pos, ByteBuffer source) throws IOException {
+        Transaction transaction = journal != null ? transactions.get() : null;
+        if (transaction != null) {
+            keepRecord(transaction, pos);
+            cache.writePrefix(pos, source, format.getBlockSize(), BlockCache.PENDING);
+            transaction.positions.add(pos);
+        } else if (cache != null)
+            cache.writePrefix(pos, source);
+        else
+            storage.write(pos, source);
+    }
+
+    /**
+     * Reads the iNode as a range of its record, the whole record is cached.
+     */
+    private void readINodeFromStorage(long pos, ByteBuffer target) throws IOException {
+        long record = format.recordOf(pos);
+        if (cache != null)
+            cache.readRange(record, format.getBlockSize(), (int) (pos - record), target);
+        else
+            storage.read(pos, target);
+    }
+
+    /**
+     * Writes the iNode as a range of its record, the journal logs the whole record.
+     */
+    private void writeINodeToStorage(long pos, ByteBuffer source) throws IOException {
+        long record = format.recordOf(pos);
+        Transaction transaction = journal != null ? transactions.get() : null;
+        if (transaction != null) {
+            keepINode(transaction, pos);
+            cache.writeRange(record, format.getBlockSize(), (int) (pos - record), source, BlockCache.PENDING);
+            transaction.positions.add(record);
+        } else if (cache != null)
+            cache.writeRange(record, format.getBlockSize(), (int) (pos - record), source);
+        else
+            storage.write(pos, source);
+    }
+
+    private long writeToStorage(ByteBuffer source) throws IOException {
+        return storage.append(source);
+    }
+
     @Override
     public void close() throws IOException {
-        channel.close();
+        flush();
+        if (journal != null) {
+            storage.force();
+            journal.reset();
+            journal.close();
+        }
+        storage.close();
+    }
+
+    private static class Transaction {
+        final LinkedHashSet<Long> positions = new LinkedHashSet<>();
+        final ArrayList<Space> freed = new ArrayList<>();
+        final HashSet<Long> allocated = new HashSet<>();
+        final HashSet<Long> allocatedINodes = new HashSet<>();
+        final ArrayList<Kept> kept = new ArrayList<>();
+        final HashSet<Long> keptRecords = new HashSet<>();
+        final HashSet<Long> keptINodes = new HashSet<>();
+        int depth;
+        boolean aborted;
+    }
+
+    /**
+     * Record or iNode freed by a transaction.
+     */
+    private static class Space {
+        final long pos;
+        final boolean iNode;
+        final boolean always;
+
+        Space(long pos, boolean iNode, boolean always) {
+            this.pos = pos;
+            this.iNode = iNode;
+            this.always = always;
+        }
+    }
+
+    /**
+     * Image of a record or of an iNode range before the first write of a transaction.
+     */
+    private static class Kept {
+        final long pos;
+        final boolean iNode;
+        final byte[] image;
+
+        Kept(long pos, boolean iNode, byte[] image) {
+            this.pos = pos;
+            this.iNode = iNode;
+            this.image = image;
+        }
     }
 }
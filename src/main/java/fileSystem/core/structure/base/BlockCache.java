@@ -0,0 +1,398 @@
+package fileSystem.core.structure.base;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-back cache of header, block and iNode images with CLOCK eviction.
+ * Split into independently locked segments by position.
+ * Images written by a journal transaction are pinned until the transaction is durable.
+ */
+public class BlockCache {
+    private static final int SEGMENT_BITS = 4;
+    /**
+     * Transaction of images written by a transaction which is not in the journal yet.
+     */
+    public static final long PENDING = Long.MAX_VALUE;
+
+    private final Storage storage;
+    private final long capacity;
+    private final Segment[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong writeBacks = new AtomicLong();
+    private volatile long durable;
+
+    public BlockCache(Storage storage, long capacity) {
+        this.storage = storage;
+        this.capacity = capacity;
+        this.segments = new Segment[1 << SEGMENT_BITS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(capacity >> SEGMENT_BITS);
+        }
+    }
+
+    public void read(long pos, ByteBuffer target) throws IOException {
+        segment(pos).read(pos, target);
+    }
+
+    public void write(long pos, ByteBuffer source) throws IOException {
+        segment(pos).write(pos, source);
+    }
+
+    /**
+     * Writes an image of a journal transaction, it is not written back before the transaction is durable.
+     */
+    public void write(long pos, ByteBuffer source, long transaction) throws IOException {
+        segment(pos).write(pos, source, transaction);
+    }
+
+    /**
+     * Writes beginning of an image of a journal transaction, the whole image of given size is cached.
+     */
+    public void writePrefix(long pos, ByteBuffer source, int size, long transaction) throws IOException {
+        segment(pos).writeRange(pos, size, 0, source, transaction);
+    }
+
+    /**
+     * Reads part of an image of given size from the offset, the whole image is cached on miss.
+     */
+    public void readRange(long pos, int size, int offset, ByteBuffer target) throws IOException {
+        segment(pos).readRange(pos, size, offset, target);
+    }
+
+    /**
+     * Writes part of an image of given size from the offset, the whole image is cached.
+     */
+    public void writeRange(long pos, int size, int offset, ByteBuffer source) throws IOException {
+        segment(pos).writeRange(pos, size, offset, source);
+    }
+
+    /**
+     * Writes part of an image of a journal transaction from the offset, the whole image of given size is cached.
+     */
+    public void writeRange(long pos, int size, int offset, ByteBuffer source, long transaction) throws IOException {
+        segment(pos).writeRange(pos, size, offset, source, transaction);
+    }
+
+    /**
+     * Moves a cached image of the pending transaction to the given one.
+     */
+    public void pin(long pos, long transaction) {
+        segment(pos).pin(pos, transaction);
+    }
+
+    /**
+     * Allows images of transactions up to the given one to be written back.
+     */
+    public void setDurable(long transaction) {
+        durable = transaction;
+    }
+
+    /**
+     * Reads beginning of an image, does not cache it on miss.
+     */
+    public void readPrefix(long pos, ByteBuffer target) throws IOException {
+        segment(pos).readPrefix(pos, target);
+    }
+
+    /**
+     * Writes beginning of an image, goes to the storage if the image is not cached.
+     */
+    public void writePrefix(long pos, ByteBuffer source) throws IOException {
+        segment(pos).writePrefix(pos, source);
+    }
+
+    /**
+     * Writes all dirty images which are not pinned to the storage, they stay cached.
+     */
+    public void flush() throws IOException {
+        for (Segment segment : segments) {
+            segment.flush();
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.getUsed();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getWriteBacks() {
+        return writeBacks.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BlockCache{size=" + getSize() + ", capacity=" + capacity + ", hits=" + getHits() +
+                ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", writeBacks=" + getWriteBacks() + "}";
+    }
+
+    private Segment segment(long pos) {
+        return segments[(int) ((pos * 0x9E3779B97F4A7C15L) >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static class Entry {
+        final long pos;
+        final byte[] data;
+        int slot;
+        boolean dirty;
+        boolean referenced;
+        long transaction;
+
+        Entry(long pos, byte[] data) {
+            this.pos = pos;
+            this.data = data;
+        }
+    }
+
+    private class Segment {
+        private final long capacity;
+        private final HashMap<Long, Entry> entries = new HashMap<>();
+        private final ArrayList<Entry> clock = new ArrayList<>();
+        private int hand;
+        private long used;
+
+        Segment(long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void read(long pos, ByteBuffer target) throws IOException {
+            Entry entry = entries.get(pos);
+            if (entry != null && entry.data.length >= target.remaining()) {
+                hits.incrementAndGet();
+                entry.referenced = true;
+                target.put(entry.data, 0, target.remaining());
+                return;
+            }
+            misses.incrementAndGet();
+            if (entry != null)
+                remove(entry);
+            byte[] data = new byte[target.remaining()];
+            storage.read(pos, ByteBuffer.wrap(data));
+            target.put(data);
+            add(new Entry(pos, data));
+        }
+
+        synchronized void write(long pos, ByteBuffer source) throws IOException {
+            Entry entry = entries.get(pos);
+            if (entry != null && entry.data.length == source.remaining()) {
+                source.get(entry.data);
+                entry.dirty = true;
+                entry.referenced = true;
+                return;
+            }
+            if (entry != null)
+                remove(entry);
+            //writes beyond the end go through, appends rely on the size of the storage
+            if (source.remaining() > capacity || pos + source.remaining() > storage.size()) {
+                storage.write(pos, source);
+                return;
+            }
+            byte[] data = new byte[source.remaining()];
+            source.get(data);
+            Entry added = new Entry(pos, data);
+            added.dirty = true;
+            add(added);
+        }
+
+        synchronized void write(long pos, ByteBuffer source, long transaction) throws IOException {
+            Entry entry = entries.get(pos);
+            if (entry != null && entry.data.length == source.remaining()) {
+                source.get(entry.data);
+                entry.dirty = true;
+                entry.referenced = true;
+                entry.transaction = transaction;
+                return;
+            }
+            if (entry != null)
+                remove(entry);
+            Entry added = new Entry(pos, new byte[source.remaining()]);
+            source.get(added.data);
+            added.dirty = true;
+            added.transaction = transaction;
+            add(added);
+        }
+
+        synchronized void writeRange(long pos, int size, int offset, ByteBuffer source, long transaction)
+                throws IOException {
+            Entry entry = entries.get(pos);
+            if (entry != null && entry.data.length == size) {
+                source.get(entry.data, offset, source.remaining());
+                entry.dirty = true;
+                entry.referenced = true;
+                entry.transaction = transaction;
+                return;
+            }
+            if (entry != null)
+                remove(entry);
+            Entry added = new Entry(pos, new byte[size]);
+            storage.read(pos, ByteBuffer.wrap(added.data));
+            source.get(added.data, offset, source.remaining());
+            added.dirty = true;
+            added.transaction = transaction;
+            add(added);
+        }
+
+        synchronized void readRange(long pos, int size, int offset, ByteBuffer target) throws IOException {
+            Entry entry = entries.get(pos);
+            if (entry != null && entry.data.length == size) {
+                hits.incrementAndGet();
+                entry.referenced = true;
+                target.put(entry.data, offset, target.remaining());
+                return;
+            }
+            misses.incrementAndGet();
+            if (entry != null)
+                remove(entry);
+            byte[] data = new byte[size];
+            storage.read(pos, ByteBuffer.wrap(data));
+            target.put(data, offset, target.remaining());
+            add(new Entry(pos, data));
+        }
+
+        synchronized void writeRange(long pos, int size, int offset, ByteBuffer source) throws IOException {
+            Entry entry = entries.get(pos);
+            if (entry != null && entry.data.length == size) {
+                source.get(entry.data, offset, source.remaining());
+                entry.dirty = true;
+                entry.referenced = true;
+                return;
+            }
+            if (entry != null)
+                remove(entry);
+            //the rest of the image is read from the storage, so writes beyond the end go through
+            if (size > capacity || pos + size > storage.size()) {
+                storage.write(pos + offset, source);
+                return;
+            }
+            Entry added = new Entry(pos, new byte[size]);
+            storage.read(pos, ByteBuffer.wrap(added.data));
+            source.get(added.data, offset, source.remaining());
+            added.dirty = true;
+            add(added);
+        }
+
+        synchronized void pin(long pos, long transaction) {
+            Entry entry = entries.get(pos);
+            if (entry != null && entry.transaction == PENDING)
+                entry.transaction = transaction;
+        }
+
+        synchronized void readPrefix(long pos, ByteBuffer target) throws IOException {
+            Entry entry = entries.get(pos);
+            if (entry != null && entry.data.length >= target.remaining()) {
+                hits.incrementAndGet();
+                target.put(entry.data, 0, target.remaining());
+                return;
+            }
+            misses.incrementAndGet();
+            if (entry != null)
+                remove(entry);
+            storage.read(pos, target);
+        }
+
+        synchronized void writePrefix(long pos, ByteBuffer source) throws IOException {
+            Entry entry = entries.get(pos);
+            if (entry != null && entry.data.length >= source.remaining()) {
+                source.get(entry.data, 0, source.remaining());
+                entry.dirty = true;
+                return;
+            }
+            if (entry != null)
+                remove(entry);
+            storage.write(pos, source);
+        }
+
+        synchronized void flush() throws IOException {
+            for (Entry entry : clock) {
+                writeBack(entry);
+            }
+        }
+
+        synchronized long getUsed() {
+            return used;
+        }
+
+        private void add(Entry entry) throws IOException {
+            if (entry.data.length > capacity && !isPinned(entry)) {
+                writeBack(entry);
+                return;
+            }
+            //pinned images can not be evicted, the segment grows over its capacity until they are durable
+            while (used + entry.data.length > capacity && evict()) {
+            }
+            entries.put(entry.pos, entry);
+            entry.slot = clock.size();
+            clock.add(entry);
+            used += entry.data.length;
+        }
+
+        private boolean evict() throws IOException {
+            for (int i = 0; i < 2 * clock.size(); i++) {
+                if (hand >= clock.size())
+                    hand = 0;
+                Entry entry = clock.get(hand);
+                if (entry.referenced) {
+                    entry.referenced = false;
+                    hand++;
+                } else if (isPinned(entry)) {
+                    hand++;
+                } else {
+                    remove(entry);
+                    evictions.incrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isPinned(Entry entry) {
+            return entry.dirty && entry.transaction > durable;
+        }
+
+        private void remove(Entry entry) throws IOException {
+            if (isPinned(entry))
+                throw new IllegalStateException("Image at " + entry.pos + " is not durable yet.");
+            writeBack(entry);
+            Entry last = clock.remove(clock.size() - 1);
+            if (last != entry) {
+                last.slot = entry.slot;
+                clock.set(entry.slot, last);
+            }
+            entries.remove(entry.pos);
+            used -= entry.data.length;
+        }
+
+        private void writeBack(Entry entry) throws IOException {
+            if (entry.dirty && !isPinned(entry)) {
+                storage.write(entry.pos, ByteBuffer.wrap(entry.data));
+                entry.dirty = false;
+                writeBacks.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package fileSystem.core.structure.base;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight over block bytes, fields are read at fixed offsets without copying.
+ * Instance is reused by the reading thread and valid until its next block view read.
+ */
+public class BlockView {
+    static final int NEXT_DATA_BLOCK = 0;
+    static final int SIZE = 8;
+    static final int DATA = Constants.BLOCK_HEADER_SIZE;
+
+    final ByteBuffer buffer;
+    long curPos = -1;
+
+    BlockView(int blockSize) {
+        buffer = ByteBuffer.allocate(blockSize);
+    }
+
+    public long getCurPos() {
+        return curPos;
+    }
+
+    public long getNextDataBlock() {
+        return buffer.getLong(NEXT_DATA_BLOCK);
+    }
+
+    public int getSize() {
+        return buffer.getInt(SIZE);
+    }
+
+    /**
+     * @return int at the offset of the data
+     */
+    public int getDataInt(int offset) {
+        return buffer.getInt(DATA + offset);
+    }
+
+    public long getDataLong(int offset) {
+        return buffer.getLong(DATA + offset);
+    }
+
+    public short getDataShort(int offset) {
+        return buffer.getShort(DATA + offset);
+    }
+
+    /**
+     * @return true if data at the offset equals the bytes
+     */
+    public boolean dataEquals(int offset, byte[] bytes) {
+        byte[] array = buffer.array();
+        int start = DATA + offset;
+        for (int i = 0; i < bytes.length; i++) {
+            if (array[start + i] != bytes[i])
+                return false;
+        }
+        return true;
+    }
+
+    public void copyData(byte[] target, int offset, int length) {
+        System.arraycopy(buffer.array(), DATA, target, offset, length);
+    }
+
+    /**
+     * Puts data from the offset to the target.
+     */
+    public void copyData(int offset, ByteBuffer target, int length) {
+        target.put(buffer.array(), DATA + offset, length);
+    }
+
+    public void writeData(OutputStream stream) throws IOException {
+        stream.write(buffer.array(), DATA, getSize());
+    }
+}
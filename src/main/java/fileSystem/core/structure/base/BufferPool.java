@@ -0,0 +1,55 @@
+package fileSystem.core.structure.base;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Thread local pool of direct buffers for reading and writing base structure.
+ */
+public class BufferPool {
+    private static final int MAX_BUFFERS_PER_THREAD = 4;
+
+    private final int bufferSize;
+    private final boolean pooled;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>> buffers = new ThreadLocal<ArrayDeque<ByteBuffer>>() {
+        @Override
+        protected ArrayDeque<ByteBuffer> initialValue() {
+            return new ArrayDeque<>(MAX_BUFFERS_PER_THREAD);
+        }
+    };
+
+    /**
+     * @param bufferSize size of pooled buffers, bigger requests are allocated
+     * @param pooled     false makes every borrow allocate a new heap buffer
+     */
+    public BufferPool(int bufferSize, boolean pooled) {
+        this.bufferSize = bufferSize;
+        this.pooled = pooled;
+    }
+
+    /**
+     * @return cleared buffer with limit set to size, has to be released after use
+     */
+    public ByteBuffer borrow(int size) {
+        if (!pooled || size > bufferSize)
+            return ByteBuffer.allocate(size);
+        ByteBuffer buffer = buffers.get().poll();
+        if (buffer == null)
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (!pooled || !buffer.isDirect() || buffer.capacity() != bufferSize)
+            return;
+        ArrayDeque<ByteBuffer> free = buffers.get();
+        if (free.size() < MAX_BUFFERS_PER_THREAD)
+            free.push(buffer);
+    }
+
+    public boolean isPooled() {
+        return pooled;
+    }
+}
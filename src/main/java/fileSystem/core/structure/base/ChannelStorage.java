@@ -0,0 +1,71 @@
+package fileSystem.core.structure.base;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Storage over a seekable channel, every operation is serialized by the channel monitor.
+ */
+public class ChannelStorage implements Storage {
+    private final SeekableByteChannel channel;
+
+    public ChannelStorage(SeekableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void read(long pos, ByteBuffer target) throws IOException {
+        synchronized (channel) {
+            channel.position(pos);
+            channel.read(target);
+        }
+    }
+
+    @Override
+    public void write(long pos, ByteBuffer source) throws IOException {
+        synchronized (channel) {
+            channel.position(pos);
+            channel.write(source);
+        }
+    }
+
+    @Override
+    public long append(ByteBuffer source) throws IOException {
+        synchronized (channel) {
+            long pos = channel.size();
+            channel.position(pos);
+            channel.write(source);
+            return pos;
+        }
+    }
+
+    @Override
+    public long size() throws IOException {
+        synchronized (channel) {
+            return channel.size();
+        }
+    }
+
+    @Override
+    public void extend(long newSize) throws IOException {
+        synchronized (channel) {
+            if (channel.size() >= newSize)
+                return;
+            channel.position(newSize - 1);
+            channel.write(ByteBuffer.allocate(1));
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        if (channel instanceof FileChannel)
+            ((FileChannel) channel).force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,7 +1,7 @@
 package fileSystem.core.structure.base;
 
 /**
- * Some constants - should be configurable
+ * Sizes of records of images of format version 1, newer images store their sizes in the header, see ImageFormat.
  */
 public class Constants {
     public static final int HEADER_POS = 0;
@@ -9,6 +9,9 @@ public class Constants {
 
     public static final int BLOCK_SIZE = 1024; //in bytes
     public static final int BLOCK_DATA_SIZE = 512; //in bytes
+    public static final int BLOCK_HEADER_SIZE = 8 + 4; //in bytes, next data block and size
 
     public static final int INODE_SIZE = 1024; //in bytes
+
+    static final byte[] PADDING = new byte[ImageFormat.MAX_BLOCK_SIZE]; //zeros for unused part of records
 }
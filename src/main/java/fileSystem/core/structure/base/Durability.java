@@ -0,0 +1,27 @@
+package fileSystem.core.structure.base;
+
+/**
+ * Policies of forcing changes to the disk, from the fastest to the safest.
+ */
+public enum Durability {
+    /**
+     * Image is never forced, changes reach the disk when the operating system writes them.
+     */
+    NONE,
+    /**
+     * Image is forced when the file system is closed.
+     */
+    ON_CLOSE,
+    /**
+     * Image is forced every force interval and on close, the last interval of changes can be lost.
+     */
+    PERIODIC,
+    /**
+     * Image is forced after every create, delete and write before it returns.
+     */
+    PER_OPERATION,
+    /**
+     * Changes are forced to the journal before an operation returns, concurrent operations share one force.
+     */
+    GROUP_COMMIT
+}
@@ -0,0 +1,166 @@
+package fileSystem.core.structure.base;
+
+import java.util.BitSet;
+
+/**
+ * In-memory bitmap of free records of one allocation group. Not thread safe, SpaceAllocator locks the group.
+ * Blocks, iNodes of version 1 and iNode tables have the size of a record, so they share record slots.
+ */
+class FreeSpaceMap {
+    private final ImageFormat format;
+    private final int first;
+    private final BitSet free;
+    private int count;
+    private int hint;
+
+    /**
+     * @param first index of the first record slot of the group in the image
+     * @param count count of record slots of the group which are in the image
+     */
+    FreeSpaceMap(ImageFormat format, int first, int count) {
+        this(format, first, count, new BitSet());
+    }
+
+    private FreeSpaceMap(ImageFormat format, int first, int count, BitSet free) {
+        this.format = format;
+        this.first = first;
+        this.count = count;
+        this.free = free;
+    }
+
+    /**
+     * @return group map of the slots [first, first + count) of the whole image bitmap
+     */
+    static FreeSpaceMap of(ImageFormat format, BitSet image, int first, int count) {
+        return new FreeSpaceMap(format, first, count, image.get(first, first + count));
+    }
+
+    int getFirst() {
+        return first;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getFreeCount() {
+        return free.cardinality();
+    }
+
+    boolean isFree(long pos) {
+        return free.get(toLocal(pos));
+    }
+
+    /**
+     * @return position of the lowest free record marked as used or -1 if there is none
+     */
+    long allocate() {
+        int index = free.nextSetBit(hint);
+        if (index < 0) {
+            hint = count;
+            return -1;
+        }
+        free.clear(index);
+        hint = index + 1;
+        return format.toPos(first + index);
+    }
+
+    /**
+     * @return length of the free run at the end of the group
+     */
+    int getTailFree() {
+        if (count == 0 || !free.get(count - 1))
+            return 0;
+        return count - 1 - free.previousClearBit(count - 1);
+    }
+
+    /**
+     * Allocates the smallest free run of at least count records.
+     * @return number of allocated records (0 or count), written to target from offset
+     */
+    int allocateExtent(int count, long[] target, int offset) {
+        int best = -1;
+        int bestLength = Integer.MAX_VALUE;
+        for (int start = free.nextSetBit(hint); start >= 0; start = free.nextSetBit(start + 1)) {
+            int end = free.nextClearBit(start);
+            int length = end - start;
+            if (length >= count && length < bestLength) {
+                best = start;
+                bestLength = length;
+                if (length == count)
+                    break;
+            }
+            start = end;
+        }
+        if (best == -1)
+            return 0;
+        return take(best, count, target, offset);
+    }
+
+    /**
+     * Allocates up to count records of the largest free run.
+     * @return number of allocated records, written to target from offset
+     */
+    int allocateLargest(int count, long[] target, int offset) {
+        int largest = -1;
+        int largestLength = 0;
+        for (int start = free.nextSetBit(hint); start >= 0; start = free.nextSetBit(start + 1)) {
+            int end = free.nextClearBit(start);
+            if (end - start > largestLength) {
+                largest = start;
+                largestLength = end - start;
+            }
+            start = end;
+        }
+        if (largest == -1)
+            return 0;
+        return take(largest, Math.min(count, largestLength), target, offset);
+    }
+
+    private int take(int start, int length, long[] target, int offset) {
+        free.clear(start, start + length);
+        for (int i = 0; i < length; i++) {
+            target[offset + i] = format.toPos(first + start + i);
+        }
+        return length;
+    }
+
+    void markUsed(long pos) {
+        int index = toLocal(pos);
+        if (index >= count)
+            count = index + 1;
+        free.clear(index);
+    }
+
+    void markFree(long pos) {
+        int index = toLocal(pos);
+        if (index >= count)
+            count = index + 1;
+        free.set(index);
+        if (index < hint)
+            hint = index;
+    }
+
+    /**
+     * Adds records appended to the image as free ones.
+     */
+    void extend(int newCount) {
+        if (newCount <= count)
+            return;
+        free.set(count, newCount);
+        count = newCount;
+    }
+
+    /**
+     * Sets bits of free records of the group in the whole image bitmap.
+     */
+    void copyTo(BitSet image) {
+        for (int i = free.nextSetBit(0); i >= 0; i = free.nextSetBit(i + 1)) {
+            image.set(first + i);
+        }
+    }
+
+    private int toLocal(long pos) {
+        return (int) (format.toIndex(pos) - first);
+    }
+}
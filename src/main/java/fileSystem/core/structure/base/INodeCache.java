@@ -0,0 +1,75 @@
+package fileSystem.core.structure.base;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of decoded iNodes by position with LRU eviction.
+ * Split into independently locked segments by position, callers get copies of cached iNodes.
+ */
+public class INodeCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final SegmentedLru<Long, SimpleINode> iNodes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity max count of cached iNodes
+     */
+    public INodeCache(int capacity) {
+        this.iNodes = new SegmentedLru<>(capacity);
+    }
+
+    /**
+     * @return lock of the segment of the position, a miss is loaded and put under it so no stale iNode is cached
+     */
+    Object lockOf(long pos) {
+        return iNodes.lockOf(pos);
+    }
+
+    /**
+     * @return cached iNode which must not be changed or null
+     */
+    SimpleINode get(long pos) {
+        SimpleINode iNode = iNodes.get(pos);
+        if (iNode != null)
+            hits.incrementAndGet();
+        else
+            misses.incrementAndGet();
+        return iNode;
+    }
+
+    void put(SimpleINode iNode) {
+        iNodes.put(iNode.getCurPos(), new SimpleINode(iNode));
+    }
+
+    /**
+     * Forgets the iNode, its record is free and can become a block.
+     */
+    public void remove(long pos) {
+        iNodes.remove(pos);
+    }
+
+    public int getCapacity() {
+        return iNodes.getCapacity();
+    }
+
+    public int getSize() {
+        return iNodes.getSize();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "INodeCache{size=" + getSize() + ", capacity=" + getCapacity() + ", hits=" + getHits() +
+                ", misses=" + getMisses() + "}";
+    }
+}
@@ -0,0 +1,51 @@
+package fileSystem.core.structure.base;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight over iNode bytes, fields are read at fixed offsets without copying.
+ * Instance is reused by the reading thread and valid until its next iNode view read.
+ */
+public class INodeView {
+    static final int NEXT_FREE_INODE = 0;
+    static final int TOTAL_SIZE = 8;
+    static final int FIRST_DATA_BLOCK = 16;
+    static final int LAST_DATA_BLOCK = 24;
+    static final int TIME_STAMP = 32;
+    static final int IS_DIRECTORY = 40;
+
+    final ByteBuffer buffer;
+    long curPos = -1;
+
+    INodeView(int iNodeSize) {
+        buffer = ByteBuffer.allocate(iNodeSize);
+    }
+
+    public long getCurPos() {
+        return curPos;
+    }
+
+    public long getNextFreeINode() {
+        return buffer.getLong(NEXT_FREE_INODE);
+    }
+
+    public long getTotalSize() {
+        return buffer.getLong(TOTAL_SIZE);
+    }
+
+    public long getFirstDataBlock() {
+        return buffer.getLong(FIRST_DATA_BLOCK);
+    }
+
+    public long getLastDataBlock() {
+        return buffer.getLong(LAST_DATA_BLOCK);
+    }
+
+    public long getTimeStamp() {
+        return buffer.getLong(TIME_STAMP);
+    }
+
+    public boolean isDirectory() {
+        return buffer.get(IS_DIRECTORY) == 1;
+    }
+}
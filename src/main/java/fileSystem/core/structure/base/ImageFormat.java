@@ -0,0 +1,190 @@
+package fileSystem.core.structure.base;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sizes of records of an image, stored in its header.
+ * Version 1 is the layout of images written before sizes were stored: blocks of Constants.BLOCK_SIZE with
+ * Constants.BLOCK_DATA_SIZE of data and every iNode in a record of its own. Since version 2 data of a block is
+ * the whole block but its header and iNodes are packed into iNode table blocks, records start after the first block.
+ */
+public class ImageFormat {
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+    //marks the header of version 2 and later, images of version 1 have the root iNode here
+    static final int MAGIC = 0x53465332;
+    static final int MAGIC_POS = 4 * 8;
+    private static final int HEADER_SIZE = 64; //in bytes, since version 2
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096; //in bytes
+    public static final int DEFAULT_INODE_SIZE = 512; //in bytes
+    public static final int MIN_BLOCK_SIZE = 1024; //in bytes
+    public static final int MAX_BLOCK_SIZE = 64 * 1024; //in bytes
+    public static final int MIN_INODE_SIZE = 128; //in bytes
+
+    public static final ImageFormat V1 = new ImageFormat(VERSION_1, Constants.BLOCK_SIZE, Constants.BLOCK_DATA_SIZE,
+            Constants.INODE_SIZE);
+
+    private final int version;
+    private final int blockSize;
+    private final int blockDataSize;
+    private final int iNodeSize;
+
+    /**
+     * Format of the current version.
+     *
+     * @param blockSize size of blocks in bytes, a power of two from MIN_BLOCK_SIZE to MAX_BLOCK_SIZE
+     * @param iNodeSize size of iNodes in bytes, a power of two from MIN_INODE_SIZE to blockSize
+     */
+    public ImageFormat(int blockSize, int iNodeSize) {
+        this(VERSION_2, blockSize, blockSize - Constants.BLOCK_HEADER_SIZE, iNodeSize);
+        if (Integer.bitCount(blockSize) != 1 || blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size has to be a power of two from " + MIN_BLOCK_SIZE +
+                    " to " + MAX_BLOCK_SIZE + ": " + blockSize);
+        if (Integer.bitCount(iNodeSize) != 1 || iNodeSize < MIN_INODE_SIZE || iNodeSize > blockSize)
+            throw new IllegalArgumentException("INode size has to be a power of two from " + MIN_INODE_SIZE +
+                    " to the block size: " + iNodeSize);
+    }
+
+    private ImageFormat(int version, int blockSize, int blockDataSize, int iNodeSize) {
+        this.version = version;
+        this.blockSize = blockSize;
+        this.blockDataSize = blockDataSize;
+        this.iNodeSize = iNodeSize;
+    }
+
+    /**
+     * @return format stored in the header of the image, V1 if the header has no format
+     */
+    public static ImageFormat read(Storage storage) throws IOException {
+        if (storage.size() < HEADER_SIZE)
+            return V1;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        storage.read(Constants.HEADER_POS, buffer);
+        buffer.position(MAGIC_POS);
+        return read(buffer);
+    }
+
+    /**
+     * Reads the format stored after the magic at the position of the buffer.
+     *
+     * @return stored format, V1 if there is no magic
+     */
+    static ImageFormat read(ByteBuffer buffer) {
+        if (buffer.remaining() < 5 * 4 || buffer.getInt() != MAGIC)
+            return V1;
+        int version = buffer.getInt();
+        int blockSize = buffer.getInt();
+        int blockDataSize = buffer.getInt();
+        int iNodeSize = buffer.getInt();
+        if (version != VERSION_2)
+            throw new IllegalStateException("Unknown image format version: " + version);
+        ImageFormat format = new ImageFormat(blockSize, iNodeSize);
+        if (format.blockDataSize != blockDataSize)
+            throw new IllegalStateException("Unknown block data size: " + blockDataSize);
+        return format;
+    }
+
+    /**
+     * Puts the magic and the format, nothing is put for version 1.
+     */
+    void writeTo(ByteBuffer buffer) {
+        if (version == VERSION_1)
+            return;
+        buffer.putInt(MAGIC);
+        buffer.putInt(version);
+        buffer.putInt(blockSize);
+        buffer.putInt(blockDataSize);
+        buffer.putInt(iNodeSize);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return size of blocks in bytes, records of the image have this size
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return size of data of a block in bytes
+     */
+    public int getBlockDataSize() {
+        return blockDataSize;
+    }
+
+    public int getINodeSize() {
+        return iNodeSize;
+    }
+
+    /**
+     * @return count of iNodes in an iNode table block, 1 for version 1 where an iNode takes a record
+     */
+    public int getINodesPerBlock() {
+        return blockSize / iNodeSize;
+    }
+
+    public boolean hasINodeTables() {
+        return version >= VERSION_2;
+    }
+
+    public int getHeaderSize() {
+        return version == VERSION_1 ? Constants.HEADER_SIZE : HEADER_SIZE;
+    }
+
+    /**
+     * @return position of the first record
+     */
+    public long getRecordsStart() {
+        return version == VERSION_1 ? Constants.HEADER_SIZE : blockSize;
+    }
+
+    /**
+     * @return index of the record containing the position
+     */
+    public long toIndex(long pos) {
+        return (pos - getRecordsStart()) / blockSize;
+    }
+
+    public long toPos(long index) {
+        return getRecordsStart() + index * blockSize;
+    }
+
+    /**
+     * @return position of the record containing the position, the iNode table block of an iNode
+     */
+    public long recordOf(long pos) {
+        return toPos(toIndex(pos));
+    }
+
+    /**
+     * @return count of records which fit into given size of the image
+     */
+    public long countOf(long imageSize) {
+        return Math.max(0, imageSize - getRecordsStart()) / blockSize;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ImageFormat))
+            return false;
+        ImageFormat format = (ImageFormat) obj;
+        return version == format.version && blockSize == format.blockSize && blockDataSize == format.blockDataSize
+                && iNodeSize == format.iNodeSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((version * 31 + blockSize) * 31 + blockDataSize) * 31 + iNodeSize;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageFormat{version=" + version + ", blockSize=" + blockSize + ", blockDataSize=" + blockDataSize +
+                ", iNodeSize=" + iNodeSize + "}";
+    }
+}
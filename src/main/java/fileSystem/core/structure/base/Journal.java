@@ -0,0 +1,210 @@
+package fileSystem.core.structure.base;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of record images, every transaction is one log record.
+ * Transactions committed at the same time are written and forced together (group commit).
+ * Log record: length int, session long, transaction long, count int, (pos long, size int, image) * count, crc long.
+ */
+public class Journal implements AutoCloseable {
+    public static final long DEFAULT_CHECKPOINT_SIZE = 16 * 1024 * 1024; //in bytes
+    private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 4 + 8;
+
+    private final Storage log;
+    private final Random random = new Random();
+    private final Object lock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private BlockCache cache;
+    private long session = random.nextLong();
+    private long appended;
+    private long durable;
+    private long end;
+    private boolean writing;
+
+    public Journal(Storage log) {
+        this.log = log;
+    }
+
+    /**
+     * Replays transactions of the log to the image and empties the log.
+     *
+     * @return count of replayed transactions
+     */
+    public static int recover(Storage log, Storage image) throws IOException {
+        int count = 0;
+        long pos = 0;
+        long session = 0;
+        long transaction = 0;
+        long size = log.size();
+        while (pos + 4 <= size) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            log.read(pos, length);
+            length.flip();
+            int recordLength = length.getInt();
+            if (recordLength < RECORD_OVERHEAD || pos + recordLength > size)
+                break;
+            ByteBuffer record = ByteBuffer.allocate(recordLength);
+            log.read(pos, record);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, recordLength - 8);
+            record.position(recordLength - 8);
+            if (record.getLong() != crc.getValue())
+                break;
+            record.position(4);
+            long recordSession = record.getLong();
+            long recordTransaction = record.getLong();
+            //records left from previous sessions or before the last reset
+            if (count > 0 && (recordSession != session || recordTransaction != transaction + 1))
+                break;
+            session = recordSession;
+            transaction = recordTransaction;
+            int images = record.getInt();
+            for (int i = 0; i < images; i++) {
+                long imagePos = record.getLong();
+                int imageSize = record.getInt();
+                record.limit(record.position() + imageSize);
+                image.write(imagePos, record);
+                record.limit(recordLength);
+            }
+            count++;
+            pos += recordLength;
+        }
+        if (count > 0)
+            image.force();
+        if (size > 0)
+            clear(log);
+        return count;
+    }
+
+    private static void clear(Storage log) throws IOException {
+        log.write(0, ByteBuffer.allocate(4));
+        log.force();
+    }
+
+    /**
+     * Cache is told which transactions are durable, so their images can be written back.
+     */
+    public void attach(BlockCache cache) {
+        synchronized (lock) {
+            this.cache = cache;
+            cache.setDurable(durable);
+        }
+    }
+
+    /**
+     * Adds transaction with given record images to the log, it is durable after commit.
+     *
+     * @return transaction
+     */
+    public long append(List<Long> positions, List<byte[]> images) {
+        int length = RECORD_OVERHEAD;
+        for (byte[] image : images) {
+            length += 8 + 4 + image.length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        synchronized (lock) {
+            long transaction = ++appended;
+            record.putInt(length);
+            record.putLong(session);
+            record.putLong(transaction);
+            record.putInt(images.size());
+            for (int i = 0; i < images.size(); i++) {
+                record.putLong(positions.get(i));
+                record.putInt(images.get(i).length);
+                record.put(images.get(i));
+            }
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, length - 8);
+            record.putLong(crc.getValue());
+            pending.write(record.array(), 0, length);
+            return transaction;
+        }
+    }
+
+    /**
+     * Waits until transaction is durable. One of waiting threads writes and forces all appended transactions,
+     * if it fails they stay pending and are written by the next commit.
+     */
+    public void commit(long transaction) throws IOException {
+        byte[] batch;
+        long last;
+        long offset;
+        synchronized (lock) {
+            while (durable < transaction && writing) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (durable >= transaction)
+                return;
+            writing = true;
+            batch = pending.toByteArray();
+            last = appended;
+            offset = end;
+        }
+        boolean written = false;
+        try {
+            log.write(offset, ByteBuffer.wrap(batch));
+            log.force();
+            written = true;
+        } finally {
+            synchronized (lock) {
+                writing = false;
+                if (written) {
+                    //transactions appended while the batch was written stay pending
+                    byte[] appendedSince = pending.toByteArray();
+                    pending = new ByteArrayOutputStream();
+                    pending.write(appendedSince, batch.length, appendedSince.length - batch.length);
+                    end += batch.length;
+                    durable = last;
+                    if (cache != null)
+                        cache.setDurable(last);
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    public void commitAll() throws IOException {
+        long transaction;
+        synchronized (lock) {
+            transaction = appended;
+        }
+        commit(transaction);
+    }
+
+    /**
+     * @return bytes written and waiting to be written to the log
+     */
+    public long size() {
+        synchronized (lock) {
+            return end + pending.size();
+        }
+    }
+
+    /**
+     * Empties the log, all its transactions have to be applied to the image and forced before.
+     */
+    public void reset() throws IOException {
+        commitAll();
+        synchronized (lock) {
+            clear(log);
+            end = 0;
+            session = random.nextLong();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+}
@@ -0,0 +1,133 @@
+package fileSystem.core.structure.base;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Storage over the image mapped into memory by fixed size segments.
+ * Reads and writes are plain memory copies, only growing of the mapping is synchronized.
+ */
+public class MappedStorage implements Storage {
+    public static final int SEGMENT_SIZE = 64 * 1024 * 1024; //in bytes
+
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final AtomicLong size;
+    private volatile MappedByteBuffer[] segments;
+
+    public MappedStorage(FileChannel channel) throws IOException {
+        this(channel, SEGMENT_SIZE);
+    }
+
+    public MappedStorage(FileChannel channel, int segmentSize) throws IOException {
+        this.channel = channel;
+        this.segmentSize = segmentSize;
+        this.size = new AtomicLong(channel.size());
+        this.segments = new MappedByteBuffer[0];
+        ensureMapped(size.get());
+    }
+
+    @Override
+    public void read(long pos, ByteBuffer target) throws IOException {
+        MappedByteBuffer[] mapped = segments;
+        while (target.hasRemaining()) {
+            ByteBuffer segment = segment(mapped, pos, target.remaining());
+            pos += segment.remaining();
+            target.put(segment);
+        }
+    }
+
+    @Override
+    public void write(long pos, ByteBuffer source) throws IOException {
+        ensureMapped(pos + source.remaining());
+        MappedByteBuffer[] mapped = segments;
+        while (source.hasRemaining()) {
+            ByteBuffer segment = segment(mapped, pos, source.remaining());
+            int length = segment.remaining();
+            int limit = source.limit();
+            source.limit(source.position() + length);
+            segment.put(source);
+            source.limit(limit);
+            pos += length;
+        }
+        long end = pos;
+        long current = size.get();
+        while (end > current && !size.compareAndSet(current, end)) {
+            current = size.get();
+        }
+    }
+
+    @Override
+    public long append(ByteBuffer source) throws IOException {
+        long pos = size.getAndAdd(source.remaining());
+        write(pos, source);
+        return pos;
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    @Override
+    public void extend(long newSize) throws IOException {
+        ensureMapped(newSize);
+        long current = size.get();
+        while (current < newSize && !size.compareAndSet(current, newSize)) {
+            current = size.get();
+        }
+    }
+
+    private ByteBuffer segment(MappedByteBuffer[] mapped, long pos, int length) throws EOFException {
+        int index = (int) (pos / segmentSize);
+        if (index >= mapped.length)
+            throw new EOFException("Position " + pos + " is out of the mapped image.");
+        int offset = (int) (pos % segmentSize);
+        ByteBuffer segment = mapped[index].duplicate();
+        segment.position(offset);
+        segment.limit(offset + Math.min(length, segmentSize - offset));
+        return segment;
+    }
+
+    private void ensureMapped(long end) throws IOException {
+        if (end <= (long) segments.length * segmentSize)
+            return;
+        synchronized (this) {
+            MappedByteBuffer[] mapped = segments;
+            int count = (int) ((end + segmentSize - 1) / segmentSize);
+            if (count <= mapped.length)
+                return;
+            MappedByteBuffer[] grown = Arrays.copyOf(mapped, count);
+            for (int i = mapped.length; i < count; i++) {
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentSize, segmentSize);
+            }
+            segments = grown;
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            segments = new MappedByteBuffer[0];
+            //mapping extends the file by whole segments, cut it back to the written part
+            channel.truncate(size.get());
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package fileSystem.core.structure.base;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Storage over a file channel using absolute position reads and writes (pread/pwrite).
+ * Independent operations run in parallel, appends only share the end of file counter.
+ */
+public class PositionalStorage implements Storage {
+    private final FileChannel channel;
+    private final AtomicLong size;
+
+    public PositionalStorage(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = new AtomicLong(channel.size());
+    }
+
+    @Override
+    public void read(long pos, ByteBuffer target) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, pos);
+            if (read < 0)
+                throw new EOFException("Position " + pos + " is out of the image.");
+            pos += read;
+        }
+    }
+
+    @Override
+    public void write(long pos, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            pos += channel.write(source, pos);
+        }
+        long current = size.get();
+        while (pos > current && !size.compareAndSet(current, pos)) {
+            current = size.get();
+        }
+    }
+
+    @Override
+    public long append(ByteBuffer source) throws IOException {
+        long pos = size.getAndAdd(source.remaining());
+        write(pos, source);
+        return pos;
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    @Override
+    public void extend(long newSize) throws IOException {
+        long current = size.get();
+        while (current < newSize) {
+            //range is reserved first, so appends can not land in it
+            if (size.compareAndSet(current, newSize)) {
+                channel.write(ByteBuffer.allocate(1), newSize - 1);
+                return;
+            }
+            current = size.get();
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
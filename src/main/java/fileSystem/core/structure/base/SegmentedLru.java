@@ -0,0 +1,117 @@
+package fileSystem.core.structure.base;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bounded map with LRU eviction, split into independently locked segments by key hash.
+ * Shared by the caches of decoded structures, which keep their own values and invalidation on top of it.
+ */
+public class SegmentedLru<K, V> {
+    private static final int SEGMENT_BITS = 4;
+
+    private final int capacity;
+    private final Segment<K, V>[] segments;
+
+    /**
+     * @param capacity max count of entries, split evenly between segments
+     */
+    public SegmentedLru(int capacity) {
+        this.capacity = capacity;
+        this.segments = newSegments(1 << SEGMENT_BITS);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment<>(Math.max(1, capacity >> SEGMENT_BITS));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Segment<K, V>[] newSegments(int count) {
+        return (Segment<K, V>[]) new Segment<?, ?>[count];
+    }
+
+    /**
+     * @return lock of the segment of the key, held by get, put and remove, so a caller can combine them
+     * with its own checks
+     */
+    public Object lockOf(K key) {
+        return segment(key);
+    }
+
+    /**
+     * @return value of the key or null, the key becomes the most recently used one
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Puts the value, evicting the least recently used entry of the segment if it is full.
+     */
+    public void put(K key, V value) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    public void remove(K key) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K, V> segment(K key) {
+        return segments[(key.hashCode() * 0x9E3779B9) >>> (32 - SEGMENT_BITS)];
+    }
+
+    /**
+     * Entries in access order, the least recently used one is evicted when there are more than capacity.
+     */
+    private static class Segment<K, V> {
+        private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacity;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        V get(K key) {
+            return entries.get(key);
+        }
+
+        void put(K key, V value) {
+            entries.put(key, value);
+            if (entries.size() > capacity) {
+                Iterator<K> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        void remove(K key) {
+            entries.remove(key);
+        }
+
+        int size() {
+            return entries.size();
+        }
+    }
+}
@@ -11,19 +11,19 @@ public class SimpleBlock {
     private long nextDataBlock;
     private int size;
 
-    SimpleBlock(ByteBuffer buffer, long curPos) {
+    SimpleBlock(ByteBuffer buffer, long curPos, int dataSize) {
         this.curPos = curPos;
         this.nextDataBlock = buffer.getLong();
         this.size = buffer.getInt();
-        this.data = new byte[Constants.BLOCK_DATA_SIZE];
+        this.data = new byte[dataSize];
         buffer.get(this.data);
     }
 
-    SimpleBlock(long curPos) {
+    SimpleBlock(long curPos, int dataSize) {
         this.curPos = curPos;
         this.nextDataBlock = -1;
         this.size = 0;
-        this.data = new byte[Constants.BLOCK_DATA_SIZE];
+        this.data = new byte[dataSize];
     }
 
     public byte[] getData() {
@@ -50,14 +50,11 @@ public class SimpleBlock {
         return size;
     }
 
-    public ByteBuffer toBuffer() {
-        ByteBuffer buffer = ByteBuffer.wrap(new byte[Constants.BLOCK_SIZE]);
+    public void writeTo(ByteBuffer buffer) {
         buffer.putLong(nextDataBlock);
         buffer.putInt(size);
-        //buffer.position(Constants.BLOCK_SIZE-Constants.BLOCK_DATA_SIZE);
         buffer.put(data);
-        buffer.rewind();
-        return buffer;
+        buffer.put(Constants.PADDING, 0, buffer.remaining());
     }
 
     @Override
@@ -3,31 +3,54 @@ package fileSystem.core.structure.base;
 import java.nio.ByteBuffer;
 
 /**
- * Contains main info about whole file system
+ * Contains main info about whole file system, since format version 2 also sizes of its records.
  */
 public class SimpleHeader {
+    final ImageFormat format;
     volatile long nextFreeINode;
     volatile long nextFreeBlock;
     volatile long rootINode;
+    //first block of the stored free space map, -1 (or 0 in old images) if it has to be rebuilt
+    volatile long freeSpaceMap;
 
     public SimpleHeader(long nextFreeINode, long nextFreeBlock, long rootINode) {
+        this(nextFreeINode, nextFreeBlock, rootINode, -1);
+    }
+
+    public SimpleHeader(long nextFreeINode, long nextFreeBlock, long rootINode, long freeSpaceMap) {
+        this(ImageFormat.V1, nextFreeINode, nextFreeBlock, rootINode, freeSpaceMap);
+    }
+
+    public SimpleHeader(ImageFormat format, long nextFreeINode, long nextFreeBlock, long rootINode, long freeSpaceMap) {
+        this.format = format;
         this.nextFreeINode = nextFreeINode;
         this.nextFreeBlock = nextFreeBlock;
         this.rootINode = rootINode;
+        this.freeSpaceMap = freeSpaceMap;
     }
 
     public SimpleHeader(ByteBuffer buffer) {
         nextFreeINode = buffer.getLong();
         nextFreeBlock = buffer.getLong();
         rootINode = buffer.getLong();
+        freeSpaceMap = buffer.getLong();
+        format = ImageFormat.read(buffer);
+    }
+
+    public ImageFormat getFormat() {
+        return format;
+    }
+
+    boolean hasFreeSpaceMap() {
+        return freeSpaceMap > 0;
     }
 
-    public ByteBuffer toBuffer() {
-        ByteBuffer buffer = ByteBuffer.wrap(new byte[Constants.HEADER_SIZE]);
+    public void writeTo(ByteBuffer buffer) {
         buffer.putLong(nextFreeINode);
         buffer.putLong(nextFreeBlock);
         buffer.putLong(rootINode);
-        buffer.rewind();
-        return buffer;
+        buffer.putLong(freeSpaceMap);
+        format.writeTo(buffer);
+        buffer.put(Constants.PADDING, 0, buffer.remaining());
     }
 }
@@ -1,12 +1,26 @@
 package fileSystem.core.structure.base;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Contains main info about file or directory.
+ * Data blocks are chained by next data block pointers, with EXTENTS layout they are also listed as extents -
+ * runs of records following each other, so block k is found by a binary search. First extents are kept in
+ * the iNode record, the rest in a chain of extent blocks. With INLINE layout data is kept in the iNode record
+ * and there are no blocks.
  */
 public class SimpleINode {
+    public static final byte CHAINED = 0; //images written before extents have zeros here
+    public static final byte EXTENTS = 1;
+    public static final byte INLINE = 2;
 
+    private static final int EXTENT_SIZE = 8 + 4; //in bytes, start and length in blocks
+    private static final int FIXED_SIZE = 5 * 8 + 1 + 1 + 4 + 8; //in bytes, fields written before inline extents
+    static final int EXTENT_BLOCK = 5 * 8 + 1 + 1 + 4; //offset of the first extent block
+    private static final int INLINE_DATA = 5 * 8 + 1 + 1; //offset of inline data
+
+    private final ImageFormat format;
     private final long curPos;
     private long nextFreeINode;
     private long totalSize;
@@ -14,8 +28,18 @@ public class SimpleINode {
     private long lastDataBlock;
     private long timeStamp;
     public boolean isDirectory;
+    private byte layout;
+    private long[] extentStarts = new long[0];
+    private int[] extentLengths = new int[0];
+    private long[] extentFirsts = new long[0]; //index of the first block of the extent in the file
+    private int extentCount;
+    private int storedExtents; //count of extents in the image, more than inline ones are read from extent blocks
+    private long[] extentBlocks = new long[0];
+    private int changedExtent = Integer.MAX_VALUE; //first extent changed since the iNode was read or extents stored
+    private byte[] inlineData = new byte[0];
 
-    SimpleINode(long curPos, long timeStamp) {
+    SimpleINode(ImageFormat format, long curPos, long timeStamp) {
+        this.format = format;
         this.curPos = curPos;
         this.timeStamp = timeStamp;
         this.nextFreeINode = -1;
@@ -25,7 +49,20 @@ public class SimpleINode {
         this.isDirectory = false;
     }
 
-    SimpleINode(ByteBuffer buffer, long curPos) {
+    SimpleINode(SimpleINode iNode) {
+        this.format = iNode.format;
+        this.curPos = iNode.curPos;
+        this.nextFreeINode = iNode.nextFreeINode;
+        this.totalSize = iNode.totalSize;
+        this.firstDataBlock = iNode.firstDataBlock;
+        this.lastDataBlock = iNode.lastDataBlock;
+        this.timeStamp = iNode.timeStamp;
+        this.isDirectory = iNode.isDirectory;
+        copyLayout(iNode);
+    }
+
+    SimpleINode(ImageFormat format, ByteBuffer buffer, long curPos) {
+        this.format = format;
         this.curPos = curPos;
         this.nextFreeINode = buffer.getLong();
         this.totalSize = buffer.getLong();
@@ -33,12 +70,50 @@ public class SimpleINode {
         this.lastDataBlock = buffer.getLong();
         this.timeStamp = buffer.getLong();
         this.isDirectory = buffer.get() == 1;
+        this.layout = buffer.get();
+        if (layout == INLINE) {
+            inlineData = new byte[(int) Math.max(0, Math.min(totalSize, getInlineDataCapacity()))];
+            buffer.get(inlineData);
+            return;
+        }
+        if (layout != EXTENTS) {
+            layout = CHAINED;
+            return;
+        }
+        this.storedExtents = buffer.getInt();
+        buffer.getLong(); //first extent block, see EXTENT_BLOCK, extent blocks are recorded as they are read
+        int inline = Math.min(storedExtents, getInlineExtentCapacity());
+        for (int i = 0; i < inline; i++) {
+            appendExtent(buffer.getLong(), buffer.getInt());
+        }
+        changedExtent = Integer.MAX_VALUE;
     }
 
     public long getCurPos() {
         return curPos;
     }
 
+    /**
+     * @return count of extents kept in the iNode record
+     */
+    public int getInlineExtentCapacity() {
+        return (format.getINodeSize() - FIXED_SIZE) / EXTENT_SIZE;
+    }
+
+    /**
+     * @return count of extents kept in an extent block
+     */
+    public int getExtentBlockCapacity() {
+        return format.getBlockDataSize() / EXTENT_SIZE;
+    }
+
+    /**
+     * @return max size of data kept in the iNode record in bytes
+     */
+    public int getInlineDataCapacity() {
+        return format.getINodeSize() - INLINE_DATA;
+    }
+
     public void setNextFreeINode(long nextFreeINode) {
         this.nextFreeINode = nextFreeINode;
     }
@@ -47,6 +122,10 @@ public class SimpleINode {
         return nextFreeINode;
     }
 
+    public void setTotalSize(long totalSize) {
+        this.totalSize = totalSize;
+    }
+
     public long getTotalSize() {
         return totalSize;
     }
@@ -76,8 +155,193 @@ public class SimpleINode {
     }
 
 
-    public ByteBuffer toBuffer() {
-        ByteBuffer buffer = ByteBuffer.wrap(new byte[Constants.INODE_SIZE]);
+    public byte getLayout() {
+        return layout;
+    }
+
+    public boolean hasExtents() {
+        return layout == EXTENTS;
+    }
+
+    public boolean hasInlineData() {
+        return layout == INLINE;
+    }
+
+    /**
+     * @return copy of the data kept in the iNode record
+     */
+    public byte[] getInlineData() {
+        return inlineData.clone();
+    }
+
+    /**
+     * Puts length bytes of the inline data starting at the offset to the buffer.
+     */
+    public void copyInlineData(int offset, ByteBuffer target, int length) {
+        target.put(inlineData, offset, length);
+    }
+
+    /**
+     * Keeps the data in the iNode record, the iNode gets INLINE layout and no blocks. Blocks are not freed.
+     */
+    public void setInlineData(byte[] data) {
+        if (data.length > getInlineDataCapacity())
+            throw new IllegalArgumentException("Inline data is too long: " + data.length);
+        clearLayout();
+        layout = INLINE;
+        inlineData = data.clone();
+        totalSize = data.length;
+        firstDataBlock = -1;
+        lastDataBlock = -1;
+    }
+
+    /**
+     * Takes data location, size and time stamp of the newer image of the same iNode.
+     */
+    public void refresh(SimpleINode iNode) {
+        firstDataBlock = iNode.firstDataBlock;
+        lastDataBlock = iNode.lastDataBlock;
+        timeStamp = iNode.timeStamp;
+        if (iNode.totalSize != -1)
+            totalSize = iNode.totalSize;
+        copyLayout(iNode);
+    }
+
+    private void copyLayout(SimpleINode iNode) {
+        layout = iNode.layout;
+        extentStarts = Arrays.copyOf(iNode.extentStarts, iNode.extentCount);
+        extentLengths = Arrays.copyOf(iNode.extentLengths, iNode.extentCount);
+        extentFirsts = Arrays.copyOf(iNode.extentFirsts, iNode.extentCount);
+        extentCount = iNode.extentCount;
+        storedExtents = iNode.storedExtents;
+        extentBlocks = iNode.extentBlocks.clone();
+        changedExtent = iNode.changedExtent;
+        inlineData = iNode.inlineData;
+    }
+
+    public int getExtentCount() {
+        return extentCount;
+    }
+
+    public long getExtentStart(int i) {
+        return extentStarts[i];
+    }
+
+    public int getExtentLength(int i) {
+        return extentLengths[i];
+    }
+
+    /**
+     * @return count of blocks listed by extents
+     */
+    public long getBlockCount() {
+        return extentCount == 0 ? 0 : extentFirsts[extentCount - 1] + extentLengths[extentCount - 1];
+    }
+
+    /**
+     * @return position of block k of the file or -1 if extents list fewer blocks
+     */
+    public long getBlock(long k) {
+        if (k < 0 || k >= getBlockCount())
+            return -1;
+        int low = 0;
+        int high = extentCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (extentFirsts[mid] <= k)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return extentStarts[low] + (k - extentFirsts[low]) * format.getBlockSize();
+    }
+
+    /**
+     * Lists the block after the blocks listed so far, the iNode gets EXTENTS layout.
+     */
+    public void addBlock(long pos) {
+        layout = EXTENTS;
+        int last = extentCount - 1;
+        if (last >= 0 && extentLengths[last] < Integer.MAX_VALUE
+                && pos == extentStarts[last] + (long) extentLengths[last] * format.getBlockSize()) {
+            extentLengths[last]++;
+            changedExtent = Math.min(changedExtent, last);
+            return;
+        }
+        appendExtent(pos, 1);
+    }
+
+    /**
+     * Forgets extents, extent blocks and inline data, the iNode gets CHAINED layout. Blocks are not freed.
+     */
+    public void clearLayout() {
+        layout = CHAINED;
+        inlineData = new byte[0];
+        extentCount = 0;
+        storedExtents = 0;
+        extentBlocks = new long[0];
+        changedExtent = Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return positions of blocks keeping extents which do not fit the iNode record, in chain order
+     */
+    public long[] getExtentBlocks() {
+        return extentBlocks;
+    }
+
+    /**
+     * @return first extent changed since the iNode was read or extents were stored,
+     * Integer.MAX_VALUE if there is none
+     */
+    public int getChangedExtent() {
+        return changedExtent;
+    }
+
+    /**
+     * Records that extents are stored to the given extent blocks.
+     */
+    public void setExtentBlocks(long[] extentBlocks) {
+        this.extentBlocks = extentBlocks;
+        this.storedExtents = extentCount;
+        this.changedExtent = Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return true if extents kept in extent blocks are not read yet
+     */
+    boolean hasMissingExtents() {
+        return extentCount < storedExtents;
+    }
+
+    /**
+     * Adds extents kept in the extent block, blocks are read in chain order.
+     */
+    void readExtents(SimpleBlock block) {
+        extentBlocks = Arrays.copyOf(extentBlocks, extentBlocks.length + 1);
+        extentBlocks[extentBlocks.length - 1] = block.getCurPos();
+        ByteBuffer data = ByteBuffer.wrap(block.getData(), 0, block.getSize());
+        while (data.remaining() >= EXTENT_SIZE && extentCount < storedExtents) {
+            appendExtent(data.getLong(), data.getInt());
+        }
+        changedExtent = Integer.MAX_VALUE;
+    }
+
+    private void appendExtent(long start, int length) {
+        if (extentCount == extentStarts.length) {
+            int capacity = Math.max(4, extentCount * 2);
+            extentStarts = Arrays.copyOf(extentStarts, capacity);
+            extentLengths = Arrays.copyOf(extentLengths, capacity);
+            extentFirsts = Arrays.copyOf(extentFirsts, capacity);
+        }
+        extentStarts[extentCount] = start;
+        extentLengths[extentCount] = length;
+        extentFirsts[extentCount] = getBlockCount();
+        changedExtent = Math.min(changedExtent, extentCount);
+        extentCount++;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
         buffer.putLong(nextFreeINode);
         buffer.putLong(totalSize);
         buffer.putLong(firstDataBlock);
@@ -87,8 +351,19 @@ public class SimpleINode {
             buffer.put((byte) 1);
         else
             buffer.put((byte) 0);
-        buffer.rewind();
-        return buffer;
+        buffer.put(layout);
+        if (layout == INLINE)
+            buffer.put(inlineData);
+        if (layout == EXTENTS) {
+            buffer.putInt(extentCount);
+            buffer.putLong(extentBlocks.length > 0 ? extentBlocks[0] : -1);
+            int inline = Math.min(extentCount, getInlineExtentCapacity());
+            for (int i = 0; i < inline; i++) {
+                buffer.putLong(extentStarts[i]);
+                buffer.putInt(extentLengths[i]);
+            }
+        }
+        buffer.put(Constants.PADDING, 0, buffer.remaining());
     }
 
     @Override
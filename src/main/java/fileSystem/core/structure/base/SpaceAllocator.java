@@ -1,89 +1,578 @@
 package fileSystem.core.structure.base;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Logic for allocating free blocks and nodes.
+ * The image is split into allocation groups of GROUP_SIZE records, each with its own FreeSpaceMap and lock,
+ * every thread starts searching in its own group. Allocating and freeing do no I/O unless the image has to grow,
+ * which it does by chunks of up to growthSize registered as free at once.
+ * The maps are stored on close and rebuilt if the image was not closed cleanly.
+ * Since format version 2 iNodes are packed into iNode table blocks, a table is taken as a record and given back
+ * when its last iNode is freed, tables with free slots are stored with the maps.
  */
 public class SpaceAllocator implements AutoCloseable {
+    public static final int GROUP_SIZE = 8192; //in records
+    public static final long DEFAULT_GROWTH_SIZE = 64 * 1024 * 1024; //in bytes
+
     private final BaseStructureReadWriter readWriter;
+    private final ImageFormat format;
     private final SimpleHeader header;
+    private final AllocationMode allocationMode;
+    private final long growthSize;
+    private final Object growLock = new Object();
+    private volatile FreeSpaceMap[] groups;
+    private final TreeMap<Long, BitSet> iNodeTables = new TreeMap<>(); //free slots of tables which have some
+    private long[] storedMap = new long[0];
+    private volatile boolean rebuilding;
 
     public SpaceAllocator(BaseStructureReadWriter readWriter, boolean createHeader) throws IOException {
+        this(readWriter, createHeader, AllocationMode.EXTENT, DEFAULT_GROWTH_SIZE);
+    }
+
+    public SpaceAllocator(BaseStructureReadWriter readWriter, boolean createHeader, AllocationMode allocationMode,
+                          long growthSize) throws IOException {
         this.readWriter = readWriter;
-        if (createHeader)
+        this.format = readWriter.getFormat();
+        this.allocationMode = allocationMode;
+        this.growthSize = growthSize;
+        readWriter.setAllocator(this);
+        if (createHeader) {
             this.header = createHeader(readWriter);
-        else
+            this.groups = createGroups(new BitSet(), format.countOf(readWriter.size()));
+        } else {
             this.header = readWriter.readHeader();
+            if (!header.getFormat().equals(format))
+                throw new IllegalStateException("Image of " + header.getFormat() + " is opened as " + format);
+            long count = format.countOf(readWriter.size());
+            if (header.hasFreeSpaceMap()) {
+                this.groups = loadGroups(count);
+            } else {
+                BitSet image = new BitSet();
+                image.set(0, (int) count);
+                this.groups = createGroups(image, count);
+                rebuilding = true;
+            }
+        }
+        getGroup(header.rootINode).markUsed(format.recordOf(header.rootINode));
     }
 
     private SimpleHeader createHeader(BaseStructureReadWriter readWriter) throws IOException {
-        SimpleHeader header = new SimpleHeader(-1, -1, -1);
+        SimpleHeader header = new SimpleHeader(format, -1, -1, -1, -1);
         readWriter.writeHeader(header);
 
-        header.nextFreeINode = readWriter.allocateNewINode().getCurPos();
-        header.nextFreeBlock = readWriter.allocateNewBlock().getCurPos();
-        header.rootINode = readWriter.allocateNewINode().getCurPos();
+        if (format.hasINodeTables()) {
+            //root takes the first slot of the first table, the rest of the table is allocated from here on
+            long table = format.toPos(format.countOf(readWriter.size() + format.getBlockSize() - 1));
+            readWriter.extend(table + format.getBlockSize());
+            readWriter.writeINode(new SimpleINode(format, table, System.currentTimeMillis()));
+            addINodeTable(table).clear(0);
+            header.rootINode = table;
+        } else {
+            header.rootINode = readWriter.allocateNewINode().getCurPos();
+        }
 
         readWriter.writeHeader(header);
         return header;
     }
 
+    private FreeSpaceMap[] createGroups(BitSet image, long count) {
+        FreeSpaceMap[] result = new FreeSpaceMap[(int) Math.max(1, (count + GROUP_SIZE - 1) / GROUP_SIZE)];
+        for (int i = 0; i < result.length; i++) {
+            int first = i * GROUP_SIZE;
+            result[i] = FreeSpaceMap.of(format, image, first, (int) Math.max(0, Math.min(GROUP_SIZE, count - first)));
+        }
+        return result;
+    }
+
+    private FreeSpaceMap[] loadGroups(long count) throws IOException {
+        storedMap = readWriter.readChain(header.freeSpaceMap);
+        ByteBuffer buffer = ByteBuffer.allocate(storedMap.length * format.getBlockDataSize());
+        for (long pos : storedMap) {
+            SimpleBlock block = readWriter.readBlock(pos);
+            buffer.put(block.getData(), 0, block.getSize());
+        }
+        buffer.flip();
+        long storedCount = buffer.getLong();
+        byte[] bits = new byte[buffer.getInt()];
+        buffer.get(bits);
+        BitSet image = BitSet.valueOf(bits);
+        if (format.hasINodeTables()) {
+            for (int i = buffer.getInt(); i > 0; i--) {
+                long table = buffer.getLong();
+                byte[] slots = new byte[buffer.getInt()];
+                buffer.get(slots);
+                iNodeTables.put(table, BitSet.valueOf(slots));
+            }
+        }
+        //records appended after the map was stored are not referenced by anything
+        if (storedCount < count)
+            image.set((int) storedCount, (int) count);
+        return createGroups(image, count);
+    }
+
+    /**
+     * @return true if used records have to be marked by markUsed and finished by finishRebuild
+     */
+    public boolean needsRebuild() {
+        return rebuilding;
+    }
+
+    /**
+     * Marks record as used while the free space map is rebuilt.
+     */
+    public void markUsed(long pos) {
+        assert rebuilding;
+        FreeSpaceMap group = getGroup(pos);
+        synchronized (group) {
+            group.markUsed(pos);
+        }
+    }
+
+    /**
+     * Marks iNode as used while the free space map is rebuilt, its table record is marked used too.
+     */
+    public void markINodeUsed(long pos) {
+        assert rebuilding;
+        long table = format.recordOf(pos);
+        markUsed(table);
+        if (!format.hasINodeTables())
+            return;
+        synchronized (iNodeTables) {
+            BitSet slots = iNodeTables.get(table);
+            if (slots == null)
+                slots = addINodeTable(table);
+            slots.clear(toSlot(pos));
+        }
+    }
+
+    public void finishRebuild() {
+        synchronized (iNodeTables) {
+            for (Iterator<BitSet> i = iNodeTables.values().iterator(); i.hasNext(); ) {
+                if (i.next().isEmpty())
+                    i.remove();
+            }
+        }
+        rebuilding = false;
+    }
+
     public SimpleINode getRoot() throws IOException {
         return readWriter.readINode(header.rootINode);
     }
 
     public SimpleBlock getFreeBlock() throws IOException {
-        synchronized (header) {
-            SimpleBlock result = readWriter.readBlock(header.nextFreeBlock);
-            if (result.getNextDataBlock() == -1) {
-                header.nextFreeBlock = readWriter.allocateNewBlock().getCurPos();
-            } else {
-                header.nextFreeBlock = result.getNextDataBlock();
-            }
-            readWriter.writeHeader(header);
+        return getFreeBlocks(1)[0];
+    }
 
-            result.setNextDataBlock(-1);
-            return result;
+    /**
+     * Reserves blocks for the whole file at once, in EXTENT mode they are contiguous whenever free space allows.
+     */
+    public SimpleBlock[] getFreeBlocks(int count) throws IOException {
+        long[] positions = new long[count];
+        allocate(positions);
+        SimpleBlock[] blocks = new SimpleBlock[count];
+        for (int i = 0; i < count; i++) {
+            readWriter.allocated(positions[i], false);
+            blocks[i] = new SimpleBlock(positions[i], format.getBlockDataSize());
         }
+        return blocks;
     }
 
     public SimpleINode getFreeINode() throws IOException {
-        synchronized (header) {
-            SimpleINode result = readWriter.readINode(header.nextFreeINode);
-            if (result.getNextFreeINode() == -1) {
-                header.nextFreeINode = readWriter.allocateNewINode().getCurPos();
-            } else {
-                header.nextFreeINode = result.getNextFreeINode();
+        long pos = format.hasINodeTables() ? allocateINodeSlot() : -1;
+        if (pos == -1) {
+            long[] position = new long[1];
+            allocate(position);
+            pos = position[0];
+            if (format.hasINodeTables()) {
+                synchronized (iNodeTables) {
+                    addINodeTable(pos).clear(0);
+                }
             }
-            readWriter.writeHeader(header);
+        }
+        readWriter.allocated(pos, true);
+        //the record may have been a block, so a fresh iNode is written for INodeLocker checks
+        SimpleINode iNode = new SimpleINode(format, pos, System.currentTimeMillis());
+        readWriter.writeINode(iNode);
+        return iNode;
+    }
 
-            result.setNextFreeINode(-1);
-            return result;
+    /**
+     * @return position of a free slot of the lowest table which has one, -1 if there is none
+     */
+    private long allocateINodeSlot() throws IOException {
+        beginChange();
+        synchronized (iNodeTables) {
+            Map.Entry<Long, BitSet> table = iNodeTables.firstEntry();
+            if (table == null)
+                return -1;
+            BitSet slots = table.getValue();
+            int slot = slots.nextSetBit(0);
+            slots.clear(slot);
+            if (slots.isEmpty())
+                iNodeTables.remove(table.getKey());
+            return table.getKey() + (long) slot * format.getINodeSize();
         }
     }
 
+    /**
+     * @return free slots of the new table, all of them
+     */
+    private BitSet addINodeTable(long table) {
+        BitSet slots = new BitSet(format.getINodesPerBlock());
+        slots.set(0, format.getINodesPerBlock());
+        iNodeTables.put(table, slots);
+        return slots;
+    }
+
+    private int toSlot(long pos) {
+        return (int) ((pos - format.recordOf(pos)) / format.getINodeSize());
+    }
+
     public void markListOfBlocksAsFree(long firstBlock, long lastBlock) throws IOException {
-        synchronized (header) {
-            SimpleBlock block = readWriter.readBlock(lastBlock);
-            block.setNextDataBlock(header.nextFreeBlock);
-            readWriter.writeBlock(block);
-            header.nextFreeBlock = firstBlock;
-            readWriter.writeHeader(header);
+        beginChange();
+        for (long pos : readWriter.readChain(firstBlock)) {
+            markFree(pos);
+            if (pos == lastBlock)
+                break;
         }
     }
 
+    /**
+     * Marks records following each other from the start as free, no block is read.
+     */
+    public void markExtentAsFree(long start, long count) throws IOException {
+        beginChange();
+        for (long i = 0; i < count; i++) {
+            markFree(start + i * format.getBlockSize());
+        }
+    }
+
+    public void markBlockAsFree(long pos) throws IOException {
+        beginChange();
+        markFree(pos);
+    }
+
     public void markINodeAsFree(long pos) throws IOException {
-        synchronized (header) {
-            SimpleINode iNode = readWriter.readINode(pos);
-            iNode.setNextFreeINode(header.nextFreeINode);
-            readWriter.writeINode(iNode);
-            header.nextFreeINode = iNode.getCurPos();
-            readWriter.writeHeader(header);
+        beginChange();
+        readWriter.invalidateINode(pos);
+        if (!readWriter.deferFree(pos, true, false))
+            releaseINode(pos);
+    }
+
+    /**
+     * Frees the record or iNode at once, called for the ones a transaction freed when it is journaled
+     * and the ones an aborted transaction allocated.
+     */
+    void release(long pos, boolean iNode) {
+        if (iNode) {
+            readWriter.invalidateINode(pos);
+            releaseINode(pos);
+        } else {
+            free(pos);
+        }
+    }
+
+    private void releaseINode(long pos) {
+        if (!format.hasINodeTables()) {
+            free(pos);
+            return;
+        }
+        long table = format.recordOf(pos);
+        synchronized (iNodeTables) {
+            BitSet slots = iNodeTables.get(table);
+            if (slots == null) {
+                slots = new BitSet(format.getINodesPerBlock());
+                iNodeTables.put(table, slots);
+            }
+            slots.set(toSlot(pos));
+            if (slots.cardinality() < format.getINodesPerBlock())
+                return;
+            iNodeTables.remove(table);
+        }
+        free(table);
+    }
+
+    /**
+     * @return count of tables with free iNode slots
+     */
+    public int getINodeTableCount() {
+        synchronized (iNodeTables) {
+            return iNodeTables.size();
+        }
+    }
+
+    /**
+     * @return count of free records, both blocks and iNodes, free slots of iNode tables are not counted
+     */
+    public long getFreeCount() {
+        long result = 0;
+        for (FreeSpaceMap group : groups) {
+            synchronized (group) {
+                result += group.getFreeCount();
+            }
         }
+        return result;
+    }
+
+    /**
+     * @return count of allocation groups, it grows with the image
+     */
+    public int getGroupCount() {
+        return groups.length;
+    }
+
+    /**
+     * Grows the image to at least imageSize at once, so a bulk load does not grow it chunk by chunk.
+     */
+    public void preallocate(long imageSize) throws IOException {
+        beginChange();
+        synchronized (growLock) {
+            extend(format.countOf(imageSize + format.getBlockSize() - 1));
+        }
+    }
+
+    private void allocate(long[] positions) throws IOException {
+        beginChange();
+        int allocated = 0;
+        boolean grown = false;
+        while (true) {
+            FreeSpaceMap[] current = groups;
+            int preferred = (int) (Thread.currentThread().getId() % current.length);
+            if (allocationMode == AllocationMode.EXTENT) {
+                //runs do not cross groups
+                if (allocated == 0 && positions.length <= GROUP_SIZE) {
+                    allocated = allocateExtent(current, preferred, positions);
+                    int tail = getTailFree(current);
+                    if (allocated == 0 && tail > 0 && !grown) {
+                        //the free run at the end of the image is continued by growing the image
+                        grow(positions.length - tail);
+                        grown = true;
+                        continue;
+                    }
+                }
+                allocated = allocateLargest(current, preferred, positions, allocated);
+            } else {
+                allocated = allocateFirst(current, preferred, positions, allocated);
+            }
+            if (allocated == positions.length)
+                return;
+            grow(positions.length - allocated);
+        }
+    }
+
+    private static int allocateExtent(FreeSpaceMap[] groups, int preferred, long[] positions) {
+        for (int i = 0; i < groups.length; i++) {
+            FreeSpaceMap group = groups[(preferred + i) % groups.length];
+            synchronized (group) {
+                if (group.allocateExtent(positions.length, positions, 0) != 0)
+                    return positions.length;
+            }
+        }
+        return 0;
+    }
+
+    private static int allocateLargest(FreeSpaceMap[] groups, int preferred, long[] positions, int allocated) {
+        for (int i = 0; i < groups.length && allocated < positions.length; i++) {
+            FreeSpaceMap group = groups[(preferred + i) % groups.length];
+            synchronized (group) {
+                int length;
+                while (allocated < positions.length
+                        && (length = group.allocateLargest(positions.length - allocated, positions, allocated)) > 0) {
+                    allocated += length;
+                }
+            }
+        }
+        return allocated;
+    }
+
+    private static int allocateFirst(FreeSpaceMap[] groups, int preferred, long[] positions, int allocated) {
+        for (int i = 0; i < groups.length && allocated < positions.length; i++) {
+            FreeSpaceMap group = groups[(preferred + i) % groups.length];
+            synchronized (group) {
+                long pos;
+                while (allocated < positions.length && (pos = group.allocate()) != -1) {
+                    positions[allocated++] = pos;
+                }
+            }
+        }
+        return allocated;
+    }
+
+    private static int getTailFree(FreeSpaceMap[] groups) {
+        FreeSpaceMap last = groups[groups.length - 1];
+        synchronized (last) {
+            return last.getTailFree();
+        }
+    }
+
+    /**
+     * Small images double, larger ones grow by growthSize.
+     */
+    private void grow(int records) throws IOException {
+        synchronized (growLock) {
+            long count = format.countOf(readWriter.size());
+            extend(count + Math.max(records, Math.min(growthSize / format.getBlockSize(), count)));
+        }
+    }
+
+    /**
+     * Extends the image to count records and registers the new ones as free.
+     */
+    private void extend(long count) throws IOException {
+        assert Thread.holdsLock(growLock);
+        long current = format.countOf(readWriter.size());
+        if (count <= current)
+            return;
+        readWriter.extend(format.toPos(count));
+        FreeSpaceMap[] extended = groups;
+        int groupCount = (int) ((count + GROUP_SIZE - 1) / GROUP_SIZE);
+        if (groupCount > extended.length) {
+            extended = Arrays.copyOf(extended, groupCount);
+            for (int i = groups.length; i < groupCount; i++) {
+                extended[i] = new FreeSpaceMap(format, i * GROUP_SIZE, 0);
+            }
+        }
+        for (int i = (int) (current / GROUP_SIZE); i < groupCount; i++) {
+            FreeSpaceMap group = extended[i];
+            synchronized (group) {
+                group.extend((int) Math.min(GROUP_SIZE, count - group.getFirst()));
+            }
+        }
+        groups = extended;
+    }
+
+    /**
+     * Frees the record when the transaction of current thread is journaled, at once without one.
+     */
+    private void markFree(long pos) {
+        if (!readWriter.deferFree(pos, false, false))
+            free(pos);
+    }
+
+    private void free(long pos) {
+        FreeSpaceMap group = getGroup(pos);
+        synchronized (group) {
+            group.markFree(pos);
+        }
+    }
+
+    private FreeSpaceMap getGroup(long pos) {
+        return groups[(int) (format.toIndex(pos) / GROUP_SIZE)];
+    }
+
+    /**
+     * Stored map becomes stale on the first change, so it is dropped before the change is made.
+     * Under the journal the header goes with the transaction of the change, or with its own one.
+     */
+    private void beginChange() throws IOException {
+        if (!header.hasFreeSpaceMap())
+            return;
+        readWriter.beginTransaction();
+        try {
+            synchronized (header) {
+                if (!header.hasFreeSpaceMap())
+                    return;
+                for (long pos : storedMap) {
+                    //the header is not rolled back, so map blocks are freed even if the transaction is aborted
+                    if (!readWriter.deferFree(pos, false, true))
+                        free(pos);
+                }
+                storedMap = new long[0];
+                readWriter.writeHeader(new SimpleHeader(format, -1, -1, header.rootINode, -1));
+                //without the journal header has to reach the storage before any record it no longer describes
+                if (!readWriter.hasJournal())
+                    readWriter.flush();
+                header.nextFreeINode = -1;
+                header.nextFreeBlock = -1;
+                header.freeSpaceMap = -1;
+            }
+        } finally {
+            readWriter.endTransaction();
+        }
+    }
+
+    private BitSet getImageMap() {
+        BitSet image = new BitSet();
+        for (FreeSpaceMap group : groups) {
+            synchronized (group) {
+                group.copyTo(image);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @return tables with free slots as table position, length of slot bits and slot bits, empty for version 1
+     */
+    private byte[] getINodeTablesMap() {
+        if (!format.hasINodeTables())
+            return new byte[0];
+        synchronized (iNodeTables) {
+            int slotsSize = format.getINodesPerBlock() / 8 + 1;
+            ByteBuffer buffer = ByteBuffer.allocate(4 + iNodeTables.size() * (8 + 4 + slotsSize));
+            buffer.putInt(iNodeTables.size());
+            for (Map.Entry<Long, BitSet> table : iNodeTables.entrySet()) {
+                byte[] slots = table.getValue().toByteArray();
+                buffer.putLong(table.getKey());
+                buffer.putInt(slots.length);
+                buffer.put(slots);
+            }
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    private void storeFreeSpaceMap() throws IOException {
+        int dataSize = format.getBlockDataSize();
+        SimpleBlock[] blocks = new SimpleBlock[0];
+        byte[] tables;
+        byte[] bits;
+        while (true) {
+            tables = getINodeTablesMap();
+            bits = getImageMap().toByteArray();
+            int needed = (8 + 4 + bits.length + tables.length + dataSize - 1) / dataSize;
+            if (needed <= blocks.length)
+                break;
+            //taking blocks can grow the image by a chunk of free records, which makes the map longer
+            SimpleBlock[] taken = getFreeBlocks(needed - blocks.length);
+            int count = blocks.length;
+            blocks = Arrays.copyOf(blocks, needed);
+            System.arraycopy(taken, 0, blocks, count, taken.length);
+        }
+        FreeSpaceMap last = groups[groups.length - 1];
+        ByteBuffer buffer = ByteBuffer.allocate(blocks.length * dataSize);
+        buffer.putLong(last.getFirst() + last.getCount());
+        buffer.putInt(bits.length);
+        buffer.put(bits);
+        buffer.put(tables);
+        int size = buffer.position();
+        storedMap = new long[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            SimpleBlock block = blocks[i];
+            int offset = i * dataSize;
+            int length = Math.max(0, Math.min(dataSize, size - offset));
+            System.arraycopy(buffer.array(), offset, block.getData(), 0, length);
+            block.setSize(length);
+            if (i + 1 < blocks.length)
+                block.setNextDataBlock(blocks[i + 1].getCurPos());
+            readWriter.writeBlock(block);
+            storedMap[i] = block.getCurPos();
+        }
+        header.freeSpaceMap = storedMap[0];
+        readWriter.writeHeader(header);
     }
 
     @Override
     public void close() throws IOException {
+        synchronized (header) {
+            if (!header.hasFreeSpaceMap() && !rebuilding)
+                storeFreeSpaceMap();
+        }
     }
 }
@@ -0,0 +1,36 @@
+package fileSystem.core.structure.base;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Positional access to the file system image.
+ */
+public interface Storage extends AutoCloseable {
+
+    void read(long pos, ByteBuffer target) throws IOException;
+
+    void write(long pos, ByteBuffer source) throws IOException;
+
+    /**
+     * Writes source at the end of the image.
+     *
+     * @return position the source was written at
+     */
+    long append(ByteBuffer source) throws IOException;
+
+    long size() throws IOException;
+
+    /**
+     * Grows the image to newSize, content of the new part is zero. Does nothing if the image is not smaller.
+     */
+    void extend(long newSize) throws IOException;
+
+    /**
+     * Makes all written data durable.
+     */
+    void force() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,35 @@
+package fileSystem.core.structure.base;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Available storage backends for the image.
+ */
+public enum StorageType {
+    CHANNEL {
+        @Override
+        public Storage open(Path path) throws IOException {
+            return new ChannelStorage(Files.newByteChannel(path, WRITE, READ));
+        }
+    },
+    POSITIONAL {
+        @Override
+        public Storage open(Path path) throws IOException {
+            return new PositionalStorage(FileChannel.open(path, WRITE, READ));
+        }
+    },
+    MAPPED {
+        @Override
+        public Storage open(Path path) throws IOException {
+            return new MappedStorage(FileChannel.open(path, WRITE, READ));
+        }
+    };
+
+    public abstract Storage open(Path path) throws IOException;
+}
@@ -1,8 +1,10 @@
 package fileSystem.extended;
 
+import fileSystem.core.structure.FileSystemOptions;
 import fileSystem.core.structure.SimpleDirectory;
 import fileSystem.core.structure.SimpleFile;
 import fileSystem.core.structure.SimpleFileReadWriter;
+import fileSystem.core.structure.base.BlockCache;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -41,6 +43,7 @@ public class SimpleFileSystem extends java.nio.file.FileSystem {
         boolean createNew = true;
         String nameEncoding = "UTF-8";
         String defaultDir = "/";
+        FileSystemOptions options = FileSystemOptions.fromEnv(env);
 
         this.provider = simpleFileSystemProvider;
         this.sfpath = path;
@@ -59,8 +62,7 @@ public class SimpleFileSystem extends java.nio.file.FileSystem {
         this.sc = SimpleCoder.get(nameEncoding);
         this.defaultdir = new SimplePath(this, getBytes(defaultDir));
         //this.ch = Files.newByteChannel(sfpath, READ, WRITE);
-        SeekableByteChannel channel = Files.newByteChannel(sfpath, WRITE, READ);
-        readWriter = new SimpleFileReadWriter(channel);
+        readWriter = SimpleFileReadWriter.open(sfpath, options);
         //this.cen = initCEN();
     }
 
@@ -148,6 +150,10 @@ public class SimpleFileSystem extends java.nio.file.FileSystem {
     }
 
 
+    public BlockCache getBlockCache() {
+        return readWriter.getBlockCache();
+    }
+
     final byte[] getBytes(String name) {
         return sc.getBytes(name);
     }
@@ -193,12 +199,14 @@ public class SimpleFileSystem extends java.nio.file.FileSystem {
         checkWritable();
         if (Arrays.equals(src, dst))
             return;    // do nothing, src and dst are the same
-        SimpleFile srcFile = readWriter.getFile(getPath(src));
-        SimpleFile dstFile = readWriter.getFile(getPath(dst));
-        if (dstFile == null) {
-            dstFile = readWriter.createFile(getPath(dst), false);
+        try (InputStream is = newInputStream(src);
+             OutputStream os = newOutputStream(dst, new OpenOption[0])) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                os.write(buf, 0, n);
+            }
         }
-        dstFile.writeData(srcFile.readData());
     }
 
     public void deleteFile(byte[] resolvedPath, boolean failIfNotExists) throws IOException {
@@ -217,7 +225,10 @@ public class SimpleFileSystem extends java.nio.file.FileSystem {
     }
 
     public InputStream newInputStream(byte[] resolvedPath) throws IOException {
-        return new ByteArrayInputStream(readWriter.getFile(getPath(resolvedPath)).readData());
+        SimpleFile file = readWriter.getFile(getPath(resolvedPath));
+        if (file == null || file instanceof SimpleDirectory)
+            throw new NoSuchFileException(getString(resolvedPath));
+        return readWriter.newInputStream(file);
     }
 
     public void createDirectory(byte[] resolvedPath, FileAttribute<?>[] attrs) throws IOException {
@@ -291,17 +302,16 @@ public class SimpleFileSystem extends java.nio.file.FileSystem {
                 }
             };
         } else {
-            SimpleFile file = readWriter.getFile(getPath(resolvedPath));
+            final SimpleFile file = readWriter.getFile(getPath(resolvedPath));
             if (file == null || file instanceof SimpleDirectory)
                 throw new NoSuchFileException(getString(resolvedPath));
-            final ReadableByteChannel rbc =
-                    Channels.newChannel(newInputStream(resolvedPath));
             final long size = file.getTotalSize();
             return new SeekableByteChannel() {
                 long read = 0;
+                boolean open = true;
 
                 public boolean isOpen() {
-                    return rbc.isOpen();
+                    return open;
                 }
 
                 public long position() throws IOException {
@@ -310,11 +320,16 @@ public class SimpleFileSystem extends java.nio.file.FileSystem {
 
                 public SeekableByteChannel position(long pos)
                         throws IOException {
-                    throw new UnsupportedOperationException();
+                    if (pos < 0)
+                        throw new IllegalArgumentException();
+                    read = pos;
+                    return this;
                 }
 
                 public int read(ByteBuffer dst) throws IOException {
-                    int n = rbc.read(dst);
+                    if (!open)
+                        throw new ClosedChannelException();
+                    int n = file.read(read, dst);
                     if (n > 0) {
                         read += n;
                     }
@@ -335,7 +350,7 @@ public class SimpleFileSystem extends java.nio.file.FileSystem {
                 }
 
                 public void close() throws IOException {
-                    rbc.close();
+                    open = false;
                 }
             };
         }
@@ -346,43 +361,15 @@ public class SimpleFileSystem extends java.nio.file.FileSystem {
     }
 
     public OutputStream newOutputStream(byte[] resolvedPath, StandardOpenOption createNew, StandardOpenOption write) throws IOException {
-        final SimpleFile file = readWriter.getFile(getPath(resolvedPath));
-        return new ByteArrayOutputStream() {
-            @Override
-            public void close() throws IOException {
-                byte[] data = toByteArray();
-                file.writeData(data);
-                super.close();
-            }
-
-            @Override
-            public void flush() throws IOException {
-                byte[] data = toByteArray();
-                file.writeData(data);
-            }
-        };
+        return newOutputStream(resolvedPath, new OpenOption[]{createNew, write});
     }
 
     public OutputStream newOutputStream(byte[] resolvedPath, OpenOption[] options) throws IOException {
         String[] path = getPath(resolvedPath);
-        SimpleFile fileExistence = readWriter.getFile(path);
-        if (fileExistence == null) {
-            fileExistence = readWriter.createFile(path, false);
+        SimpleFile file = readWriter.getFile(path);
+        if (file == null) {
+            file = readWriter.createFile(path, false);
         }
-        final SimpleFile file = fileExistence;
-        return new ByteArrayOutputStream() {
-            @Override
-            public void close() throws IOException {
-                byte[] data = toByteArray();
-                file.writeData(data);
-                super.close();
-            }
-
-            @Override
-            public void flush() throws IOException {
-                byte[] data = toByteArray();
-                file.writeData(data);
-            }
-        };
+        return readWriter.newOutputStream(file, Arrays.asList(options).contains(StandardOpenOption.APPEND));
     }
 }
@@ -0,0 +1,75 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.structure.base.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Bytes allocated per base structure operation with and without pooled buffers.
+ * Reads still allocate the returned SimpleBlock, SimpleINode or SimpleHeader.
+ * Arguments: [operations]
+ */
+public class AllocationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (boolean pooled : new boolean[]{false, true}) {
+            Path path = Paths.get("allocationBenchmark.simple");
+            Files.deleteIfExists(path);
+            Files.createFile(path);
+            BufferPool bufferPool = new BufferPool(Constants.BLOCK_SIZE, pooled);
+            try (BaseStructureReadWriter readWriter =
+                         new BaseStructureReadWriter(StorageType.POSITIONAL.open(path), 0, bufferPool)) {
+                SimpleHeader header = new SimpleHeader(-1, -1, -1);
+                readWriter.writeHeader(header);
+                SimpleBlock block = readWriter.allocateNewBlock();
+                SimpleINode iNode = readWriter.allocateNewINode();
+
+                //warm up
+                run(readWriter, header, block, iNode, operations / 10);
+
+                long allocated = threads.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                run(readWriter, header, block, iNode, operations);
+                long nanos = System.nanoTime() - start;
+                allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+                System.out.printf("pooled=%-5s ops=%-9d %10.1f bytes/op %12.0f ops/s%n",
+                        pooled, operations, (double) allocated / operations, operations / (nanos / 1e9));
+            }
+            Files.delete(path);
+        }
+    }
+
+    private static void run(BaseStructureReadWriter readWriter, SimpleHeader header, SimpleBlock block,
+                            SimpleINode iNode, int operations) throws Exception {
+        for (int i = 0; i < operations; i++) {
+            switch (i % 6) {
+                case 0:
+                    readWriter.writeBlock(block);
+                    break;
+                case 1:
+                    readWriter.readBlock(block.getCurPos());
+                    break;
+                case 2:
+                    readWriter.writeINode(iNode);
+                    break;
+                case 3:
+                    readWriter.readINode(iNode.getCurPos());
+                    break;
+                case 4:
+                    readWriter.writeHeader(header);
+                    break;
+                default:
+                    readWriter.readHeader();
+                    break;
+            }
+        }
+    }
+}
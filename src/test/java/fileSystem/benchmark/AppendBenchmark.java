@@ -0,0 +1,54 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.structure.FileSystemOptions;
+import fileSystem.core.structure.SimpleFile;
+import fileSystem.core.structure.SimpleFileReadWriter;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Small appends to a large file and small writes in its middle.
+ * Arguments: [file size in MB] [bytes per write] [writes]
+ */
+public class AppendBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 64) * 1024 * 1024;
+        int length = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int writes = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        Path path = Paths.get("appendBenchmark.simple");
+        Files.deleteIfExists(path);
+        Files.createFile(path);
+        try (SimpleFileReadWriter readWriter = SimpleFileReadWriter.open(path, new FileSystemOptions())) {
+            SimpleFile file = readWriter.createFile(new String[]{"log"}, false);
+            try (OutputStream stream = readWriter.newOutputStream(file, false)) {
+                byte[] buffer = new byte[8192];
+                for (long written = 0; written < size; written += buffer.length) {
+                    stream.write(buffer);
+                }
+            }
+            file = readWriter.getFile(new String[]{"log"});
+            byte[] line = new byte[length];
+
+            long start = System.nanoTime();
+            for (int i = 0; i < writes; i++) {
+                file.append(ByteBuffer.wrap(line));
+            }
+            long appends = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < writes; i++) {
+                file.write(size / 2 + (long) i * length, ByteBuffer.wrap(line));
+            }
+            long overwrites = System.nanoTime() - start;
+
+            System.out.printf("size=%d MB %10.0f appends/s %10.0f writes/s%n",
+                    size / (1024 * 1024), writes / (appends / 1e9), writes / (overwrites / 1e9));
+        }
+        Files.delete(path);
+    }
+}
@@ -0,0 +1,127 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.SimpleSimpleFileSystem;
+import fileSystem.core.structure.base.BaseStructureReadWriter;
+import fileSystem.core.structure.base.SimpleBlock;
+import fileSystem.core.structure.base.SimpleINode;
+import fileSystem.core.structure.base.SpaceAllocator;
+import fileSystem.core.structure.base.StorageType;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Multi-threaded create/write throughput of the allocator and of the whole file system for growing thread counts.
+ * Arguments: [max threads] [operations per thread] [blocks per file]
+ */
+public class ConcurrentAllocationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int blocks = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            report("allocator", threads, operations, runAllocator(threads, operations, blocks));
+        }
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            report("file system", threads, operations / 10, runFileSystem(threads, operations / 10, blocks));
+        }
+    }
+
+    private static long runAllocator(int threads, final int operations, final int blocks) throws Exception {
+        Path path = Paths.get("concurrentAllocationBenchmark.simple");
+        Files.deleteIfExists(path);
+        try (OutputStream os = Files.newOutputStream(path, CREATE_NEW, WRITE)) {
+        }
+        try (BaseStructureReadWriter readWriter = new BaseStructureReadWriter(StorageType.POSITIONAL.open(path));
+             final SpaceAllocator allocator = new SpaceAllocator(readWriter, true)) {
+            //every thread gets free space in its own group
+            for (SimpleBlock block : allocator.getFreeBlocks(threads * SpaceAllocator.GROUP_SIZE)) {
+                allocator.markListOfBlocksAsFree(block.getCurPos(), block.getCurPos());
+            }
+            return run(threads, new Operation() {
+                public void run(int thread, int i) throws Exception {
+                    SimpleINode iNode = allocator.getFreeINode();
+                    SimpleBlock[] file = allocator.getFreeBlocks(blocks);
+                    for (SimpleBlock block : file) {
+                        readWriter.writeBlock(block);
+                    }
+                    for (SimpleBlock block : file) {
+                        allocator.markListOfBlocksAsFree(block.getCurPos(), block.getCurPos());
+                    }
+                    allocator.markINodeAsFree(iNode.getCurPos());
+                }
+            }, operations);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static long runFileSystem(int threads, int operations, final int blocks) throws Exception {
+        String filePath = "concurrentAllocationBenchmark.simple";
+        Files.deleteIfExists(Paths.get(filePath));
+        try (final SimpleSimpleFileSystem fileSystem = new SimpleSimpleFileSystem(filePath)) {
+            for (int t = 0; t < threads; t++) {
+                fileSystem.createDirectory("/dir" + t);
+            }
+            final byte[] data = new byte[blocks * 512];
+            return run(threads, new Operation() {
+                public void run(int thread, int i) throws Exception {
+                    fileSystem.createFile("/dir" + thread + "/file" + i).writeData(data);
+                }
+            }, operations);
+        } finally {
+            Files.delete(Paths.get(filePath));
+        }
+    }
+
+    private interface Operation {
+        void run(int thread, int i) throws Exception;
+    }
+
+    private static long run(int threads, final Operation operation, final int operations) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Throwable[] error = {null};
+        ArrayList<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        latch.await();
+                        for (int i = 0; i < operations; i++) {
+                            operation.run(thread, i);
+                        }
+                    } catch (Throwable e) {
+                        error[0] = e;
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long start = System.nanoTime();
+        latch.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (error[0] != null)
+            throw new IllegalStateException(error[0]);
+        return elapsed;
+    }
+
+    private static void report(String target, int threads, int operations, long nanos) {
+        System.out.printf("%-12s threads=%-3d ops=%-8d %12.0f ops/s%n",
+                target, threads, threads * operations, threads * operations / (nanos / 1e9));
+    }
+}
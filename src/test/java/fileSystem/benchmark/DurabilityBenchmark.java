@@ -0,0 +1,75 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.SimpleSimpleFileSystem;
+import fileSystem.core.structure.FileSystemOptions;
+import fileSystem.core.structure.SimpleFileReadWriter;
+import fileSystem.core.structure.base.Durability;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ * Create/write/delete operations per second for every durability mode and growing thread counts.
+ * Arguments: [files per thread] [max threads] [file size in bytes]
+ */
+public class DurabilityBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+        //warm up
+        run(Durability.NONE, 1, files, size);
+        for (Durability durability : Durability.values()) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                System.out.printf("%-13s threads=%2d %10.0f ops/s%n",
+                        durability, threads, run(durability, threads, files, size));
+            }
+        }
+    }
+
+    private static double run(Durability durability, int threads, final int files, final int size) throws Exception {
+        String filePath = "durabilityBenchmark.simple";
+        Files.deleteIfExists(Paths.get(filePath));
+        FileSystemOptions options = new FileSystemOptions();
+        options.setDurability(durability);
+
+        long start;
+        try (final SimpleSimpleFileSystem fileSystem = new SimpleSimpleFileSystem(filePath, options)) {
+            ArrayList<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final String dir = "/dir" + t;
+                fileSystem.createDirectory(dir);
+                workers.add(new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            for (int i = 0; i < files; i++) {
+                                fileSystem.createFile(dir + "/file" + i).writeData(new byte[size]);
+                            }
+                            for (int i = 0; i < files; i++) {
+                                fileSystem.deleteFile(dir + "/file" + i);
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }));
+            }
+            start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+        //close is included, it forces the image in most modes
+        long time = System.nanoTime() - start;
+
+        Files.delete(Paths.get(filePath));
+        Files.deleteIfExists(Paths.get(filePath + SimpleFileReadWriter.JOURNAL_SUFFIX));
+        return 3.0 * files * threads / (time / 1e9);
+    }
+}
@@ -0,0 +1,61 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.SimpleSimpleFileSystem;
+import fileSystem.core.structure.FileSystemOptions;
+import fileSystem.core.structure.base.AllocationMode;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Sequential read throughput after create/delete churn for every allocation mode.
+ * Arguments: [files] [churn rounds] [max file size in KB]
+ */
+public class FragmentationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int maxSize = (args.length > 2 ? Integer.parseInt(args[2]) : 256) * 1024;
+
+        for (AllocationMode mode : AllocationMode.values()) {
+            String filePath = "fragmentationBenchmark.simple";
+            Files.deleteIfExists(Paths.get(filePath));
+            FileSystemOptions options = new FileSystemOptions();
+            options.setAllocationMode(mode);
+            //reads have to reach the storage
+            options.setCacheSize(0);
+
+            Random random = new Random(42);
+            long start = System.nanoTime();
+            try (SimpleSimpleFileSystem fileSystem = new SimpleSimpleFileSystem(filePath, options)) {
+                for (int i = 0; i < files; i++) {
+                    fileSystem.createFile("/file" + i).writeData(new byte[random.nextInt(maxSize)]);
+                }
+                for (int round = 0; round < rounds; round++) {
+                    for (int i = 0; i < files; i++) {
+                        if (random.nextBoolean()) {
+                            fileSystem.deleteFile("/file" + i);
+                            fileSystem.createFile("/file" + i).writeData(new byte[random.nextInt(maxSize)]);
+                        }
+                    }
+                }
+            }
+            long churn = System.nanoTime() - start;
+
+            long bytes = 0;
+            start = System.nanoTime();
+            try (SimpleSimpleFileSystem fileSystem = new SimpleSimpleFileSystem(filePath, options)) {
+                for (int i = 0; i < files; i++) {
+                    bytes += fileSystem.getFile("/file" + i).readData().length;
+                }
+            }
+            long read = System.nanoTime() - start;
+
+            System.out.printf("%-10s churn=%8.0f ms image=%6d MB read=%8.1f MB/s%n",
+                    mode, churn / 1e6, Files.size(Paths.get(filePath)) / (1024 * 1024), bytes / (read / 1e9) / (1024 * 1024));
+            Files.delete(Paths.get(filePath));
+        }
+    }
+}
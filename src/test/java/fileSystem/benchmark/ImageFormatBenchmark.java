@@ -0,0 +1,60 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.structure.FileSystemOptions;
+import fileSystem.core.structure.SimpleFile;
+import fileSystem.core.structure.SimpleFileReadWriter;
+import fileSystem.core.structure.base.ImageFormat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Writing and reading files with images of format version 1 and of version 2 with different block sizes,
+ * and the image size after.
+ * Arguments: [files] [file size]
+ */
+public class ImageFormatBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int fileSize = args.length > 1 ? Integer.parseInt(args[1]) : 64 * 1024;
+        byte[] data = new byte[fileSize];
+        int[][] formats = {{ImageFormat.VERSION_1, 0, 0}, {ImageFormat.VERSION_2, 4096, 512},
+                {ImageFormat.VERSION_2, 16 * 1024, 512}, {ImageFormat.VERSION_2, 64 * 1024, 1024}};
+
+        for (int[] format : formats) {
+            Path path = Paths.get("imageFormatBenchmark.simple");
+            Files.deleteIfExists(path);
+            Files.createFile(path);
+            FileSystemOptions options = new FileSystemOptions();
+            options.setFormatVersion(format[0]);
+            if (format[0] != ImageFormat.VERSION_1) {
+                options.setBlockSize(format[1]);
+                options.setINodeSize(format[2]);
+            }
+            long writes;
+            long reads;
+            ImageFormat imageFormat;
+            try (SimpleFileReadWriter readWriter = SimpleFileReadWriter.open(path, options)) {
+                imageFormat = readWriter.getFormat();
+                long start = System.nanoTime();
+                for (int i = 0; i < files; i++) {
+                    SimpleFile file = readWriter.createFile(new String[]{"file" + i}, false);
+                    readWriter.writeData(file, data);
+                }
+                writes = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < files; i++) {
+                    readWriter.readData(readWriter.getFile(new String[]{"file" + i}));
+                }
+                reads = System.nanoTime() - start;
+            }
+            double megabytes = (double) files * fileSize / 1024 / 1024;
+            System.out.printf("version %d block %6d iNode %5d %8.1f MB/s write %8.1f MB/s read image %7.1f MB%n",
+                    imageFormat.getVersion(), imageFormat.getBlockSize(), imageFormat.getINodeSize(),
+                    megabytes / (writes / 1e9), megabytes / (reads / 1e9), Files.size(path) / 1024.0 / 1024.0);
+            Files.delete(path);
+        }
+    }
+}
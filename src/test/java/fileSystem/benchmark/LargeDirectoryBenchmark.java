@@ -0,0 +1,52 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.SimpleSimpleFileSystem;
+import fileSystem.core.structure.DirectoryFormat;
+import fileSystem.core.structure.FileSystemOptions;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Creates, looks up and deletes files of one large directory in flat and indexed format.
+ * Arguments: [files] [files of flat directory]
+ */
+public class LargeDirectoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int flatFiles = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+        for (DirectoryFormat format : DirectoryFormat.values()) {
+            int count = format == DirectoryFormat.FLAT ? flatFiles : files;
+            String filePath = "largeDirectoryBenchmark.simple";
+            Files.deleteIfExists(Paths.get(filePath));
+            FileSystemOptions options = new FileSystemOptions();
+            options.setDirectoryFormat(format);
+            options.setDentryCacheSize(0);
+
+            try (SimpleSimpleFileSystem fileSystem = new SimpleSimpleFileSystem(filePath, options)) {
+                fileSystem.createDirectory("/dir");
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    fileSystem.createFile("/dir/file" + i);
+                }
+                long creates = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    fileSystem.getFile("/dir/file" + i);
+                }
+                long lookups = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    fileSystem.deleteFile("/dir/file" + i);
+                }
+                long deletes = System.nanoTime() - start;
+
+                System.out.printf("%-7s files=%7d %10.0f creates/s %10.0f lookups/s %10.0f deletes/s%n",
+                        format, count, count / (creates / 1e9), count / (lookups / 1e9), count / (deletes / 1e9));
+            }
+            Files.delete(Paths.get(filePath));
+        }
+    }
+}
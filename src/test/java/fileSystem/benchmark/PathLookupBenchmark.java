@@ -0,0 +1,65 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.SimpleSimpleFileSystem;
+import fileSystem.core.structure.DentryCache;
+import fileSystem.core.structure.DirectoryFilters;
+import fileSystem.core.structure.DirectoryFormat;
+import fileSystem.core.structure.FileSystemOptions;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Lookups per second of an existing and a missing deep path in wide directories
+ * of flat directories without caches, with the dentry cache and with directory filters too.
+ * Arguments: [depth] [siblings per directory] [lookups]
+ */
+public class PathLookupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int siblings = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        int[][] configs = {{0, 0}, {DentryCache.DEFAULT_CAPACITY, 0},
+                {DentryCache.DEFAULT_CAPACITY, DirectoryFilters.DEFAULT_CAPACITY}};
+        for (int[] config : configs) {
+            String filePath = "pathLookupBenchmark.simple";
+            Files.deleteIfExists(Paths.get(filePath));
+            FileSystemOptions options = new FileSystemOptions();
+            options.setDentryCacheSize(config[0]);
+            options.setDirectoryFilterCount(config[1]);
+            options.setDirectoryFormat(DirectoryFormat.FLAT);
+
+            try (SimpleSimpleFileSystem fileSystem = new SimpleSimpleFileSystem(filePath, options)) {
+                String path = "";
+                for (int level = 0; level < depth; level++) {
+                    for (int i = 0; i < siblings; i++) {
+                        fileSystem.createFile(path + "/file" + i);
+                    }
+                    path += "/dir" + level;
+                    fileSystem.createDirectory(path);
+                }
+                for (int i = 0; i < siblings; i++) {
+                    fileSystem.createFile(path + "/file" + i);
+                }
+                fileSystem.createFile(path + "/file");
+
+                long start = System.nanoTime();
+                for (int i = 0; i < lookups; i++) {
+                    fileSystem.getFile(path + "/file");
+                }
+                long hits = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < lookups; i++) {
+                    fileSystem.getFile(path + "/missing" + i);
+                }
+                long misses = System.nanoTime() - start;
+
+                System.out.printf("dentryCacheSize=%6d directoryFilterCount=%5d depth=%2d %12.0f hits/s %12.0f misses/s%n",
+                        config[0], config[1], depth, lookups / (hits / 1e9), lookups / (misses / 1e9));
+            }
+            Files.delete(Paths.get(filePath));
+        }
+    }
+}
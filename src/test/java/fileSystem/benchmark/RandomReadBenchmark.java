@@ -0,0 +1,55 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.structure.FileSystemOptions;
+import fileSystem.core.structure.SimpleFile;
+import fileSystem.core.structure.SimpleFileReadWriter;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Random reads of records of a large file with and without cached block indexes,
+ * blocks of files written with extents are found by extents either way.
+ * Arguments: [file size in MB] [record size] [reads]
+ */
+public class RandomReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 64) * 1024 * 1024;
+        int recordSize = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int reads = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        for (int blockIndexCount : new int[]{0, 16}) {
+            Path path = Paths.get("randomReadBenchmark.simple");
+            Files.deleteIfExists(path);
+            Files.createFile(path);
+            FileSystemOptions options = new FileSystemOptions();
+            options.setBlockIndexCount(blockIndexCount);
+            try (SimpleFileReadWriter readWriter = SimpleFileReadWriter.open(path, options)) {
+                SimpleFile file = readWriter.createFile(new String[]{"file"}, false);
+                try (OutputStream stream = readWriter.newOutputStream(file, false)) {
+                    byte[] buffer = new byte[8192];
+                    for (long written = 0; written < size; written += buffer.length) {
+                        stream.write(buffer);
+                    }
+                }
+                file = readWriter.getFile(new String[]{"file"});
+
+                Random random = new Random(1);
+                ByteBuffer record = ByteBuffer.allocate(recordSize);
+                long start = System.nanoTime();
+                for (int i = 0; i < reads; i++) {
+                    record.clear();
+                    file.read((long) (random.nextDouble() * (size - recordSize)), record);
+                }
+                long time = System.nanoTime() - start;
+                System.out.printf("blockIndexCount=%3d %10.0f reads/s%n", blockIndexCount, reads / (time / 1e9));
+            }
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.structure.base.BaseStructureReadWriter;
+import fileSystem.core.structure.base.Constants;
+import fileSystem.core.structure.base.SimpleBlock;
+import fileSystem.core.structure.base.StorageType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Random block reads and writes on a large image for every storage backend.
+ * Arguments: [image size in MB] [threads] [operations per thread]
+ */
+public class StorageBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long imageSize = (args.length > 0 ? Long.parseLong(args[0]) : 2048) * 1024 * 1024;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+        long blocks = imageSize / Constants.BLOCK_SIZE;
+
+        for (StorageType type : StorageType.values()) {
+            Path path = Paths.get("storageBenchmark.simple");
+            Files.deleteIfExists(path);
+            try (OutputStream os = Files.newOutputStream(path, CREATE_NEW, WRITE)) {
+            }
+            try (BaseStructureReadWriter readWriter = new BaseStructureReadWriter(type.open(path))) {
+                long start = System.nanoTime();
+                for (long i = 0; i < blocks; i++) {
+                    readWriter.allocateNewBlock();
+                }
+                report(type, "allocate", 1, blocks, System.nanoTime() - start);
+
+                report(type, "read", threads, (long) threads * operations,
+                        run(readWriter, threads, operations, blocks, false));
+                report(type, "write", threads, (long) threads * operations,
+                        run(readWriter, threads, operations, blocks, true));
+            }
+            Files.delete(path);
+        }
+    }
+
+    private static long run(final BaseStructureReadWriter readWriter, int threads, final int operations,
+                            final long blocks, final boolean write) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Throwable[] error = {null};
+        ArrayList<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            workers.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        latch.await();
+                        for (int i = 0; i < operations; i++) {
+                            long pos = (long) (random.nextDouble() * blocks) * Constants.BLOCK_SIZE;
+                            SimpleBlock block = readWriter.readBlock(pos);
+                            if (write) {
+                                block.setSize(i);
+                                readWriter.writeBlock(block);
+                            }
+                        }
+                    } catch (InterruptedException | IOException e) {
+                        error[0] = e;
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long start = System.nanoTime();
+        latch.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (error[0] != null)
+            throw new IllegalStateException(error[0]);
+        return elapsed;
+    }
+
+    private static void report(StorageType type, String operation, int threads, long count, long nanos) {
+        System.out.printf("%-10s %-8s threads=%-3d ops=%-10d %12.0f ops/s%n",
+                type, operation, threads, count, count / (nanos / 1e9));
+    }
+}
@@ -0,0 +1,55 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.structure.FileSystemOptions;
+import fileSystem.core.structure.SimpleFile;
+import fileSystem.core.structure.SimpleFileReadWriter;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Writes a large file through the output stream with and without periodic flushes, then reads it through the input stream.
+ * Arguments: [file size in MB] [bytes between flushes]
+ */
+public class StreamingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 64) * 1024 * 1024;
+        int flushInterval = args.length > 1 ? Integer.parseInt(args[1]) : 64 * 1024;
+
+        Path path = Paths.get("streamingBenchmark.simple");
+        Files.deleteIfExists(path);
+        Files.createFile(path);
+        byte[] buffer = new byte[8192];
+        try (SimpleFileReadWriter readWriter = SimpleFileReadWriter.open(path, new FileSystemOptions())) {
+            SimpleFile file = readWriter.createFile(new String[]{"file"}, false);
+            for (boolean flush : new boolean[]{false, true}) {
+                long start = System.nanoTime();
+                try (OutputStream stream = readWriter.newOutputStream(readWriter.getFile(file.getPath()), false)) {
+                    for (long written = 0; written < size; written += buffer.length) {
+                        stream.write(buffer);
+                        if (flush && (written + buffer.length) % flushInterval == 0)
+                            stream.flush();
+                    }
+                }
+                long time = System.nanoTime() - start;
+                System.out.printf("write %-14s %8.1f MB/s%n", flush ? "with flushes" : "", size / (time / 1e9) / (1024 * 1024));
+            }
+
+            long start = System.nanoTime();
+            long read = 0;
+            try (InputStream stream = readWriter.newInputStream(readWriter.getFile(file.getPath()))) {
+                int n;
+                while ((n = stream.read(buffer)) != -1) {
+                    read += n;
+                }
+            }
+            long time = System.nanoTime() - start;
+            System.out.printf("read  %-14s %8.1f MB/s%n", "", read / (time / 1e9) / (1024 * 1024));
+        }
+        Files.delete(path);
+    }
+}
@@ -0,0 +1,56 @@
+package fileSystem.benchmark;
+
+import fileSystem.core.structure.FileSystemOptions;
+import fileSystem.core.structure.SimpleFile;
+import fileSystem.core.structure.SimpleFileReadWriter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Creating, writing and reading many tiny files with data in blocks and inline in iNodes, and the image size after.
+ * Arguments: [directories] [files per directory] [file size]
+ */
+public class TinyFileBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int directories = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int fileSize = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        byte[] data = new byte[fileSize];
+
+        for (boolean inlineData : new boolean[]{false, true}) {
+            Path path = Paths.get("tinyFileBenchmark.simple");
+            Files.deleteIfExists(path);
+            Files.createFile(path);
+            FileSystemOptions options = new FileSystemOptions();
+            options.setInlineData(inlineData);
+            options.setGrowthSize(1024 * 1024);
+            long writes;
+            long reads;
+            try (SimpleFileReadWriter readWriter = SimpleFileReadWriter.open(path, options)) {
+                long start = System.nanoTime();
+                for (int d = 0; d < directories; d++) {
+                    readWriter.createFile(new String[]{"dir" + d}, true);
+                    for (int i = 0; i < files; i++) {
+                        SimpleFile file = readWriter.createFile(new String[]{"dir" + d, "file" + i}, false);
+                        readWriter.writeData(file, data);
+                    }
+                }
+                writes = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int d = 0; d < directories; d++) {
+                    for (int i = 0; i < files; i++) {
+                        readWriter.readData(readWriter.getFile(new String[]{"dir" + d, "file" + i}));
+                    }
+                }
+                reads = System.nanoTime() - start;
+            }
+            int count = directories * files;
+            System.out.printf("inlineData=%5s %10.0f creates/s %10.0f reads/s image %6.1f MB%n", inlineData,
+                    count / (writes / 1e9), count / (reads / 1e9), Files.size(path) / 1024.0 / 1024.0);
+            Files.delete(path);
+        }
+    }
+}
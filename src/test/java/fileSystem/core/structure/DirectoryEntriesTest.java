@@ -0,0 +1,60 @@
+package fileSystem.core.structure;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DirectoryEntriesTest {
+
+    @Test
+    public void put_ManyNames_AllGot() throws Exception {
+        //arrange
+        DirectoryEntries entries = new DirectoryEntries();
+
+        //act
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(-1, entries.put(("file" + i).getBytes("UTF-8"), i));
+        }
+        long previous = entries.put("file42".getBytes("UTF-8"), 4242);
+
+        //assert
+        assertEquals(10000, entries.size());
+        assertEquals(42, previous);
+        assertEquals(4242, entries.get("file42".getBytes("UTF-8")));
+        assertEquals(9999, entries.get("file9999".getBytes("UTF-8")));
+        assertFalse(entries.contains("file10000".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void remove_RandomChanges_SameAsHashMap() throws Exception {
+        //arrange
+        DirectoryEntries entries = new DirectoryEntries();
+        HashMap<String, Long> expected = new HashMap<>();
+        Random random = new Random(1);
+
+        //act
+        for (int i = 0; i < 20000; i++) {
+            String name = "name" + random.nextInt(2000);
+            if (random.nextBoolean()) {
+                Long previous = expected.put(name, (long) i);
+                assertEquals(previous == null ? -1 : previous, entries.put(name.getBytes("UTF-8"), i));
+            } else {
+                Long previous = expected.remove(name);
+                assertEquals(previous == null ? -1 : previous, entries.remove(name.getBytes("UTF-8")));
+            }
+        }
+
+        //assert
+        assertEquals(expected.size(), entries.size());
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            assertEquals((long) entry.getValue(), entries.get(entry.getKey().getBytes("UTF-8")));
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals((long) expected.get(entries.getName(i)), entries.getValue(i));
+        }
+    }
+}
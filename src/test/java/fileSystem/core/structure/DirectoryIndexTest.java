@@ -0,0 +1,107 @@
+package fileSystem.core.structure;
+
+import fileSystem.core.structure.base.BaseStructureReadWriter;
+import fileSystem.core.structure.base.PositionalStorage;
+import fileSystem.core.structure.base.SpaceAllocator;
+import fileSystem.core.structure.base.Storage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.Assert.*;
+
+public class DirectoryIndexTest {
+    String filePath = "fileSystem.simple";
+    BaseStructureReadWriter readWriter;
+    DirectoryIndex directoryIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        filePath += new Random().nextInt();
+        Storage storage = new PositionalStorage(FileChannel.open(Paths.get(filePath), CREATE_NEW, WRITE, READ));
+        readWriter = new BaseStructureReadWriter(storage, 0, 0, null, 0);
+        directoryIndex = new DirectoryIndex(readWriter, new SpaceAllocator(readWriter, true));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        readWriter.close();
+        Files.delete(Paths.get(filePath));
+    }
+
+    @Test
+    public void put_ManyNames_AllGot() throws Exception {
+        //arrange
+        long root = directoryIndex.create();
+
+        //act
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(directoryIndex.put(root, "file" + i, i));
+        }
+
+        //assert
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, directoryIndex.get(root, "file" + i));
+        }
+        assertEquals(-1, directoryIndex.get(root, "missing"));
+        assertFalse(directoryIndex.put(root, "file0", 42));
+        assertTrue(directoryIndex.getBlocks(root).length > 1);
+        assertTrue(directoryIndex.isIndex(root));
+    }
+
+    @Test
+    public void put_LongNames_SplitIntoBlocks() throws Exception {
+        //arrange
+        long root = directoryIndex.create();
+        char[] chars = new char[DirectoryIndex.MAX_NAME_LENGTH - 4];
+        Arrays.fill(chars, 'n');
+        String prefix = new String(chars);
+
+        //act
+        for (int i = 0; i < 100; i++) {
+            directoryIndex.put(root, prefix + i, i);
+        }
+        DirectoryEntries children = directoryIndex.readAll(root);
+        long[] blocks = directoryIndex.getBlocks(root);
+
+        //assert
+        assertEquals(100, children.size());
+        assertEquals(50, children.get((prefix + 50).getBytes("UTF-8")));
+        assertEquals(99, directoryIndex.get(root, prefix + 99));
+        assertTrue(blocks.length > 100);
+        HashSet<Long> distinct = new HashSet<>();
+        for (long block : blocks) {
+            distinct.add(block);
+        }
+        assertEquals(blocks.length, distinct.size());
+    }
+
+    @Test
+    public void remove_AllNames_Empty() throws Exception {
+        //arrange
+        long root = directoryIndex.create();
+        for (int i = 0; i < 1000; i++) {
+            directoryIndex.put(root, "file" + i, i);
+        }
+
+        //act
+        boolean removed = true;
+        for (int i = 0; i < 1000; i++) {
+            removed &= directoryIndex.remove(root, "file" + i);
+        }
+
+        //assert
+        assertTrue(removed);
+        assertFalse(directoryIndex.remove(root, "file0"));
+        assertTrue(directoryIndex.isEmpty(root));
+        assertEquals(0, directoryIndex.readAll(root).size());
+    }
+}
@@ -0,0 +1,69 @@
+package fileSystem.core.structure;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DirectoryParserTest {
+    DirectoryParser directoryParser = new DirectoryParser();
+
+    @Test
+    public void lookup_ExistingNames_PositionsFound() throws Exception {
+        //arrange
+        DirectoryEntries children = new DirectoryEntries();
+        for (long i = 0; i < 100; i++) {
+            children.put(directoryParser.getBytes("file" + i), i * 1024);
+        }
+        children.put(directoryParser.getBytes("\u0438\u043c\u044f"), 7);
+        byte[] data = directoryParser.toBytes(children);
+
+        //act
+        long first = directoryParser.lookup(data, directoryParser.getBytes("file0"));
+        long last = directoryParser.lookup(data, directoryParser.getBytes("file99"));
+        long unicode = directoryParser.lookup(data, directoryParser.getBytes("\u0438\u043c\u044f"));
+
+        //assert
+        assertEquals(0, first);
+        assertEquals(99 * 1024, last);
+        assertEquals(7, unicode);
+    }
+
+    @Test
+    public void lookup_MissingOrPrefixName_MinusOne() throws Exception {
+        //arrange
+        DirectoryEntries children = new DirectoryEntries();
+        children.put(directoryParser.getBytes("file10"), 1);
+        byte[] data = directoryParser.toBytes(children);
+        byte[] empty = directoryParser.toBytes(new DirectoryEntries());
+
+        //act
+        long prefix = directoryParser.lookup(data, directoryParser.getBytes("file1"));
+        long longer = directoryParser.lookup(data, directoryParser.getBytes("file100"));
+        long inEmpty = directoryParser.lookup(empty, directoryParser.getBytes("file10"));
+
+        //assert
+        assertEquals(-1, prefix);
+        assertEquals(-1, longer);
+        assertEquals(-1, inEmpty);
+    }
+
+    @Test
+    public void fromBytes_EncodedEntries_SameEntries() throws Exception {
+        //arrange
+        DirectoryEntries children = new DirectoryEntries();
+        for (long i = 0; i < 1000; i++) {
+            children.put(directoryParser.getBytes("file" + i), i);
+        }
+        children.remove(directoryParser.getBytes("file500"));
+
+        //act
+        DirectoryEntries parsed = directoryParser.fromBytes(directoryParser.toBytes(children));
+
+        //assert
+        assertEquals(999, parsed.size());
+        assertEquals(-1, parsed.get(directoryParser.getBytes("file500")));
+        for (int i = 0; i < parsed.size(); i++) {
+            assertEquals("file" + parsed.getValue(i), parsed.getName(i));
+        }
+    }
+}
@@ -1,18 +1,32 @@
 package fileSystem.core.structure;
 
+import fileSystem.core.structure.base.BaseStructureReadWriter;
+import fileSystem.core.structure.base.ChannelStorage;
+import fileSystem.core.structure.base.Constants;
+import fileSystem.core.structure.base.Durability;
+import fileSystem.core.structure.base.ImageFormat;
+import fileSystem.core.structure.base.SimpleINode;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.nio.file.StandardOpenOption.*;
 import static junit.framework.Assert.assertEquals;
@@ -48,6 +62,26 @@ public class SimpleFileReadWriterTest {
         Files.delete(Paths.get(filePath));
     }
 
+    private void reopen(DirectoryFormat directoryFormat) throws Exception {
+        FileSystemOptions options = new FileSystemOptions();
+        options.setDirectoryFormat(directoryFormat);
+        reopen(options);
+    }
+
+    private void reopen(FileSystemOptions options) throws Exception {
+        simpleFileReadWriter.close();
+        SeekableByteChannel channel = Files.newByteChannel(Paths.get(filePath), WRITE, READ);
+        simpleFileReadWriter = new SimpleFileReadWriter(new ChannelStorage(channel), options);
+    }
+
+    private void recreate(FileSystemOptions options) throws Exception {
+        simpleFileReadWriter.close();
+        Files.delete(Paths.get(filePath));
+        Files.createFile(Paths.get(filePath));
+        SeekableByteChannel channel = Files.newByteChannel(Paths.get(filePath), WRITE, READ);
+        simpleFileReadWriter = new SimpleFileReadWriter(new ChannelStorage(channel), options);
+    }
+
     @Test
     public void getFile_RootDirectory_Exists() throws Exception {
         //arrange
@@ -134,6 +168,7 @@ public class SimpleFileReadWriterTest {
 
         //assert
         assertArrayEquals(data, simpleFileReadWriter.readData(createdFile));
+        assertEquals(data.length, simpleFileReadWriter.getFile(path).getTotalSize());
     }
 
     @Test
@@ -175,6 +210,844 @@ public class SimpleFileReadWriterTest {
         assertEquals(0, simpleFileReadWriter.readDirectoryData(file2).size());
     }
 
+    @Test
+    public void getFile_DeepPathTwice_SecondFromDentryCache() throws Exception {
+        //arrange
+        simpleFileReadWriter.createFile(new String[]{"a"}, true);
+        simpleFileReadWriter.createFile(new String[]{"a", "b"}, true);
+        simpleFileReadWriter.createFile(new String[]{"a", "b", "c"}, false);
+        simpleFileReadWriter.getFile(new String[]{"a", "b", "c"});
+        DentryCache cache = simpleFileReadWriter.getDentryCache();
+        long hits = cache.getHits();
+
+        //act
+        SimpleFile file = simpleFileReadWriter.getFile(new String[]{"a", "b", "c"});
+
+        //assert
+        assertNotNull(file);
+        assertEquals("c", file.getName());
+        assertEquals(hits + 1, cache.getHits());
+    }
+
+    @Test
+    public void getFile_CachedPathDeletedAndCreated_NewFileGot() throws Exception {
+        //arrange
+        simpleFileReadWriter.createFile(new String[]{"a"}, true);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"a", "b"}, false);
+        simpleFileReadWriter.writeData(file, new byte[]{1, 2, 3});
+        simpleFileReadWriter.getFile(new String[]{"a", "b"});
+
+        //act
+        simpleFileReadWriter.deleteFile(simpleFileReadWriter.getFile(new String[]{"a", "b"}));
+        SimpleFile deleted = simpleFileReadWriter.getFile(new String[]{"a", "b"});
+        simpleFileReadWriter.createFile(new String[]{"a", "b"}, true);
+        SimpleFile created = simpleFileReadWriter.getFile(new String[]{"a", "b"});
+
+        //assert
+        assertNull(deleted);
+        assertTrue(created instanceof SimpleDirectory);
+        assertEquals(0, simpleFileReadWriter.readDirectoryData((SimpleDirectory) created).size());
+    }
+
+    @Test
+    public void getFile_MissingName_AnsweredByDirectoryFilter() throws Exception {
+        //arrange
+        reopen(DirectoryFormat.FLAT);
+        simpleFileReadWriter.createFile(new String[]{"a"}, true);
+        simpleFileReadWriter.getFile(new String[]{"a", "missing0"});
+        DirectoryFilters filters = simpleFileReadWriter.getDirectoryFilters();
+        long negatives = filters.getNegatives();
+
+        //act
+        int found = 0;
+        for (int i = 1; i <= 100; i++) {
+            if (simpleFileReadWriter.getFile(new String[]{"a", "missing" + i}) != null)
+                found++;
+        }
+
+        //assert
+        assertEquals(0, found);
+        assertTrue(filters.getNegatives() - negatives > 90);
+    }
+
+    @Test
+    public void getFile_NamesAddedAfterFilterBuilt_Found() throws Exception {
+        //arrange
+        reopen(DirectoryFormat.FLAT);
+        simpleFileReadWriter.createFile(new String[]{"a"}, true);
+        simpleFileReadWriter.getFile(new String[]{"a", "missing"});
+
+        //act
+        for (int i = 0; i < 100; i++) {
+            simpleFileReadWriter.createFile(new String[]{"a", "file" + i}, false);
+        }
+        simpleFileReadWriter.deleteFile(simpleFileReadWriter.getFile(new String[]{"a", "file0"}));
+
+        //assert
+        assertNull(simpleFileReadWriter.getFile(new String[]{"a", "file0"}));
+        for (int i = 1; i < 100; i++) {
+            assertNotNull(simpleFileReadWriter.getFile(new String[]{"a", "file" + i}));
+        }
+    }
+
+    @Test
+    public void getFile_MissingNameInIndexedDirectory_AnsweredByDirectoryFilter() throws Exception {
+        //arrange
+        simpleFileReadWriter.createFile(new String[]{"a"}, true);
+        for (int i = 0; i < 500; i++) {
+            simpleFileReadWriter.createFile(new String[]{"a", "file" + i}, false);
+        }
+        simpleFileReadWriter.getDirectoryFilters().remove(simpleFileReadWriter.getFile(new String[]{"a"}).iNode.getCurPos());
+        simpleFileReadWriter.getFile(new String[]{"a", "missing0"});
+        simpleFileReadWriter.createFile(new String[]{"a", "file500"}, false);
+        DirectoryFilters filters = simpleFileReadWriter.getDirectoryFilters();
+        long negatives = filters.getNegatives();
+
+        //act
+        int found = 0;
+        for (int i = 1; i <= 100; i++) {
+            if (simpleFileReadWriter.getFile(new String[]{"a", "missing" + i}) != null)
+                found++;
+        }
+
+        //assert
+        assertEquals(0, found);
+        assertTrue(filters.getNegatives() - negatives > 90);
+        for (int i = 0; i <= 500; i++) {
+            assertNotNull(simpleFileReadWriter.getFile(new String[]{"a", "file" + i}));
+        }
+    }
+
+    @Test
+    public void createFile_ManyFilesInIndexedDirectory_AllFound() throws Exception {
+        //arrange
+        simpleFileReadWriter.createFile(new String[]{"a"}, true);
+
+        //act
+        for (int i = 0; i < 3000; i++) {
+            simpleFileReadWriter.createFile(new String[]{"a", "file" + i}, false);
+        }
+        for (int i = 0; i < 3000; i += 2) {
+            simpleFileReadWriter.deleteFile(simpleFileReadWriter.getFile(new String[]{"a", "file" + i}));
+        }
+
+        //assert
+        for (int i = 0; i < 3000; i++) {
+            SimpleFile file = simpleFileReadWriter.getFile(new String[]{"a", "file" + i});
+            assertEquals(i % 2 == 1, file != null);
+        }
+        assertEquals(1500, simpleFileReadWriter.readDirectoryData((SimpleDirectory) simpleFileReadWriter.getFile(new String[]{"a"})).size());
+    }
+
+    @Test
+    public void createFile_FlatDirectoryOpenedAsIndexed_Converted() throws Exception {
+        //arrange
+        FileSystemOptions older = new FileSystemOptions();
+        older.setDirectoryFormat(DirectoryFormat.FLAT);
+        older.setInlineData(false);
+        reopen(older);
+        simpleFileReadWriter.createFile(new String[]{"a"}, true);
+        simpleFileReadWriter.createFile(new String[]{"a", "b"}, true);
+        for (int i = 0; i < 100; i++) {
+            simpleFileReadWriter.createFile(new String[]{"a", "file" + i}, false);
+        }
+
+        //act
+        reopen(DirectoryFormat.INDEXED);
+        simpleFileReadWriter.createFile(new String[]{"a", "file100"}, false);
+        int converted = simpleFileReadWriter.convertDirectories();
+
+        //assert
+        assertEquals(2, converted);
+        assertEquals(102, simpleFileReadWriter.readDirectoryData((SimpleDirectory) simpleFileReadWriter.getFile(new String[]{"a"})).size());
+        for (int i = 0; i <= 100; i++) {
+            assertNotNull(simpleFileReadWriter.getFile(new String[]{"a", "file" + i}));
+        }
+        assertEquals(0, simpleFileReadWriter.convertDirectories());
+    }
+
+    @Test
+    public void newInputStream_ManyBlocks_SameData() throws Exception {
+        //arrange
+        byte[] data = new byte[100000];
+        new Random().nextBytes(data);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        simpleFileReadWriter.writeData(file, data);
+
+        //act
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (InputStream stream = simpleFileReadWriter.newInputStream(simpleFileReadWriter.getFile(new String[]{"test1"}))) {
+            read.write(stream.read());
+            byte[] buffer = new byte[777];
+            int n;
+            while ((n = stream.read(buffer)) != -1) {
+                read.write(buffer, 0, n);
+            }
+        }
+
+        //assert
+        assertArrayEquals(data, read.toByteArray());
+    }
+
+    @Test
+    public void newInputStream_FileChangedWhileReading_ExceptionRaised() throws Exception {
+        //arrange
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        simpleFileReadWriter.writeData(file, new byte[100000]);
+        InputStream stream = simpleFileReadWriter.newInputStream(simpleFileReadWriter.getFile(new String[]{"test1"}));
+        stream.read(new byte[1000]);
+
+        //act
+        simpleFileReadWriter.writeData(simpleFileReadWriter.getFile(new String[]{"test1"}), new byte[100000]);
+        IllegalStateException error = null;
+        try {
+            while (stream.read(new byte[1000]) != -1) {
+            }
+        } catch (IllegalStateException e) {
+            error = e;
+        }
+
+        //assert
+        assertNotNull(error);
+    }
+
+    @Test
+    public void newOutputStream_WritesOfManySizes_SameData() throws Exception {
+        //arrange
+        byte[] data = new byte[100000];
+        Random random = new Random();
+        random.nextBytes(data);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        simpleFileReadWriter.writeData(file, new byte[3000]);
+
+        //act
+        try (OutputStream stream = simpleFileReadWriter.newOutputStream(simpleFileReadWriter.getFile(new String[]{"test1"}), false)) {
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(data.length - offset, random.nextBoolean() ? 1 : random.nextInt(3000));
+                if (length == 1)
+                    stream.write(data[offset]);
+                else
+                    stream.write(data, offset, length);
+                offset += length;
+            }
+        }
+        SimpleFile written = simpleFileReadWriter.getFile(new String[]{"test1"});
+
+        //assert
+        assertArrayEquals(data, simpleFileReadWriter.readData(written));
+        assertEquals(data.length, written.getTotalSize());
+    }
+
+    @Test
+    public void newOutputStream_FlushedAndAppended_DataInFile() throws Exception {
+        //arrange
+        byte[] data = new byte[1500];
+        new Random().nextBytes(data);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        OutputStream stream = simpleFileReadWriter.newOutputStream(file, false);
+        stream.write(data, 0, 700);
+
+        //act
+        stream.flush();
+        byte[] flushed = simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"test1"}));
+        stream.close();
+        try (OutputStream appended = simpleFileReadWriter.newOutputStream(simpleFileReadWriter.getFile(new String[]{"test1"}), true)) {
+            appended.write(data, 700, 800);
+        }
+
+        //assert
+        assertArrayEquals(Arrays.copyOf(data, 700), flushed);
+        assertArrayEquals(data, simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"test1"})));
+    }
+
+    @Test
+    public void read_RandomRanges_SameAsData() throws Exception {
+        //arrange
+        byte[] data = new byte[100000];
+        Random random = new Random();
+        random.nextBytes(data);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        simpleFileReadWriter.writeData(file, data);
+        file = simpleFileReadWriter.getFile(new String[]{"test1"});
+
+        for (int i = 0; i < 100; i++) {
+            //act
+            int position = random.nextInt(data.length);
+            ByteBuffer dst = ByteBuffer.allocate(random.nextInt(5000) + 1);
+            int read = file.read(position, dst);
+
+            //assert
+            assertEquals(Math.min(dst.capacity(), data.length - position), read);
+            assertArrayEquals(Arrays.copyOfRange(data, position, position + read), Arrays.copyOf(dst.array(), read));
+        }
+        assertEquals(-1, file.read(data.length, ByteBuffer.allocate(10)));
+    }
+
+    @Test
+    public void read_FileRewritten_NewDataRead() throws Exception {
+        //arrange
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        simpleFileReadWriter.writeData(file, new byte[10000]);
+        file = simpleFileReadWriter.getFile(new String[]{"test1"});
+        file.read(5000, ByteBuffer.allocate(10));
+        byte[] data = new byte[20000];
+        new Random().nextBytes(data);
+
+        //act
+        simpleFileReadWriter.writeData(simpleFileReadWriter.getFile(new String[]{"test1"}), data);
+        ByteBuffer dst = ByteBuffer.allocate(10);
+        int read = file.read(15000, dst);
+
+        //assert
+        assertEquals(10, read);
+        assertArrayEquals(Arrays.copyOfRange(data, 15000, 15010), dst.array());
+    }
+
+    @Test
+    public void write_RandomWritesAndAppends_SameAsModel() throws Exception {
+        //arrange
+        Random random = new Random();
+        byte[] model = new byte[0];
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        file = simpleFileReadWriter.getFile(new String[]{"test1"});
+
+        for (int i = 0; i < 200; i++) {
+            //act
+            byte[] data = new byte[random.nextInt(3000)];
+            random.nextBytes(data);
+            int position;
+            if (random.nextBoolean()) {
+                position = model.length;
+                file.append(ByteBuffer.wrap(data));
+            } else {
+                position = random.nextInt(model.length + 1000);
+                file.write(position, ByteBuffer.wrap(data));
+            }
+            if (data.length > 0) {
+                model = Arrays.copyOf(model, Math.max(model.length, position + data.length));
+                System.arraycopy(data, 0, model, position, data.length);
+            }
+
+            //assert
+            assertEquals(model.length, file.getTotalSize());
+            ByteBuffer dst = ByteBuffer.allocate(100);
+            int from = random.nextInt(model.length + 1);
+            int read = file.read(from, dst);
+            assertArrayEquals(Arrays.copyOfRange(model, from, from + Math.max(0, read)), Arrays.copyOf(dst.array(), Math.max(0, read)));
+        }
+        assertArrayEquals(model, simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"test1"})));
+    }
+
+    @Test
+    public void write_InlineFileFarOffset_SpilledToBlocks() throws Exception {
+        //arrange
+        simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        SimpleFile file = simpleFileReadWriter.getFile(new String[]{"test1"});
+        file.append(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        boolean inline = file.iNode.hasInlineData();
+        byte[] data = new byte[100];
+        new Random().nextBytes(data);
+
+        //act
+        file.write(100000, ByteBuffer.wrap(data));
+
+        //assert
+        assertTrue(inline);
+        assertFalse(file.iNode.hasInlineData());
+        assertEquals(100100, file.getTotalSize());
+        byte[] model = new byte[100100];
+        model[0] = 1;
+        model[1] = 2;
+        model[2] = 3;
+        System.arraycopy(data, 0, model, 100000, data.length);
+        assertArrayEquals(model, simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"test1"})));
+    }
+
+    @Test
+    public void write_EmptyFileWithoutBlocks_Appended() throws Exception {
+        //arrange
+        FileSystemOptions options = new FileSystemOptions();
+        options.setInlineData(false);
+        recreate(options);
+        long pos = simpleFileReadWriter.createFile(new String[]{"test1"}, false).iNode.getCurPos();
+        simpleFileReadWriter.close();
+        try (BaseStructureReadWriter readWriter = new BaseStructureReadWriter(
+                Files.newByteChannel(Paths.get(filePath), WRITE, READ))) {
+            //file of an image which keeps empty files without blocks
+            SimpleINode iNode = readWriter.readINode(pos);
+            iNode.clearLayout();
+            iNode.setFirstDataBlock(-1);
+            iNode.setLastDataBlock(-1);
+            readWriter.writeINode(iNode);
+        }
+        simpleFileReadWriter = new SimpleFileReadWriter(
+                new ChannelStorage(Files.newByteChannel(Paths.get(filePath), WRITE, READ)), options);
+        SimpleFile file = simpleFileReadWriter.getFile(new String[]{"test1"});
+
+        //act
+        file.write(10, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+
+        //assert
+        assertEquals(13, file.getTotalSize());
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3},
+                simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"test1"})));
+    }
+
+    @Test
+    public void append_FileChangedByOtherHandle_ExceptionRaised() throws Exception {
+        //arrange
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        SimpleFile other = simpleFileReadWriter.getFile(new String[]{"test1"});
+        file = simpleFileReadWriter.getFile(new String[]{"test1"});
+        other.append(ByteBuffer.wrap(new byte[]{1}));
+
+        //act
+        IllegalStateException error = null;
+        try {
+            file.append(ByteBuffer.wrap(new byte[]{2}));
+        } catch (IllegalStateException e) {
+            error = e;
+        }
+
+        //assert
+        assertNotNull(error);
+        assertArrayEquals(new byte[]{1}, simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"test1"})));
+    }
+
+    @Test
+    public void newOutputStream_FileChangedByOtherHandle_ExceptionRaised() throws Exception {
+        //arrange
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        SimpleFile other = simpleFileReadWriter.getFile(new String[]{"test1"});
+        file = simpleFileReadWriter.getFile(new String[]{"test1"});
+        other.append(ByteBuffer.wrap(new byte[]{1}));
+
+        //act
+        IllegalStateException error = null;
+        try {
+            simpleFileReadWriter.newOutputStream(file, false).close();
+        } catch (IllegalStateException e) {
+            error = e;
+        }
+
+        //assert
+        assertNotNull(error);
+        assertArrayEquals(new byte[]{1}, simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"test1"})));
+    }
+
+    @Test
+    public void append_InterleavedFiles_ExtentsKeptInExtentBlocks() throws Exception {
+        //arrange
+        Random random = new Random();
+        int blockDataSize = simpleFileReadWriter.getFormat().getBlockDataSize();
+        byte[][] models = new byte[2][blockDataSize * 300];
+        random.nextBytes(models[0]);
+        random.nextBytes(models[1]);
+        SimpleFile[] files = new SimpleFile[2];
+        for (int i = 0; i < files.length; i++) {
+            simpleFileReadWriter.createFile(new String[]{"test" + i}, false);
+            files[i] = simpleFileReadWriter.getFile(new String[]{"test" + i});
+        }
+
+        //act
+        for (int k = 0; k < 300; k++) {
+            for (int i = 0; i < files.length; i++) {
+                files[i].append(ByteBuffer.wrap(models[i], k * blockDataSize, blockDataSize));
+            }
+        }
+        reopen(DirectoryFormat.INDEXED);
+
+        //assert
+        SimpleFile file = simpleFileReadWriter.getFile(new String[]{"test0"});
+        assertTrue(file.iNode.getExtentCount() > file.iNode.getInlineExtentCapacity());
+        assertTrue(file.iNode.getExtentBlocks().length > 0);
+        for (int i = 0; i < 100; i++) {
+            int position = random.nextInt(models[0].length);
+            ByteBuffer dst = ByteBuffer.allocate(random.nextInt(2000) + 1);
+            int read = file.read(position, dst);
+            assertArrayEquals(Arrays.copyOfRange(models[0], position, position + read), Arrays.copyOf(dst.array(), read));
+        }
+        assertArrayEquals(models[1], simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"test1"})));
+    }
+
+    @Test
+    public void convertChains_FileOfOlderImage_ListedByExtents() throws Exception {
+        //arrange
+        byte[] data = new byte[10000];
+        new Random().nextBytes(data);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        simpleFileReadWriter.writeData(file, data);
+        long pos = simpleFileReadWriter.getFile(new String[]{"test1"}).iNode.getCurPos();
+        simpleFileReadWriter.close();
+        //images written before extents have zeros after the directory flag
+        try (SeekableByteChannel channel = Files.newByteChannel(Paths.get(filePath), WRITE, READ)) {
+            channel.position(pos + 41);
+            channel.write(ByteBuffer.allocate(1));
+        }
+        simpleFileReadWriter = new SimpleFileReadWriter(Files.newByteChannel(Paths.get(filePath), WRITE, READ));
+        assertFalse(simpleFileReadWriter.getFile(new String[]{"test1"}).iNode.hasExtents());
+
+        //act
+        int converted = simpleFileReadWriter.convertChains();
+
+        //assert
+        assertEquals(1, converted);
+        file = simpleFileReadWriter.getFile(new String[]{"test1"});
+        assertTrue(file.iNode.hasExtents());
+        ByteBuffer dst = ByteBuffer.allocate(100);
+        file.read(7000, dst);
+        assertArrayEquals(Arrays.copyOfRange(data, 7000, 7100), dst.array());
+        assertEquals(0, simpleFileReadWriter.convertChains());
+    }
+
+    @Test
+    public void writeData_TinyFile_KeptInline() throws Exception {
+        //arrange
+        byte[] data = new byte[100];
+        new Random().nextBytes(data);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+
+        //act
+        simpleFileReadWriter.writeData(file, data);
+        reopen(DirectoryFormat.INDEXED);
+
+        //assert
+        file = simpleFileReadWriter.getFile(new String[]{"test1"});
+        assertTrue(file.iNode.hasInlineData());
+        assertEquals(-1, file.iNode.getFirstDataBlock());
+        assertArrayEquals(data, simpleFileReadWriter.readData(file));
+        ByteBuffer dst = ByteBuffer.allocate(30);
+        assertEquals(20, file.read(80, dst));
+        assertArrayEquals(Arrays.copyOfRange(data, 80, 100), Arrays.copyOf(dst.array(), 20));
+    }
+
+    @Test
+    public void append_InlineFileOutgrowsINode_SpilledToBlocks() throws Exception {
+        //arrange
+        simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        SimpleFile file = simpleFileReadWriter.getFile(new String[]{"test1"});
+        byte[] data = new byte[file.iNode.getInlineDataCapacity() + 1000];
+        new Random().nextBytes(data);
+
+        //act
+        file.append(ByteBuffer.wrap(data, 0, 100));
+        boolean inline = file.iNode.hasInlineData();
+        file.append(ByteBuffer.wrap(data, 100, data.length - 100));
+
+        //assert
+        assertTrue(inline);
+        assertFalse(file.iNode.hasInlineData());
+        assertTrue(file.iNode.hasExtents());
+        assertArrayEquals(data, simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"test1"})));
+    }
+
+    @Test
+    public void newOutputStream_SmallThenLargeData_InlineThenSpilled() throws Exception {
+        //arrange
+        byte[] data = new byte[5000];
+        new Random().nextBytes(data);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+
+        //act
+        try (OutputStream stream = simpleFileReadWriter.newOutputStream(file, false)) {
+            stream.write(data, 0, 300);
+        }
+        boolean inline = simpleFileReadWriter.getFile(new String[]{"test1"}).iNode.hasInlineData();
+        try (OutputStream stream = simpleFileReadWriter.newOutputStream(simpleFileReadWriter.getFile(new String[]{"test1"}), true)) {
+            for (int i = 300; i < data.length; i += 700) {
+                stream.write(data, i, Math.min(700, data.length - i));
+            }
+        }
+
+        //assert
+        assertTrue(inline);
+        file = simpleFileReadWriter.getFile(new String[]{"test1"});
+        assertFalse(file.iNode.hasInlineData());
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (InputStream stream = simpleFileReadWriter.newInputStream(file)) {
+            byte[] buffer = new byte[1000];
+            for (int n; (n = stream.read(buffer)) != -1; ) {
+                read.write(buffer, 0, n);
+            }
+        }
+        assertArrayEquals(data, read.toByteArray());
+    }
+
+    @Test
+    public void createFile_InlineDirectoryOutgrowsINode_AllFound() throws Exception {
+        //arrange
+        simpleFileReadWriter.createFile(new String[]{"a"}, true);
+        boolean inline = simpleFileReadWriter.getFile(new String[]{"a"}).iNode.hasInlineData();
+
+        //act
+        for (int i = 0; i < 200; i++) {
+            simpleFileReadWriter.createFile(new String[]{"a", "file" + i}, false);
+        }
+
+        //assert
+        assertTrue(inline);
+        SimpleFile dir = simpleFileReadWriter.getFile(new String[]{"a"});
+        assertFalse(dir.iNode.hasInlineData());
+        assertEquals(200, simpleFileReadWriter.readDirectoryData((SimpleDirectory) dir).size());
+        for (int i = 0; i < 200; i++) {
+            assertNotNull(simpleFileReadWriter.getFile(new String[]{"a", "file" + i}));
+        }
+    }
+
+    @Test
+    public void new_NotClosedBefore_FreeSpaceRebuilt() throws Exception {
+        //arrange
+        byte[] data = new byte[2000];
+        new Random().nextBytes(data);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        simpleFileReadWriter.writeData(file, data);
+        simpleFileReadWriter.flush();
+
+        //act
+        SimpleFileReadWriter reopened = new SimpleFileReadWriter(Files.newByteChannel(Paths.get(filePath), WRITE, READ));
+        try {
+            SimpleFile file2 = reopened.createFile(new String[]{"test2"}, false);
+            reopened.writeData(file2, new byte[3000]);
+
+            //assert
+            assertArrayEquals(data, reopened.readData(reopened.getFile(new String[]{"test1"})));
+            assertEquals(2, reopened.readDirectoryData((SimpleDirectory) reopened.getFile(new String[0])).size());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void new_NewImageNotClosed_Reopened() throws Exception {
+        for (int version : new int[]{ImageFormat.VERSION_1, ImageFormat.VERSION_2}) {
+            //arrange
+            Path path = Paths.get(filePath + ".new");
+            Files.createFile(path);
+            FileSystemOptions options = new FileSystemOptions();
+            options.setFormatVersion(version);
+            SeekableByteChannel channel = Files.newByteChannel(path, WRITE, READ);
+            new SimpleFileReadWriter(new ChannelStorage(channel), options);
+            channel.close();
+
+            //act
+            SimpleFileReadWriter reopened = new SimpleFileReadWriter(Files.newByteChannel(path, WRITE, READ));
+            try {
+                SimpleFile file = reopened.createFile(new String[]{"test1"}, false);
+                reopened.writeData(file, new byte[3000]);
+
+                //assert
+                assertEquals(version, reopened.getFormat().getVersion());
+                SimpleDirectory root = (SimpleDirectory) reopened.getFile(new String[0]);
+                assertEquals(1, reopened.readDirectoryData(root).size());
+                assertEquals(3000, reopened.readData(reopened.getFile(new String[]{"test1"})).length);
+            } finally {
+                reopened.close();
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void writeData_PeriodicForceFailed_ExceptionRaised() throws Exception {
+        //arrange
+        FileSystemOptions options = new FileSystemOptions();
+        options.setDurability(Durability.PERIODIC);
+        options.setForceInterval(10);
+        final CountDownLatch failures = new CountDownLatch(2);
+        final AtomicBoolean failing = new AtomicBoolean();
+        simpleFileReadWriter.close();
+        SeekableByteChannel channel = Files.newByteChannel(Paths.get(filePath), WRITE, READ);
+        simpleFileReadWriter = new SimpleFileReadWriter(new ChannelStorage(channel) {
+            @Override
+            public void force() throws IOException {
+                if (failing.get()) {
+                    failures.countDown();
+                    throw new IOException("Device is gone");
+                }
+                super.force();
+            }
+        }, options);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        failing.set(true);
+        failures.await(10, TimeUnit.SECONDS);
+
+        //act
+        IOException error = null;
+        try {
+            simpleFileReadWriter.writeData(file, new byte[]{1});
+        } catch (IOException e) {
+            error = e;
+        }
+
+        //assert
+        assertNotNull(error);
+        assertEquals(0, simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"test1"})).length);
+        failing.set(false);
+        try {
+            simpleFileReadWriter.close();
+        } catch (IOException e) {
+            //the failed force is reported by close too
+        }
+        channel = Files.newByteChannel(Paths.get(filePath), WRITE, READ);
+        simpleFileReadWriter = new SimpleFileReadWriter(new ChannelStorage(channel), new FileSystemOptions());
+    }
+
+    @Test
+    public void open_JournalNotClosedBefore_ChangesReplayed() throws Exception {
+        //arrange
+        String journalFilePath = filePath + ".j";
+        FileSystemOptions options = new FileSystemOptions();
+        options.setDurability(Durability.GROUP_COMMIT);
+        byte[] data = new byte[2000];
+        new Random().nextBytes(data);
+        Files.createFile(Paths.get(journalFilePath));
+        SimpleFileReadWriter journaled = SimpleFileReadWriter.open(Paths.get(journalFilePath), options);
+        SimpleFile file = journaled.createFile(new String[]{"test1"}, false);
+        journaled.writeData(file, data);
+
+        //act
+        SimpleFileReadWriter reopened = SimpleFileReadWriter.open(Paths.get(journalFilePath), options);
+        try {
+            //assert
+            assertArrayEquals(data, reopened.readData(reopened.getFile(new String[]{"test1"})));
+        } finally {
+            reopened.close();
+            Files.delete(Paths.get(journalFilePath));
+            Files.delete(Paths.get(journalFilePath + SimpleFileReadWriter.JOURNAL_SUFFIX));
+        }
+    }
+
+    @Test
+    public void open_CustomBlockAndINodeSize_FormatKeptAfterReopen() throws Exception {
+        //arrange
+        FileSystemOptions options = new FileSystemOptions();
+        options.setBlockSize(16 * 1024);
+        options.setINodeSize(256);
+        recreate(options);
+        byte[] data = new byte[100000];
+        new Random().nextBytes(data);
+        simpleFileReadWriter.createFile(new String[]{"dir"}, true);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"dir", "test1"}, false);
+        simpleFileReadWriter.writeData(file, data);
+
+        //act
+        reopen(new FileSystemOptions());
+
+        //assert
+        ImageFormat format = simpleFileReadWriter.getFormat();
+        assertEquals(ImageFormat.VERSION_2, format.getVersion());
+        assertEquals(16 * 1024, format.getBlockSize());
+        assertEquals(16 * 1024 - Constants.BLOCK_HEADER_SIZE, format.getBlockDataSize());
+        assertEquals(256, format.getINodeSize());
+        assertArrayEquals(data, simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"dir", "test1"})));
+    }
+
+    @Test
+    public void open_FormatVersion1_OlderLayoutKeptAfterReopen() throws Exception {
+        //arrange
+        FileSystemOptions options = new FileSystemOptions();
+        options.setFormatVersion(ImageFormat.VERSION_1);
+        recreate(options);
+        byte[] data = new byte[10000];
+        new Random().nextBytes(data);
+        SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test1"}, false);
+        simpleFileReadWriter.writeData(file, data);
+        SimpleFile second = simpleFileReadWriter.createFile(new String[]{"test2"}, false);
+
+        //act
+        reopen(new FileSystemOptions());
+
+        //assert
+        assertSame(ImageFormat.V1, simpleFileReadWriter.getFormat());
+        assertTrue(Math.abs(second.iNode.getCurPos() - file.iNode.getCurPos()) >= Constants.INODE_SIZE);
+        assertArrayEquals(data, simpleFileReadWriter.readData(simpleFileReadWriter.getFile(new String[]{"test1"})));
+    }
+
+    @Test
+    public void createFile_ManyFiles_INodesPackedIntoTables() throws Exception {
+        //arrange
+        ImageFormat format = simpleFileReadWriter.getFormat();
+        int count = 10 * format.getINodesPerBlock();
+        HashSet<Long> tables = new HashSet<>();
+
+        //act
+        for (int i = 0; i < count; i++) {
+            SimpleFile file = simpleFileReadWriter.createFile(new String[]{"test" + i}, false);
+            tables.add(format.recordOf(file.iNode.getCurPos()));
+        }
+        reopen(new FileSystemOptions());
+
+        //assert
+        assertEquals(11, tables.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(simpleFileReadWriter.getFile(new String[]{"test" + i}) != null);
+        }
+    }
+
+    @Test
+    public void deleteFile_INodeSlotFreed_ReusedAfterReopen() throws Exception {
+        //arrange
+        ImageFormat format = simpleFileReadWriter.getFormat();
+        long rootTable = format.recordOf(simpleFileReadWriter.getFile(new String[0]).iNode.getCurPos());
+        for (int i = 0; i < 2 * format.getINodesPerBlock(); i++) {
+            simpleFileReadWriter.createFile(new String[]{"test" + i}, false);
+        }
+        SimpleFile deleted = simpleFileReadWriter.getFile(new String[]{"test1"});
+        simpleFileReadWriter.deleteFile(deleted);
+
+        //act
+        reopen(new FileSystemOptions());
+        SimpleFile created = simpleFileReadWriter.createFile(new String[]{"new"}, false);
+
+        //assert
+        assertEquals(rootTable, format.recordOf(deleted.iNode.getCurPos()));
+        assertEquals(deleted.iNode.getCurPos(), created.iNode.getCurPos());
+    }
+
+    @Test
+    public void readDirectoryData_StaleHandleReadConcurrently_AllChildrenRead() throws Exception {
+        //arrange
+        simpleFileReadWriter.createFile(new String[]{"dir"}, true);
+        final SimpleDirectory dir = (SimpleDirectory) simpleFileReadWriter.getFile(new String[]{"dir"});
+        final int count = 200;
+        for (int i = 0; i < count; i++) {
+            simpleFileReadWriter.createFile(new String[]{"dir", "file" + i}, false);
+        }
+        final int[] sizes = new int[8];
+        final Throwable[] error = {null};
+        final CountDownLatch latch = new CountDownLatch(1);
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < sizes.length; i++) {
+            final int thread = i;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        latch.await();
+                        sizes[thread] = simpleFileReadWriter.readDirectoryData(dir).size();
+                    } catch (Throwable e) {
+                        error[0] = e;
+                    }
+                }
+            }));
+        }
+
+        //act
+        for (Thread t : threads) {
+            t.start();
+        }
+        latch.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        //assert
+        assertNull(error[0]);
+        for (int size : sizes) {
+            assertEquals(count, size);
+        }
+    }
+
     @Test
     public void concurrentTest() throws Exception {
         //arrange
@@ -1,6 +1,8 @@
 package fileSystem.core.structure;
 
 import fileSystem.core.SimpleSimpleFileSystem;
+import fileSystem.core.structure.base.Durability;
+import fileSystem.core.structure.base.StorageType;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -139,4 +141,86 @@ public class SimpleSimpleFileSystemTest {
         //assert
         assertTrue(exc);
     }
+
+    @Test
+    public void CreateFile_MappedStorage_ReadAfterReopen() throws Exception {
+        //arrange
+        byte[] data = new byte[8888];
+        new Random().nextBytes(data);
+        fileSystem.close();
+        fileSystem = new SimpleSimpleFileSystem(filePath, StorageType.MAPPED);
+
+        //act
+        fileSystem.createFile("/test1").writeData(data);
+        fileSystem.close();
+        fileSystem = new SimpleSimpleFileSystem(filePath, StorageType.MAPPED);
+
+        //assert
+        SimpleFile file = fileSystem.getFile("/test1");
+        assertNotNull(file);
+        assertArrayEquals(data, file.readData());
+    }
+
+    @Test
+    public void CreateFile_DeletedAfterReopen_SpaceReused() throws Exception {
+        //arrange
+        byte[] data = new byte[8888];
+        new Random().nextBytes(data);
+        fileSystem.createFile("/test1").writeData(data);
+        fileSystem.close();
+        fileSystem = new SimpleSimpleFileSystem(filePath);
+        long size = Files.size(Paths.get(filePath));
+
+        //act
+        fileSystem.deleteFile("/test1");
+        fileSystem.createFile("/test2").writeData(data);
+        fileSystem.close();
+        fileSystem = new SimpleSimpleFileSystem(filePath);
+
+        //assert
+        assertEquals(size, Files.size(Paths.get(filePath)));
+        assertArrayEquals(data, fileSystem.getFile("/test2").readData());
+    }
+
+    @Test
+    public void CreateFile_EveryDurability_ReadAfterReopen() throws Exception {
+        //arrange
+        byte[] data = new byte[3333];
+        new Random().nextBytes(data);
+        fileSystem.close();
+
+        for (Durability durability : Durability.values()) {
+            fileSystem = new SimpleSimpleFileSystem(filePath, durability);
+
+            //act
+            fileSystem.createFile("/" + durability).writeData(data);
+            fileSystem.close();
+            fileSystem = new SimpleSimpleFileSystem(filePath, durability);
+
+            //assert
+            assertArrayEquals(data, fileSystem.getFile("/" + durability).readData());
+            fileSystem.close();
+        }
+        fileSystem = new SimpleSimpleFileSystem(filePath);
+        Files.deleteIfExists(Paths.get(filePath + SimpleFileReadWriter.JOURNAL_SUFFIX));
+    }
+
+    @Test
+    public void CreateFile_PerOperationDurability_InImageBeforeClose() throws Exception {
+        //arrange
+        byte[] data = new byte[3333];
+        new Random().nextBytes(data);
+        fileSystem.close();
+        fileSystem = new SimpleSimpleFileSystem(filePath, Durability.PER_OPERATION);
+
+        //act
+        fileSystem.createFile("/test1").writeData(data);
+
+        //assert
+        FileSystemOptions options = new FileSystemOptions();
+        options.setCacheSize(0);
+        try (SimpleFileReadWriter reader = new SimpleFileReadWriter(StorageType.POSITIONAL.open(Paths.get(filePath)), options)) {
+            assertArrayEquals(data, reader.readData(reader.getFile(new String[]{"test1"})));
+        }
+    }
 }
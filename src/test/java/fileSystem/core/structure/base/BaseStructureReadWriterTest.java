@@ -5,6 +5,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.Files;
@@ -43,6 +44,18 @@ public class BaseStructureReadWriterTest {
     public void tearDown() throws Exception {
         readWriter.close();
         Files.delete(Paths.get(filePath));
+        Files.deleteIfExists(Paths.get(filePath + ".journal"));
+    }
+
+    private Storage recreateJournaled() throws Exception {
+        readWriter.close();
+        Files.delete(Paths.get(filePath));
+        Storage image = new PositionalStorage(FileChannel.open(Paths.get(filePath), CREATE_NEW, WRITE, READ));
+        Storage log = new PositionalStorage(FileChannel.open(Paths.get(filePath + ".journal"), CREATE_NEW, WRITE, READ));
+        readWriter = new BaseStructureReadWriter(image, 1024 * 1024, 16, new Journal(log),
+                Journal.DEFAULT_CHECKPOINT_SIZE);
+        readWriter.writeHeader(new SimpleHeader(ImageFormat.V1, -1, -1, -1, -1));
+        return log;
     }
 
     @Test
@@ -90,6 +103,64 @@ public class BaseStructureReadWriterTest {
         assertArrayEquals(block.getData(), blockRead.getData());
     }
 
+    @Test
+    public void readBlockView_writtenBlock_fieldsRead() throws Exception {
+        //arrange
+        SimpleBlock block = readWriter.allocateNewBlock();
+        Random random = new Random();
+        random.nextBytes(block.getData());
+        block.setNextDataBlock(random.nextLong());
+        block.setSize(Constants.BLOCK_DATA_SIZE);
+        readWriter.writeBlock(block);
+
+        //act
+        BlockView view = readWriter.readBlockView(block.getCurPos());
+
+        //assert
+        byte[] data = new byte[Constants.BLOCK_DATA_SIZE];
+        view.copyData(data, 0, data.length);
+        assertEquals(block.getCurPos(), view.getCurPos());
+        assertEquals(block.getNextDataBlock(), view.getNextDataBlock());
+        assertEquals(block.getSize(), view.getSize());
+        assertArrayEquals(block.getData(), data);
+    }
+
+    @Test
+    public void writeBlockHeader_allocatedBlock_onlyHeaderWritten() throws Exception {
+        //arrange
+        SimpleBlock block = readWriter.allocateNewBlock();
+        new Random().nextBytes(block.getData());
+        readWriter.writeBlock(block);
+
+        //act
+        readWriter.writeBlockHeader(block.getCurPos(), 42, 7);
+
+        //assert
+        SimpleBlock blockRead = readWriter.readBlock(block.getCurPos());
+        assertEquals(42, blockRead.getNextDataBlock());
+        assertEquals(7, blockRead.getSize());
+        assertArrayEquals(block.getData(), blockRead.getData());
+    }
+
+    @Test
+    public void readChain_threeBlocks_positionsAndSizeRead() throws Exception {
+        //arrange
+        SimpleBlock block1 = readWriter.allocateNewBlock();
+        SimpleBlock block2 = readWriter.allocateNewBlock();
+        SimpleBlock block3 = readWriter.allocateNewBlock();
+        readWriter.writeBlockHeader(block1.getCurPos(), block2.getCurPos(), Constants.BLOCK_DATA_SIZE);
+        readWriter.writeBlockHeader(block2.getCurPos(), block3.getCurPos(), Constants.BLOCK_DATA_SIZE);
+        readWriter.writeBlockHeader(block3.getCurPos(), -1, 10);
+
+        //act
+        long[] chain = readWriter.readChain(block1.getCurPos());
+        long size = readWriter.readChainSize(block1.getCurPos());
+
+        //assert
+        assertArrayEquals(new long[]{block1.getCurPos(), block2.getCurPos(), block3.getCurPos()}, chain);
+        assertEquals(2 * Constants.BLOCK_DATA_SIZE + 10, size);
+    }
+
     @Test
     public void allocateNewINode_firstINode_allocated() throws Exception {
         //arrange
@@ -104,6 +175,36 @@ public class BaseStructureReadWriterTest {
         assertNotSame(-1, iNode.getCurPos());
     }
 
+    @Test
+    public void allocateNewINode_INodeTables_PackedIntoTablesOfAllocator() throws Exception {
+        //arrange
+        readWriter.close();
+        Files.delete(Paths.get(filePath));
+        Files.createFile(Paths.get(filePath));
+        ImageFormat format = new ImageFormat(4096, 1024);
+        readWriter = new BaseStructureReadWriter(format,
+                new ChannelStorage(Files.newByteChannel(Paths.get(filePath), WRITE, READ)), 1024 * 1024, 0, null, 0);
+        SpaceAllocator spaceAllocator = new SpaceAllocator(readWriter, true);
+        long root = spaceAllocator.getRoot().getCurPos();
+
+        //act
+        SimpleINode[] iNodes = new SimpleINode[format.getINodesPerBlock()];
+        for (int i = 0; i < iNodes.length; i++) {
+            iNodes[i] = readWriter.allocateNewINode();
+        }
+
+        //assert
+        assertEquals(format.toPos(0), root);
+        for (int i = 0; i < iNodes.length - 1; i++) {
+            assertEquals(root + (i + 1) * format.getINodeSize(), iNodes[i].getCurPos());
+            assertEquals(iNodes[i].getTimeStamp(), readWriter.readINode(iNodes[i].getCurPos()).getTimeStamp());
+        }
+        long last = iNodes[iNodes.length - 1].getCurPos();
+        assertEquals(last, format.recordOf(last));
+        assertTrue(last != root);
+        assertEquals(1, spaceAllocator.getINodeTableCount());
+    }
+
     @Test
     public void readINode_allocatedINode_read() throws Exception {
         //arrange
@@ -139,6 +240,29 @@ public class BaseStructureReadWriterTest {
         assertEquals(iNode.getFirstDataBlock(), iNodeRead.getFirstDataBlock());
     }
 
+    @Test
+    public void readINodeView_writtenINode_fieldsRead() throws Exception {
+        //arrange
+        SimpleINode iNode = readWriter.allocateNewINode();
+        Random random = new Random();
+        iNode.setFirstDataBlock(random.nextLong());
+        iNode.setLastDataBlock(random.nextLong());
+        iNode.setNextFreeINode(random.nextLong());
+        iNode.isDirectory = true;
+        readWriter.writeINode(iNode);
+
+        //act
+        INodeView view = readWriter.readINodeView(iNode.getCurPos());
+
+        //assert
+        assertEquals(iNode.getCurPos(), view.getCurPos());
+        assertEquals(iNode.getNextFreeINode(), view.getNextFreeINode());
+        assertEquals(iNode.getFirstDataBlock(), view.getFirstDataBlock());
+        assertEquals(iNode.getLastDataBlock(), view.getLastDataBlock());
+        assertEquals(iNode.getTimeStamp(), view.getTimeStamp());
+        assertTrue(view.isDirectory());
+    }
+
     @Test
     public void writeHeader_Default_written() throws Exception {
         //arrange
@@ -155,6 +279,75 @@ public class BaseStructureReadWriterTest {
         assertEquals(header.rootINode, headerRead.rootINode);
     }
 
+    @Test
+    public void endTransaction_AbortedTransaction_WritesRolledBackAndJournaled() throws Exception {
+        //arrange
+        Storage log = recreateJournaled();
+        SimpleBlock block = readWriter.allocateNewBlock();
+        SimpleINode iNode = readWriter.allocateNewINode();
+        readWriter.beginTransaction();
+        block.getData()[0] = 1;
+        block.setSize(1);
+        readWriter.writeBlock(block);
+        iNode.setTotalSize(1);
+        readWriter.writeINode(iNode);
+        readWriter.endTransaction();
+        readWriter.readINode(iNode.getCurPos());
+
+        //act
+        readWriter.beginTransaction();
+        block.getData()[0] = 2;
+        readWriter.writeBlock(block);
+        iNode.setTotalSize(2);
+        readWriter.writeINode(iNode);
+        readWriter.abortTransaction();
+        readWriter.endTransaction();
+
+        //assert
+        assertEquals(1, readWriter.readBlock(block.getCurPos()).getData()[0]);
+        assertEquals(1, readWriter.readINode(iNode.getCurPos()).getTotalSize());
+        Storage image = new PositionalStorage(FileChannel.open(Paths.get(filePath), WRITE, READ));
+        try {
+            assertEquals(2, Journal.recover(log, image));
+            BaseStructureReadWriter replayed = new BaseStructureReadWriter(image);
+            assertEquals(1, replayed.readBlock(block.getCurPos()).getData()[0]);
+            assertEquals(1, replayed.readINode(iNode.getCurPos()).getTotalSize());
+        } finally {
+            image.close();
+        }
+    }
+
+    @Test
+    public void beginTransaction_OtherThreadInTransaction_NotBlocked() throws Exception {
+        //arrange
+        recreateJournaled();
+        final SimpleBlock block = readWriter.allocateNewBlock();
+        final SimpleBlock other = readWriter.allocateNewBlock();
+        final boolean[] error = {false};
+        readWriter.beginTransaction();
+        readWriter.writeBlock(block);
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    readWriter.beginTransaction();
+                    readWriter.writeBlock(other);
+                    readWriter.endTransaction();
+                } catch (Throwable e) {
+                    error[0] = true;
+                }
+            }
+        });
+
+        //act
+        thread.start();
+        thread.join(10000);
+
+        //assert
+        assertFalse(thread.isAlive());
+        assertFalse(error[0]);
+        readWriter.endTransaction();
+    }
+
     @Test
     public void concurrentTest() throws Exception {
         //arrange
@@ -0,0 +1,110 @@
+package fileSystem.core.structure.base;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.Assert.*;
+
+public class BlockCacheTest {
+    String filePath = "fileSystem.simple";
+    Storage storage;
+    BlockCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        filePath += new Random().nextInt();
+        storage = new PositionalStorage(FileChannel.open(Paths.get(filePath), CREATE_NEW, WRITE, READ));
+        for (int i = 0; i < 64; i++) {
+            storage.append(ByteBuffer.allocate(Constants.BLOCK_SIZE));
+        }
+        cache = new BlockCache(storage, 16 * 4 * Constants.BLOCK_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        storage.close();
+        Files.delete(Paths.get(filePath));
+    }
+
+    @Test
+    public void read_SameBlockTwice_SecondIsHit() throws Exception {
+        //arrange
+        cache.read(0, ByteBuffer.allocate(Constants.BLOCK_SIZE));
+
+        //act
+        cache.read(0, ByteBuffer.allocate(Constants.BLOCK_SIZE));
+
+        //assert
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(Constants.BLOCK_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void write_NotFlushed_StorageUnchanged() throws Exception {
+        //arrange
+        byte[] data = randomBlock();
+
+        //act
+        cache.write(0, ByteBuffer.wrap(data));
+
+        //assert
+        ByteBuffer stored = ByteBuffer.allocate(Constants.BLOCK_SIZE);
+        storage.read(0, stored);
+        ByteBuffer cached = ByteBuffer.allocate(Constants.BLOCK_SIZE);
+        cache.read(0, cached);
+        assertArrayEquals(new byte[Constants.BLOCK_SIZE], stored.array());
+        assertArrayEquals(data, cached.array());
+    }
+
+    @Test
+    public void flush_DirtyBlock_Written() throws Exception {
+        //arrange
+        byte[] data = randomBlock();
+        cache.write(0, ByteBuffer.wrap(data));
+
+        //act
+        cache.flush();
+
+        //assert
+        ByteBuffer stored = ByteBuffer.allocate(Constants.BLOCK_SIZE);
+        storage.read(0, stored);
+        assertArrayEquals(data, stored.array());
+        assertEquals(1, cache.getWriteBacks());
+    }
+
+    @Test
+    public void write_MoreThanCapacity_EvictedAndWrittenBack() throws Exception {
+        //arrange
+        byte[][] data = new byte[64][];
+
+        //act
+        for (int i = 0; i < data.length; i++) {
+            data[i] = randomBlock();
+            cache.write((long) i * Constants.BLOCK_SIZE, ByteBuffer.wrap(data[i]));
+        }
+
+        //assert
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.getSize() <= cache.getCapacity());
+        for (int i = 0; i < data.length; i++) {
+            ByteBuffer read = ByteBuffer.allocate(Constants.BLOCK_SIZE);
+            cache.read((long) i * Constants.BLOCK_SIZE, read);
+            assertArrayEquals(data[i], read.array());
+        }
+    }
+
+    private byte[] randomBlock() {
+        byte[] data = new byte[Constants.BLOCK_SIZE];
+        new Random().nextBytes(data);
+        return data;
+    }
+}
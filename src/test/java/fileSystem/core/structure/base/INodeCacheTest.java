@@ -0,0 +1,103 @@
+package fileSystem.core.structure.base;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.Assert.*;
+
+public class INodeCacheTest {
+    String filePath = "fileSystem.simple";
+    BaseStructureReadWriter readWriter;
+    INodeCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        filePath += new Random().nextInt();
+        Storage storage = new PositionalStorage(FileChannel.open(Paths.get(filePath), CREATE_NEW, WRITE, READ));
+        readWriter = new BaseStructureReadWriter(storage, 0, 64, null, 0);
+        cache = readWriter.getINodeCache();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        readWriter.close();
+        Files.delete(Paths.get(filePath));
+    }
+
+    @Test
+    public void readINode_SameINodeTwice_SecondIsHitAndCopy() throws Exception {
+        //arrange
+        SimpleINode iNode = readWriter.allocateNewINode();
+        SimpleINode first = readWriter.readINode(iNode.getCurPos());
+        first.setTotalSize(42);
+
+        //act
+        SimpleINode second = readWriter.readINode(iNode.getCurPos());
+
+        //assert
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertNotSame(first, second);
+        assertEquals(-1, second.getTotalSize());
+    }
+
+    @Test
+    public void writeINode_CachedINode_ReadWithoutStorage() throws Exception {
+        //arrange
+        SimpleINode iNode = readWriter.allocateNewINode();
+        readWriter.readINode(iNode.getCurPos());
+        iNode.setTotalSize(42);
+
+        //act
+        readWriter.writeINode(iNode);
+        SimpleINode read = readWriter.readINode(iNode.getCurPos());
+        INodeView view = readWriter.readINodeView(iNode.getCurPos());
+
+        //assert
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(42, read.getTotalSize());
+        assertEquals(42, view.getTotalSize());
+        assertEquals(iNode.getTimeStamp(), view.getTimeStamp());
+    }
+
+    @Test
+    public void invalidateINode_CachedINode_NextReadIsMiss() throws Exception {
+        //arrange
+        SimpleINode iNode = readWriter.allocateNewINode();
+        readWriter.readINode(iNode.getCurPos());
+
+        //act
+        readWriter.invalidateINode(iNode.getCurPos());
+        readWriter.readINode(iNode.getCurPos());
+
+        //assert
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void readINode_MoreThanCapacity_SizeBounded() throws Exception {
+        //arrange
+        long[] positions = new long[4 * cache.getCapacity()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = readWriter.allocateNewINode().getCurPos();
+        }
+
+        //act
+        for (long pos : positions) {
+            readWriter.readINode(pos);
+        }
+
+        //assert
+        assertTrue(cache.getSize() <= cache.getCapacity());
+        assertTrue(cache.getSize() > 0);
+    }
+}
@@ -0,0 +1,223 @@
+package fileSystem.core.structure.base;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.Assert.*;
+
+public class JournalTest {
+    String filePath = "fileSystem.simple";
+    PositionalStorage image;
+    PositionalStorage log;
+
+    @Before
+    public void setUp() throws Exception {
+        filePath += new Random().nextInt();
+        image = new PositionalStorage(FileChannel.open(Paths.get(filePath), CREATE_NEW, WRITE, READ));
+        log = new PositionalStorage(FileChannel.open(Paths.get(filePath + ".journal"), CREATE_NEW, WRITE, READ));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        image.close();
+        log.close();
+        Files.delete(Paths.get(filePath));
+        Files.delete(Paths.get(filePath + ".journal"));
+    }
+
+    @Test
+    public void recover_CommittedTransactions_WrittenToImage() throws Exception {
+        //arrange
+        Journal journal = new Journal(log);
+        byte[] first = block((byte) 1);
+        byte[] second = block((byte) 2);
+        journal.commit(journal.append(Collections.singletonList(0L), Collections.singletonList(first)));
+        journal.commit(journal.append(Arrays.asList(0L, (long) Constants.BLOCK_SIZE), Arrays.asList(second, first)));
+
+        //act
+        int count = Journal.recover(log, image);
+
+        //assert
+        assertEquals(2, count);
+        assertArrayEquals(second, read(0));
+        assertArrayEquals(first, read(Constants.BLOCK_SIZE));
+        assertEquals(0, Journal.recover(log, image));
+    }
+
+    @Test
+    public void recover_BrokenLastTransaction_Ignored() throws Exception {
+        //arrange
+        Journal journal = new Journal(log);
+        journal.commit(journal.append(Collections.singletonList(0L), Collections.singletonList(block((byte) 1))));
+        long end = log.size();
+        journal.commit(journal.append(Collections.singletonList(0L), Collections.singletonList(block((byte) 2))));
+        log.write(end + 30, ByteBuffer.wrap(new byte[]{42}));
+
+        //act
+        int count = Journal.recover(log, image);
+
+        //assert
+        assertEquals(1, count);
+        assertArrayEquals(block((byte) 1), read(0));
+    }
+
+    @Test
+    public void recover_AfterReset_OldTransactionsIgnored() throws Exception {
+        //arrange
+        Journal journal = new Journal(log);
+        journal.commit(journal.append(Collections.singletonList(0L), Collections.singletonList(block((byte) 1))));
+        journal.commit(journal.append(Collections.singletonList(0L), Collections.singletonList(block((byte) 2))));
+        journal.reset();
+        journal.commit(journal.append(Collections.singletonList(0L), Collections.singletonList(block((byte) 3))));
+
+        //act
+        int count = Journal.recover(log, image);
+
+        //assert
+        assertEquals(1, count);
+        assertArrayEquals(block((byte) 3), read(0));
+    }
+
+    @Test
+    public void commit_WriteFailed_TransactionWrittenByNextCommit() throws Exception {
+        //arrange
+        FailingStorage failing = new FailingStorage(log);
+        Journal journal = new Journal(failing);
+        long first = journal.append(Collections.singletonList(0L), Collections.singletonList(block((byte) 1)));
+        IOException error = null;
+        try {
+            journal.commit(first);
+        } catch (IOException e) {
+            error = e;
+        }
+        failing.fail = false;
+
+        //act
+        journal.commit(journal.append(Collections.singletonList((long) Constants.BLOCK_SIZE),
+                Collections.singletonList(block((byte) 2))));
+        int count = Journal.recover(log, image);
+
+        //assert
+        assertNotNull(error);
+        assertEquals(2, count);
+        assertArrayEquals(block((byte) 1), read(0));
+        assertArrayEquals(block((byte) 2), read(Constants.BLOCK_SIZE));
+    }
+
+    @Test
+    public void commit_ConcurrentTransactions_AllRecovered() throws Exception {
+        //arrange
+        final Journal journal = new Journal(log);
+        final Throwable[] error = {null};
+        final CountDownLatch latch = new CountDownLatch(1);
+        final int count = 50;
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final long pos = (long) i * Constants.BLOCK_SIZE;
+            final byte value = (byte) i;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        latch.await();
+                        journal.commit(journal.append(Collections.singletonList(pos),
+                                Collections.singletonList(block(value))));
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                        error[0] = e;
+                    }
+                }
+            }));
+        }
+
+        //act
+        for (Thread t : threads) {
+            t.start();
+        }
+        latch.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        int recovered = Journal.recover(log, image);
+
+        //assert
+        assertNull(error[0]);
+        assertEquals(count, recovered);
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(block((byte) i), read((long) i * Constants.BLOCK_SIZE));
+        }
+    }
+
+    /**
+     * Log whose writes fail while fail is set.
+     */
+    private static class FailingStorage implements Storage {
+        private final Storage storage;
+        volatile boolean fail = true;
+
+        FailingStorage(Storage storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public void read(long pos, ByteBuffer target) throws IOException {
+            storage.read(pos, target);
+        }
+
+        @Override
+        public void write(long pos, ByteBuffer source) throws IOException {
+            if (fail)
+                throw new IOException("Write failed.");
+            storage.write(pos, source);
+        }
+
+        @Override
+        public long append(ByteBuffer source) throws IOException {
+            return storage.append(source);
+        }
+
+        @Override
+        public long size() throws IOException {
+            return storage.size();
+        }
+
+        @Override
+        public void extend(long newSize) throws IOException {
+            storage.extend(newSize);
+        }
+
+        @Override
+        public void force() throws IOException {
+            storage.force();
+        }
+
+        @Override
+        public void close() throws IOException {
+            storage.close();
+        }
+    }
+
+    private static byte[] block(byte value) {
+        byte[] data = new byte[Constants.BLOCK_SIZE];
+        Arrays.fill(data, value);
+        return data;
+    }
+
+    private byte[] read(long pos) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(Constants.BLOCK_SIZE);
+        image.read(pos, buffer);
+        return buffer.array();
+    }
+}
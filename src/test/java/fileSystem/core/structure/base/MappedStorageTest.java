@@ -0,0 +1,87 @@
+package fileSystem.core.structure.base;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.Assert.*;
+
+public class MappedStorageTest {
+    static final int SEGMENT_SIZE = 4096;
+
+    String filePath = "fileSystem.simple";
+    MappedStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        filePath += new Random().nextInt();
+        Path path = Paths.get(filePath);
+        storage = new MappedStorage(FileChannel.open(path, CREATE_NEW, WRITE, READ), SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        storage.close();
+        Files.delete(Paths.get(filePath));
+    }
+
+    @Test
+    public void append_SeveralSegments_MappingGrown() throws Exception {
+        //arrange
+        byte[] data = new byte[SEGMENT_SIZE * 3 + 17];
+        new Random().nextBytes(data);
+
+        //act
+        long pos = storage.append(ByteBuffer.wrap(data));
+
+        //assert
+        ByteBuffer read = ByteBuffer.allocate(data.length);
+        storage.read(pos, read);
+        assertEquals(0, pos);
+        assertEquals(data.length, storage.size());
+        assertArrayEquals(data, read.array());
+    }
+
+    @Test
+    public void write_AcrossSegmentBoundary_Written() throws Exception {
+        //arrange
+        storage.append(ByteBuffer.allocate(SEGMENT_SIZE * 2));
+        byte[] data = new byte[Constants.BLOCK_SIZE];
+        new Random().nextBytes(data);
+        long pos = SEGMENT_SIZE - Constants.BLOCK_SIZE / 2;
+
+        //act
+        storage.write(pos, ByteBuffer.wrap(data));
+
+        //assert
+        ByteBuffer read = ByteBuffer.allocate(data.length);
+        storage.read(pos, read);
+        assertArrayEquals(data, read.array());
+    }
+
+    @Test
+    public void close_Reopened_DataAndSizeKept() throws Exception {
+        //arrange
+        byte[] data = new byte[SEGMENT_SIZE + 1];
+        new Random().nextBytes(data);
+        storage.append(ByteBuffer.wrap(data));
+
+        //act
+        storage.close();
+        storage = new MappedStorage(FileChannel.open(Paths.get(filePath), WRITE, READ), SEGMENT_SIZE);
+
+        //assert
+        ByteBuffer read = ByteBuffer.allocate(data.length);
+        storage.read(0, read);
+        assertEquals(data.length, storage.size());
+        assertArrayEquals(data, read.array());
+    }
+}
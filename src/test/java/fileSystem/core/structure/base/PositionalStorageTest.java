@@ -0,0 +1,115 @@
+package fileSystem.core.structure.base;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.Assert.*;
+
+public class PositionalStorageTest {
+    String filePath = "fileSystem.simple";
+    PositionalStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        filePath += new Random().nextInt();
+        Path path = Paths.get(filePath);
+        storage = new PositionalStorage(FileChannel.open(path, CREATE_NEW, WRITE, READ));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        storage.close();
+        Files.delete(Paths.get(filePath));
+    }
+
+    @Test
+    public void write_AfterEnd_SizeMoved() throws Exception {
+        //arrange
+        byte[] data = new byte[Constants.BLOCK_SIZE];
+        new Random().nextBytes(data);
+
+        //act
+        storage.write(Constants.BLOCK_SIZE, ByteBuffer.wrap(data));
+
+        //assert
+        ByteBuffer read = ByteBuffer.allocate(data.length);
+        storage.read(Constants.BLOCK_SIZE, read);
+        assertEquals(2 * Constants.BLOCK_SIZE, storage.size());
+        assertArrayEquals(data, read.array());
+    }
+
+    @Test
+    public void extend_EmptyImage_AppendAfterNewPart() throws Exception {
+        //arrange
+        ByteBuffer block = ByteBuffer.allocate(Constants.BLOCK_SIZE);
+
+        //act
+        storage.extend(10 * Constants.BLOCK_SIZE);
+        long pos = storage.append(block);
+
+        //assert
+        ByteBuffer read = ByteBuffer.allocate(Constants.BLOCK_SIZE);
+        storage.read(5 * Constants.BLOCK_SIZE, read);
+        assertEquals(10 * Constants.BLOCK_SIZE, pos);
+        assertEquals(11 * Constants.BLOCK_SIZE, Files.size(Paths.get(filePath)));
+        assertArrayEquals(new byte[Constants.BLOCK_SIZE], read.array());
+    }
+
+    @Test
+    public void concurrentTest() throws Exception {
+        //arrange
+        final Throwable[] error = {null};
+        final CountDownLatch latch = new CountDownLatch(1);
+        final int count = 100;
+        final ConcurrentHashMap<Long, Byte> positions = new ConcurrentHashMap<>();
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final byte value = (byte) i;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        latch.await();
+                        byte[] data = new byte[Constants.BLOCK_SIZE];
+                        Arrays.fill(data, value);
+                        positions.put(storage.append(ByteBuffer.wrap(data)), value);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                        error[0] = e;
+                    }
+                }
+            }));
+        }
+
+        //act
+        for (Thread t : threads) {
+            t.start();
+        }
+        latch.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        //assert
+        assertNull(error[0]);
+        assertEquals(count, positions.size());
+        assertEquals(count * Constants.BLOCK_SIZE, storage.size());
+        for (Long pos : positions.keySet()) {
+            ByteBuffer read = ByteBuffer.allocate(Constants.BLOCK_SIZE);
+            storage.read(pos, read);
+            assertEquals((byte) positions.get(pos), read.get(Constants.BLOCK_SIZE - 1));
+        }
+    }
+}
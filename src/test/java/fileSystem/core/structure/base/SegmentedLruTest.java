@@ -0,0 +1,63 @@
+package fileSystem.core.structure.base;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SegmentedLruTest {
+
+    @Test
+    public void put_MoreThanCapacity_SizeBounded() throws Exception {
+        //arrange
+        SegmentedLru<Long, Long> lru = new SegmentedLru<>(64);
+
+        //act
+        for (long i = 0; i < 1024; i++) {
+            lru.put(i, i);
+        }
+
+        //assert
+        assertTrue(lru.getSize() <= lru.getCapacity());
+        assertEquals(Long.valueOf(1023), lru.get(1023L));
+    }
+
+    @Test
+    public void put_SegmentFull_LeastRecentlyUsedEvicted() throws Exception {
+        //arrange
+        SegmentedLru<Long, Long> lru = new SegmentedLru<>(32);
+        long first = 0;
+        long second = first + 1;
+        while (lru.lockOf(second) != lru.lockOf(first)) {
+            second++;
+        }
+        long third = second + 1;
+        while (lru.lockOf(third) != lru.lockOf(first)) {
+            third++;
+        }
+        lru.put(first, first);
+        lru.put(second, second);
+        lru.get(first);
+
+        //act
+        lru.put(third, third);
+
+        //assert
+        assertEquals(Long.valueOf(first), lru.get(first));
+        assertNull(lru.get(second));
+        assertEquals(Long.valueOf(third), lru.get(third));
+    }
+
+    @Test
+    public void remove_PutKey_Forgotten() throws Exception {
+        //arrange
+        SegmentedLru<String, Long> lru = new SegmentedLru<>(16);
+        lru.put("/a", 1L);
+
+        //act
+        lru.remove("/a");
+
+        //assert
+        assertNull(lru.get("/a"));
+        assertEquals(0, lru.getSize());
+    }
+}
@@ -5,12 +5,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
@@ -46,6 +48,27 @@ public class SpaceAllocatorTest {
     public void tearDown() throws Exception {
         spaceAllocator.close();
         Files.delete(Paths.get(filePath));
+        Files.deleteIfExists(Paths.get(filePath + ".journal"));
+    }
+
+    private void recreateJournaled() throws Exception {
+        readWriter.close();
+        Path path = Paths.get(filePath);
+        Files.delete(path);
+        Storage log = new PositionalStorage(FileChannel.open(Paths.get(filePath + ".journal"), CREATE_NEW, WRITE, READ));
+        readWriter = new BaseStructureReadWriter(new PositionalStorage(FileChannel.open(path, CREATE_NEW, WRITE, READ)),
+                1024 * 1024, 16, new Journal(log), Journal.DEFAULT_CHECKPOINT_SIZE);
+        spaceAllocator = new SpaceAllocator(readWriter, true);
+    }
+
+    private void recreate(ImageFormat format) throws Exception {
+        readWriter.close();
+        Path path = Paths.get(filePath);
+        Files.delete(path);
+        Files.createFile(path);
+        readWriter = new BaseStructureReadWriter(format, new ChannelStorage(Files.newByteChannel(path, WRITE, READ)),
+                0, 0, null, 0);
+        spaceAllocator = new SpaceAllocator(readWriter, true);
     }
 
     @Test
@@ -121,6 +144,280 @@ public class SpaceAllocatorTest {
         assertEquals(iNode.getCurPos(), iNodeRead.getCurPos());
     }
 
+    @Test
+    public void markBlockAsFree_InTransaction_FreedWhenJournaled() throws Exception {
+        //arrange
+        recreateJournaled();
+        SimpleBlock block = spaceAllocator.getFreeBlock();
+        long free = spaceAllocator.getFreeCount();
+        readWriter.beginTransaction();
+        spaceAllocator.markBlockAsFree(block.getCurPos());
+
+        //act
+        long freeInTransaction = spaceAllocator.getFreeCount();
+        readWriter.endTransaction();
+
+        //assert
+        assertEquals(free, freeInTransaction);
+        assertEquals(free + 1, spaceAllocator.getFreeCount());
+    }
+
+    @Test
+    public void endTransaction_AbortedTransaction_AllocatedFreedAndFreedKept() throws Exception {
+        //arrange
+        recreateJournaled();
+        spaceAllocator.preallocate(1024 * 1024);
+        SimpleBlock used = spaceAllocator.getFreeBlock();
+        long free = spaceAllocator.getFreeCount();
+        readWriter.beginTransaction();
+        spaceAllocator.getFreeBlock();
+        spaceAllocator.getFreeINode();
+        spaceAllocator.markBlockAsFree(used.getCurPos());
+
+        //act
+        readWriter.abortTransaction();
+        readWriter.endTransaction();
+
+        //assert
+        assertEquals(free, spaceAllocator.getFreeCount());
+    }
+
+    @Test
+    public void markBlockAsFree_StoredMapUnderJournal_HeaderJournaledWithTransaction() throws Exception {
+        //arrange
+        recreateJournaled();
+        SimpleBlock block = spaceAllocator.getFreeBlock();
+        spaceAllocator.close();
+        readWriter.flush();
+        spaceAllocator = new SpaceAllocator(readWriter, false);
+        int mapBlocks = readWriter.readChain(readWriter.readHeader().freeSpaceMap).length;
+        long free = spaceAllocator.getFreeCount();
+        byte[] stored = Arrays.copyOf(Files.readAllBytes(Paths.get(filePath)), 32);
+        readWriter.beginTransaction();
+
+        //act
+        spaceAllocator.markBlockAsFree(block.getCurPos());
+        byte[] storedInTransaction = Arrays.copyOf(Files.readAllBytes(Paths.get(filePath)), 32);
+        readWriter.abortTransaction();
+        readWriter.endTransaction();
+
+        //assert
+        assertTrue(Arrays.equals(stored, storedInTransaction));
+        assertFalse(readWriter.readHeader().hasFreeSpaceMap());
+        assertEquals(free + mapBlocks, spaceAllocator.getFreeCount());
+    }
+
+    @Test
+    public void markINodeAsFree_CachedINode_Forgotten() throws Exception {
+        //arrange
+        SimpleINode iNode = spaceAllocator.getFreeINode();
+        long misses = readWriter.getINodeCache().getMisses();
+
+        //act
+        spaceAllocator.markINodeAsFree(iNode.getCurPos());
+        SimpleBlock block = spaceAllocator.getFreeBlock();
+        readWriter.writeBlock(block);
+        readWriter.readINode(iNode.getCurPos());
+
+        //assert
+        assertEquals(iNode.getCurPos(), block.getCurPos());
+        assertEquals(misses + 1, readWriter.getINodeCache().getMisses());
+    }
+
+    @Test
+    public void getFreeBlocks_FreeRunsOfDifferentSizes_SmallestFittingRunUsed() throws Exception {
+        //arrange
+        SimpleBlock[] blocks = spaceAllocator.getFreeBlocks(10);
+        for (SimpleBlock block : blocks) {
+            readWriter.writeBlock(block);
+        }
+        for (int i : new int[]{1, 3, 4, 5, 7, 8}) {
+            spaceAllocator.markListOfBlocksAsFree(blocks[i].getCurPos(), blocks[i].getCurPos());
+        }
+
+        //act
+        SimpleBlock[] two = spaceAllocator.getFreeBlocks(2);
+        SimpleBlock[] three = spaceAllocator.getFreeBlocks(3);
+
+        //assert
+        assertEquals(blocks[7].getCurPos(), two[0].getCurPos());
+        assertEquals(blocks[8].getCurPos(), two[1].getCurPos());
+        assertEquals(blocks[3].getCurPos(), three[0].getCurPos());
+        assertEquals(blocks[5].getCurPos(), three[2].getCurPos());
+    }
+
+    @Test
+    public void getFreeBlocks_FreeRunAtTheEnd_ContinuedByNewBlocks() throws Exception {
+        //arrange
+        SimpleBlock[] blocks = spaceAllocator.getFreeBlocks(10);
+        for (SimpleBlock block : blocks) {
+            readWriter.writeBlock(block);
+        }
+        spaceAllocator.markListOfBlocksAsFree(blocks[1].getCurPos(), blocks[1].getCurPos());
+        spaceAllocator.markListOfBlocksAsFree(blocks[9].getCurPos(), blocks[9].getCurPos());
+
+        //act
+        SimpleBlock[] result = spaceAllocator.getFreeBlocks(3);
+
+        //assert
+        for (int i = 0; i < result.length; i++) {
+            assertEquals(blocks[9].getCurPos() + i * Constants.BLOCK_SIZE, result[i].getCurPos());
+        }
+    }
+
+    @Test
+    public void getFreeBlocks_MoreThanGroup_GroupsKeptAfterReopen() throws Exception {
+        //arrange
+        SimpleBlock[] blocks = spaceAllocator.getFreeBlocks(SpaceAllocator.GROUP_SIZE);
+        readWriter.writeBlock(blocks[0]);
+        spaceAllocator.markListOfBlocksAsFree(blocks[0].getCurPos(), blocks[0].getCurPos());
+        int groupCount = spaceAllocator.getGroupCount();
+        long freeCount = spaceAllocator.getFreeCount();
+
+        //act
+        spaceAllocator.close();
+        spaceAllocator = new SpaceAllocator(readWriter, false);
+        spaceAllocator.getFreeBlock();
+
+        //assert
+        assertTrue(groupCount > 1);
+        assertEquals(groupCount, spaceAllocator.getGroupCount());
+        assertEquals(freeCount - 1, spaceAllocator.getFreeCount());
+    }
+
+    @Test
+    public void preallocate_TenMegabytes_GrownOnceAndRegisteredAsFree() throws Exception {
+        //arrange
+        long imageSize = 10 * 1024 * 1024;
+
+        //act
+        spaceAllocator.preallocate(imageSize);
+        spaceAllocator.getFreeBlocks(1000);
+
+        //assert
+        assertTrue(readWriter.size() >= imageSize);
+        assertTrue(readWriter.size() < imageSize + Constants.BLOCK_SIZE);
+        assertEquals(2, spaceAllocator.getGroupCount());
+        assertEquals(readWriter.getFormat().countOf(readWriter.size()) - 1 - 1000, spaceAllocator.getFreeCount());
+    }
+
+    @Test
+    public void close_MapBlocksGrowImage_FreeSpaceKeptAfterReopen() throws Exception {
+        //arrange
+        SimpleBlock[] blocks = spaceAllocator.getFreeBlocks(6000);
+        for (int i = 1; i < blocks.length; i += 2) {
+            spaceAllocator.markBlockAsFree(blocks[i].getCurPos());
+        }
+        spaceAllocator.markBlockAsFree(blocks[blocks.length - 1].getCurPos());
+        long size = readWriter.size();
+
+        //act
+        spaceAllocator.close();
+        long freeCount = spaceAllocator.getFreeCount();
+        spaceAllocator = new SpaceAllocator(readWriter, false);
+
+        //assert
+        assertTrue(readWriter.size() > size);
+        assertFalse(spaceAllocator.needsRebuild());
+        assertEquals(freeCount, spaceAllocator.getFreeCount());
+    }
+
+    @Test
+    public void close_BlocksFreed_FreeSpaceKeptAfterReopen() throws Exception {
+        //arrange
+        SimpleBlock block1 = spaceAllocator.getFreeBlock();
+        SimpleBlock block2 = spaceAllocator.getFreeBlock();
+        readWriter.writeBlock(block1);
+        readWriter.writeBlock(block2);
+        spaceAllocator.markListOfBlocksAsFree(block1.getCurPos(), block1.getCurPos());
+
+        //act
+        spaceAllocator.close();
+        spaceAllocator = new SpaceAllocator(readWriter, false);
+
+        //assert
+        assertFalse(spaceAllocator.needsRebuild());
+        assertEquals(block1.getCurPos(), spaceAllocator.getFreeBlock().getCurPos());
+    }
+
+    @Test
+    public void getFreeINode_INodeTables_PackedIntoRecordOfRoot() throws Exception {
+        //arrange
+        ImageFormat format = new ImageFormat(4096, 512);
+        recreate(format);
+        long rootTable = format.recordOf(spaceAllocator.getRoot().getCurPos());
+
+        //act
+        SimpleINode[] iNodes = new SimpleINode[format.getINodesPerBlock()];
+        for (int i = 0; i < iNodes.length; i++) {
+            iNodes[i] = spaceAllocator.getFreeINode();
+        }
+
+        //assert
+        assertEquals(format.toPos(0), rootTable);
+        for (int i = 0; i + 1 < iNodes.length; i++) {
+            assertEquals(rootTable, format.recordOf(iNodes[i].getCurPos()));
+        }
+        assertFalse(rootTable == format.recordOf(iNodes[iNodes.length - 1].getCurPos()));
+        assertEquals(iNodes[1].getTimeStamp(), readWriter.readINode(iNodes[1].getCurPos()).getTimeStamp());
+    }
+
+    @Test
+    public void markINodeAsFree_LastINodeOfTable_RecordFreed() throws Exception {
+        //arrange
+        ImageFormat format = new ImageFormat(4096, 1024);
+        recreate(format);
+        SimpleINode[] iNodes = new SimpleINode[format.getINodesPerBlock()];
+        for (int i = 0; i < iNodes.length; i++) {
+            iNodes[i] = spaceAllocator.getFreeINode();
+        }
+        long freeCount = spaceAllocator.getFreeCount();
+
+        //act
+        spaceAllocator.markINodeAsFree(iNodes[iNodes.length - 1].getCurPos());
+        long afterOne = spaceAllocator.getFreeCount();
+        spaceAllocator.markINodeAsFree(iNodes[iNodes.length - 2].getCurPos());
+
+        //assert
+        assertEquals(freeCount + 1, afterOne);
+        assertEquals(afterOne, spaceAllocator.getFreeCount());
+        assertEquals(1, spaceAllocator.getINodeTableCount());
+    }
+
+    @Test
+    public void close_INodeFreed_SlotReusedAfterReopen() throws Exception {
+        //arrange
+        recreate(new ImageFormat(4096, 512));
+        spaceAllocator.getFreeINode();
+        SimpleINode freed = spaceAllocator.getFreeINode();
+        spaceAllocator.getFreeINode();
+        spaceAllocator.markINodeAsFree(freed.getCurPos());
+
+        //act
+        spaceAllocator.close();
+        spaceAllocator = new SpaceAllocator(readWriter, false);
+
+        //assert
+        assertFalse(spaceAllocator.needsRebuild());
+        assertEquals(freed.getCurPos(), spaceAllocator.getFreeINode().getCurPos());
+    }
+
+    @Test
+    public void new_NotClosed_NeedsRebuild() throws Exception {
+        //arrange
+        SimpleBlock block = spaceAllocator.getFreeBlock();
+        readWriter.writeBlock(block);
+
+        //act
+        SpaceAllocator reopened = new SpaceAllocator(readWriter, false);
+
+        //assert
+        assertTrue(reopened.needsRebuild());
+        reopened.markUsed(block.getCurPos());
+        reopened.finishRebuild();
+        assertFalse(block.getCurPos() == reopened.getFreeBlock().getCurPos());
+    }
+
     @Test
     public void concurrentTest() throws Exception {
         //arrange